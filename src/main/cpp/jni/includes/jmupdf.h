@@ -31,6 +31,10 @@ typedef enum jni_color_types
 	COLOR_ARGB = 2,
 	COLOR_ARGB_PRE = 3,
 	COLOR_BGR = 4,
+	COLOR_3BYTE_BGR = 5,
+	COLOR_4BYTE_ABGR = 6,
+	COLOR_BYTE_RGBA = 7,
+	COLOR_BYTE_BGRA_PRE = 8,
 	COLOR_GRAY_SCALE = 10,
 	COLOR_BLACK_WHITE = 12,
 	COLOR_BLACK_WHITE_DITHER = 121
@@ -44,9 +48,84 @@ typedef enum jni_doc_types
 	DOC_CBZ = 2
 } jni_doc_type;
 
+// PNG row filters. Values are the PNG filter type bytes.
+typedef enum jni_png_filters
+{
+	PNG_FILTER_NONE = 0,
+	PNG_FILTER_SUB = 1,
+	PNG_FILTER_UP = 2,
+	PNG_FILTER_AVERAGE = 3,
+	PNG_FILTER_PAETH = 4,
+	PNG_FILTER_ADAPTIVE = 5
+} jni_png_filter;
+
 // Page rendering options
 typedef struct jni_options_s jni_options;
 
+// Encoded image output
+typedef struct jni_output_s jni_output;
+
+// TIF file pages are added to
+typedef struct jni_tif_session_s jni_tif_session;
+
+// Image writer fed one band of rows at a time, top to bottom
+typedef struct jni_band_writer_s jni_band_writer;
+struct jni_band_writer_s
+{
+	void (*write_band)(fz_context*, jni_band_writer*, fz_pixmap*);
+	void (*close)(fz_context*, jni_band_writer*);
+	void (*drop)(fz_context*, jni_band_writer*);
+};
+
+// Display list cache entry
+typedef struct jni_list_entry_s jni_list_entry;
+struct jni_list_entry_s
+{
+	int pagen;
+	int refs;
+	int size;
+	fz_display_list *list;
+	jni_list_entry *prev;
+	jni_list_entry *next;
+};
+
+// Display list cache
+typedef struct jni_list_cache_s jni_list_cache;
+struct jni_list_cache_s
+{
+	jni_list_entry *head;
+	jni_list_entry *tail;
+	int count;
+	int size;
+	int max_size;
+	int hits;
+	int misses;
+	int evictions;
+};
+
+// Default display list cache size
+#define JNI_LIST_CACHE_SIZE (16 << 20)
+
+// Pixel buffer pool size classes
+#define JNI_PIXEL_POOL_MIN_BLOCK 4096
+#define JNI_PIXEL_POOL_CLASSES 80
+
+// Pixel buffer pool
+typedef struct jni_pixel_pool_s jni_pixel_pool;
+struct jni_pixel_pool_s
+{
+	struct jni_pixel_block_s *free[JNI_PIXEL_POOL_CLASSES];
+	int count;
+	int size;
+	int max_size;
+	int hits;
+	int misses;
+	int discards;
+};
+
+// Default pixel buffer pool size
+#define JNI_PIXEL_POOL_SIZE (32 << 20)
+
 // Document structure
 typedef struct jni_document_s jni_document;
 struct jni_document_s
@@ -54,6 +133,8 @@ struct jni_document_s
 	fz_context *ctx;
 	fz_document *doc;
 	jni_doc_type type;
+	jni_list_cache *lists;
+	jni_pixel_pool *pixels;
 };
 
 // Page structure
@@ -65,7 +146,9 @@ struct jni_page_s
 	jni_options *options;
 	fz_page *page;
 	fz_display_list *list;
+	jni_list_entry *entry;
 	fz_rect bbox;
+	int pagen;
 };
 
 // Default DPI
@@ -90,6 +173,8 @@ fz_locks_context * jni_new_locks();
 void jni_free_locks(fz_locks_context*);
 void jni_lock(fz_context*);
 void jni_unlock(fz_context*);
+typedef void (jni_task)(void*, int);
+void jni_run_tasks(jni_task*, void*, int);
 
 // jni_java_document.c
 jni_document *jni_get_document(jlong);
@@ -97,6 +182,29 @@ jni_document *jni_get_document(jlong);
 // jni_java_page.c
 jni_page *jni_get_page(jlong);
 
+// jni_stream_mmap.c
+fz_stream *jni_open_mmap(fz_context*, const char*);
+
+// jni_stream_channel.c
+fz_stream *jni_open_channel(JNIEnv*, fz_context*, jobject);
+
+// jni_list_cache.c
+jni_list_cache *jni_new_list_cache(fz_context*, int);
+void jni_free_list_cache(fz_context*, jni_list_cache*);
+void jni_resize_list_cache(fz_context*, jni_list_cache*, int);
+jni_list_entry *jni_find_list(fz_context*, jni_list_cache*, int);
+jni_list_entry *jni_store_list(fz_context*, jni_list_cache*, int, fz_display_list*);
+void jni_drop_list(fz_context*, jni_list_cache*, jni_list_entry*);
+void jni_list_cache_stats(fz_context*, jni_list_cache*, int*);
+
+// jni_pixel_pool.c
+jni_pixel_pool *jni_new_pixel_pool(fz_context*, int);
+void jni_free_pixel_pool(fz_context*, jni_pixel_pool*);
+void jni_resize_pixel_pool(fz_context*, jni_pixel_pool*, int);
+void *jni_pixel_alloc(fz_context*, jni_pixel_pool*, unsigned int);
+void jni_pixel_free(fz_context*, jni_pixel_pool*, void*);
+void jni_pixel_pool_stats(fz_context*, jni_pixel_pool*, int*);
+
 // jni_java_pixmap.c
 jni_options * jni_new_options(fz_context*);
 char * jni_jbyte_to_char(JNIEnv*, fz_context*, jbyteArray);
@@ -104,11 +212,33 @@ fz_matrix jni_get_view_ctm(float, int);
 int jni_pix_to_black_white(fz_context*, fz_pixmap*, int, unsigned char* );
 int jni_pix_to_binary(fz_context*, fz_pixmap*, int, unsigned char*);
 
+// jni_output.c
+jni_output *jni_new_file_output(fz_context*, const char*);
+jni_output *jni_new_memory_output(fz_context*, int);
+jni_output *jni_new_channel_output(JNIEnv*, fz_context*, jobject);
+void jni_output_write(jni_output*, const void*, int);
+void jni_output_write32(jni_output*, unsigned int);
+void jni_output_printf(jni_output*, const char*, ...);
+int jni_output_error(jni_output*);
+jbyteArray jni_output_to_byte_array(JNIEnv*, jni_output*);
+int jni_close_output(jni_output*);
+
 // jni_write_xxx.c
-void * jni_write_png(JNIEnv*, fz_context*, fz_pixmap*, const char*, int, float);
-void * jni_write_jpg(JNIEnv*, fz_context*, fz_pixmap*, const char*, float, int, int);
+void jni_write_png(fz_context*, fz_pixmap*, jni_output*, int, float, int, int, int);
+void jni_write_jpg(fz_context*, fz_pixmap*, jni_output*, float, int, int);
+void jni_write_pnm(fz_context*, fz_pixmap*, jni_output*);
+void jni_write_pam(fz_context*, fz_pixmap*, jni_output*, int);
+void jni_write_pbm(fz_context*, fz_bitmap*, jni_output*);
 int jni_write_tif(fz_context*, fz_pixmap*, const char*, float, int, int, int, int);
 int jni_write_bmp(fz_context*, fz_pixmap*, const char*, float, int);
+jni_band_writer *jni_new_png_writer(fz_context*, jni_output*, int, int, int, int, float, int, int);
+jni_band_writer *jni_new_jpg_writer(fz_context*, jni_output*, int, int, int, float, int, int);
+jni_band_writer *jni_new_pnm_writer(fz_context*, jni_output*, int, int, int);
+jni_band_writer *jni_new_pam_writer(fz_context*, jni_output*, int, int, int, fz_colorspace*, int);
+jni_band_writer *jni_new_tif_writer(fz_context*, const char*, int, int, int, int, float, int, int, int, int);
+jni_band_writer *jni_new_tif_page_writer(fz_context*, jni_tif_session*, int, int, int, int, int, float, int, int, int);
+jni_tif_session *jni_open_tif_session(const char*, int);
+int jni_close_tif_session(jni_tif_session*);
 
 // JNI String
 #define jni_new_char(str) (*env)->GetStringUTFChars(env, str, 0);
@@ -142,7 +272,7 @@ int jni_write_bmp(fz_context*, fz_pixmap*, const char*, float, int);
 // JNI ByteBuffer
 #define jni_new_buffer_direct(mem, len) (*env)->NewDirectByteBuffer(env, mem, len)
 #define jni_get_buffer_address(buf) (*env)->GetDirectBufferAddress(env, buf)
-#define jni_get_buffer_capacity(buf) (*env)->GetDirectBufferCatpacity(env, buf)
+#define jni_get_buffer_capacity(buf) (*env)->GetDirectBufferCapacity(env, buf)
 
 // DocumentOutline class and methods: Strong Typing
 #define jni_new_outline_class() (*env)->FindClass(env, "com/jmupdf/document/DocumentOutline");
@@ -173,4 +303,24 @@ int jni_write_bmp(fz_context*, fz_pixmap*, const char*, float, int);
 #define jni_new_page_links_obj(cls, method, x0, y0, x1, y1, eol, text) (*env)->NewObject(env, cls, method, x0, y0, x1, y1, type, text);
 #define jni_get_page_links_init(cls) (*env)->GetMethodID(env, cls, "<init>", "(FFFFILjava/lang/String;)V");
 
+// RenderSpec fields: Strong Typing
+#define jni_get_spec_int(obj, cls, name) (*env)->GetIntField(env, obj, (*env)->GetFieldID(env, cls, name, "I"))
+#define jni_get_spec_float(obj, cls, name) (*env)->GetFloatField(env, obj, (*env)->GetFieldID(env, cls, name, "F"))
+#define jni_get_spec_boolean(obj, cls, name) (*env)->GetBooleanField(env, obj, (*env)->GetFieldID(env, cls, name, "Z"))
+#define jni_get_spec_object(obj, cls, name, sig) (*env)->GetObjectField(env, obj, (*env)->GetFieldID(env, cls, name, sig))
+
+// DocumentChannel methods: Strong Typing
+#define jni_get_channel_read(cls) (*env)->GetMethodID(env, cls, "read", "(J)I");
+#define jni_get_channel_size(cls) (*env)->GetMethodID(env, cls, "size", "()J");
+#define jni_get_channel_buffer(cls) (*env)->GetMethodID(env, cls, "getBuffer", "()Ljava/nio/ByteBuffer;");
+#define jni_channel_read_call(obj, method, pos) (*env)->CallIntMethod(env, obj, method, pos);
+#define jni_channel_size_call(obj, method) (*env)->CallLongMethod(env, obj, method);
+#define jni_channel_buffer_call(obj, method) (*env)->CallObjectMethod(env, obj, method);
+
+// ImageChannel methods: Strong Typing
+#define jni_get_output_write(cls) (*env)->GetMethodID(env, cls, "write", "(I)I");
+#define jni_get_output_buffer(cls) (*env)->GetMethodID(env, cls, "getBuffer", "()Ljava/nio/ByteBuffer;");
+#define jni_output_write_call(obj, method, len) (*env)->CallIntMethod(env, obj, method, len);
+#define jni_output_buffer_call(obj, method) (*env)->CallObjectMethod(env, obj, method);
+
 #endif
@@ -28,6 +28,20 @@ typedef pthread_mutex_t jni_mutex;
 #define jni_leave_critical(l) pthread_mutex_unlock(l)
 #endif
 
+#ifdef __WIN32__
+typedef HANDLE jni_thread;
+#define JNI_THREAD_PROC DWORD WINAPI
+#define JNI_THREAD_RETURN 0
+#define jni_start_thread(t, proc, arg) ((*(t) = CreateThread(NULL, 0, proc, arg, 0, NULL)) != NULL)
+#define jni_join_thread(t) (WaitForSingleObject(t, INFINITE), CloseHandle(t))
+#elif __linux__ || __APPLE__
+typedef pthread_t jni_thread;
+#define JNI_THREAD_PROC void *
+#define JNI_THREAD_RETURN NULL
+#define jni_start_thread(t, proc, arg) (pthread_create(t, NULL, proc, arg) == 0)
+#define jni_join_thread(t) pthread_join(t, NULL)
+#endif
+
 typedef struct jni_locks_s jni_locks;
 struct jni_locks_s
 {
@@ -151,3 +165,80 @@ void jni_unlock(fz_context *ctx)
 {
 	jni_unlock_internal(ctx->locks->user, JNI_LOCK_INTERNAL);
 }
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Native worker threads.
+ *
+ * Encoders split work that does not touch fitz into a few
+ * independent tasks and run them on short lived threads.
+ * Tasks must not use a fz_context or throw.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+typedef struct jni_task_call_s jni_task_call;
+struct jni_task_call_s
+{
+	jni_task *task;
+	void *arg;
+	int index;
+	int started;
+	jni_thread thread;
+};
+
+/**
+ * Thread entry point
+ */
+static JNI_THREAD_PROC jni_task_proc(void *arg)
+{
+	jni_task_call *call = (jni_task_call*)arg;
+	call->task(call->arg, call->index);
+	return JNI_THREAD_RETURN;
+}
+
+/**
+ * Run task for indexes 0 to count - 1 and wait until all are done.
+ * Index 0 runs on the calling thread. An index that cannot get its
+ * own thread also runs on the calling thread.
+ */
+void jni_run_tasks(jni_task *task, void *arg, int count)
+{
+	jni_task_call *calls = NULL;
+	int i;
+
+	if (count > 1)
+	{
+		calls = malloc(sizeof(jni_task_call) * count);
+	}
+
+	if (!calls)
+	{
+		for (i = 0; i < count; i++)
+		{
+			task(arg, i);
+		}
+		return;
+	}
+
+	for (i = 1; i < count; i++)
+	{
+		calls[i].task = task;
+		calls[i].arg = arg;
+		calls[i].index = i;
+		calls[i].started = jni_start_thread(&calls[i].thread, jni_task_proc, &calls[i]);
+	}
+
+	task(arg, 0);
+
+	for (i = 1; i < count; i++)
+	{
+		if (calls[i].started)
+		{
+			jni_join_thread(calls[i].thread);
+		}
+		else
+		{
+			task(arg, i);
+		}
+	}
+
+	free(calls);
+}
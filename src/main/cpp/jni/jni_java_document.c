@@ -17,6 +17,9 @@ static void jni_free_document(jni_document *doc)
 		return;
 	}
 
+	jni_free_list_cache(ctx, doc->lists);
+	jni_free_pixel_pool(ctx, doc->pixels);
+
 	if (doc->doc)
 	{
 		fz_close_document(doc->doc);
@@ -63,21 +66,37 @@ static jni_document *jni_new_document(int max_store, jni_doc_type type)
 	doc->ctx = ctx;
 	doc->doc = NULL;
 	doc->type = type;
+	doc->lists = jni_new_list_cache(ctx, JNI_LIST_CACHE_SIZE);
+	doc->pixels = jni_new_pixel_pool(ctx, JNI_PIXEL_POOL_SIZE);
+
+	if (!doc->lists || !doc->pixels)
+	{
+		jni_free_list_cache(ctx, doc->lists);
+		jni_free_pixel_pool(ctx, doc->pixels);
+		fz_free(ctx, doc);
+		fz_free_context(ctx);
+		jni_free_locks(locks);
+		return NULL;
+	}
 
 	return doc;
 }
 
 /**
- * Open a document
+ * Open a document from a stream.
+ * The stream reference is always released.
  */
-static int jni_open_document(jni_document *doc, const char *file, char *password)
+static int jni_open_stream(jni_document *doc, fz_stream *stm, char *password)
 {
-	fz_stream *stm = NULL;
 	int rc = 0;
 
+	if (!stm)
+	{
+		return -1;
+	}
+
 	fz_try(doc->ctx)
 	{
-		stm = fz_open_file(doc->ctx, file);
 		if (doc->type == DOC_PDF)
 		{
 			doc->doc = (fz_document*)pdf_open_document_with_stream(stm);
@@ -97,11 +116,7 @@ static int jni_open_document(jni_document *doc, const char *file, char *password
 	}
 	fz_catch(doc->ctx)
 	{
-		if (!stm)
-		{
-			rc = -1;
-		}
-		else if (!doc->doc)
+		if (!doc->doc)
 		{
 			rc = -2;
 		}
@@ -121,6 +136,32 @@ static int jni_open_document(jni_document *doc, const char *file, char *password
 	return rc;
 }
 
+/**
+ * Open a document
+ */
+static int jni_open_document(jni_document *doc, const char *file, char *password, int mapped)
+{
+	fz_stream *stm = NULL;
+
+	fz_try(doc->ctx)
+	{
+		if (mapped)
+		{
+			stm = jni_open_mmap(doc->ctx, file);
+		}
+		else
+		{
+			stm = fz_open_file(doc->ctx, file);
+		}
+	}
+	fz_catch(doc->ctx)
+	{
+		return -1;
+	}
+
+	return jni_open_stream(doc, stm, password);
+}
+
 /**
  * Load outline to PdfOutline object structure
  */
@@ -210,10 +251,9 @@ jni_document *jni_get_document(jlong handle)
 }
 
 /**
- * Open a document
+ * Open a document file
  */
-JNIEXPORT jlong JNICALL
-Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray document, jbyteArray password, jint max_store)
+static jlong jni_open_file(JNIEnv *env, jint type, jbyteArray document, jbyteArray password, jint max_store, int mapped)
 {
     jni_document *doc = jni_new_document(max_store, type);
 
@@ -225,7 +265,7 @@ Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray docum
     char * file = jni_jbyte_to_char(env, doc->ctx, document);
     char * pass = jni_jbyte_to_char(env, doc->ctx, password);
 
-    int rc = jni_open_document(doc, (const char*)file, pass);
+    int rc = jni_open_document(doc, (const char*)file, pass, mapped);
 
     fz_free(doc->ctx, file);
     fz_free(doc->ctx, pass);
@@ -239,6 +279,121 @@ Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray docum
     return jni_ptr_to_jlong(doc);
 }
 
+/**
+ * Open a document
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray document, jbyteArray password, jint max_store)
+{
+	return jni_open_file(env, type, document, password, max_store, 0);
+}
+
+/**
+ * Open a document through a read only memory mapping of the file
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_openMapped(JNIEnv *env, jclass obj, jint type, jbyteArray document, jbyteArray password, jint max_store)
+{
+	return jni_open_file(env, type, document, password, max_store, 1);
+}
+
+/**
+ * Open a document from a direct ByteBuffer.
+ *
+ * The buffer memory is used in place. The caller must keep the
+ * buffer reachable until the document is closed.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_openDirectBuffer(JNIEnv *env, jclass obj, jint type, jobject document, jint offset, jint length, jbyteArray password, jint max_store)
+{
+	unsigned char *data = (unsigned char *)jni_get_buffer_address(document);
+
+	if (!data || offset < 0 || length <= 0 || length > jni_get_buffer_capacity(document) - offset)
+	{
+		return -1;
+	}
+
+	jni_document *doc = jni_new_document(max_store, type);
+
+	if (!doc)
+	{
+		return -1;
+	}
+
+	fz_stream *stm = NULL;
+
+	fz_try(doc->ctx)
+	{
+		stm = fz_open_memory(doc->ctx, data + offset, length);
+	}
+	fz_catch(doc->ctx)
+	{
+		stm = NULL;
+	}
+
+	char * pass = jni_jbyte_to_char(env, doc->ctx, password);
+
+	int rc = jni_open_stream(doc, stm, pass);
+
+	fz_free(doc->ctx, pass);
+
+	if (rc != 0)
+	{
+		jni_free_document(doc);
+		return rc;
+	}
+
+	return jni_ptr_to_jlong(doc);
+}
+
+/**
+ * Open a document from a com.jmupdf.document.DocumentChannel.
+ *
+ * Document data is pulled through the channel read ahead buffer
+ * as fitz needs it. The channel is released when the document
+ * is closed.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_openChannel(JNIEnv *env, jclass obj, jint type, jobject channel, jbyteArray password, jint max_store)
+{
+	if (!channel)
+	{
+		return -1;
+	}
+
+	jni_document *doc = jni_new_document(max_store, type);
+
+	if (!doc)
+	{
+		return -1;
+	}
+
+	fz_stream *stm = NULL;
+
+	fz_try(doc->ctx)
+	{
+		stm = jni_open_channel(env, doc->ctx, channel);
+	}
+	fz_catch(doc->ctx)
+	{
+		stm = NULL;
+	}
+
+	char * pass = jni_jbyte_to_char(env, doc->ctx, password);
+
+	int rc = jni_open_stream(doc, stm, pass);
+
+	fz_free(doc->ctx, pass);
+
+	if (rc != 0)
+	{
+		jni_free_document(doc);
+		return rc;
+	}
+
+	return jni_ptr_to_jlong(doc);
+}
+
 /**
  * Close a document and free resources
  */
@@ -272,6 +427,226 @@ Java_com_jmupdf_JmuPdf_getPageCount(JNIEnv *env, jclass obj, jlong handle)
 	return rc;
 }
 
+/**
+ * Get PDF page bounds and rotation straight from the page tree.
+ *
+ * Mirrors pdf_load_page() and pdf_bound_page() without loading
+ * annotations, links or resources.
+ */
+static void jni_pdf_page_geometry(pdf_document *xref, int number, float *data)
+{
+	fz_context *ctx = xref->ctx;
+	pdf_obj *pageobj = xref->page_objs[number];
+	pdf_obj *obj;
+	fz_rect mediabox, cropbox, box;
+	float userunit = 1;
+	int rotate;
+
+	obj = pdf_dict_gets(pageobj, "UserUnit");
+	if (pdf_is_real(obj))
+		userunit = pdf_to_real(obj);
+
+	mediabox = pdf_to_rect(ctx, pdf_dict_gets(pageobj, "MediaBox"));
+	if (fz_is_empty_rect(mediabox))
+	{
+		mediabox.x0 = 0;
+		mediabox.y0 = 0;
+		mediabox.x1 = 612;
+		mediabox.y1 = 792;
+	}
+
+	cropbox = pdf_to_rect(ctx, pdf_dict_gets(pageobj, "CropBox"));
+	if (!fz_is_empty_rect(cropbox))
+		mediabox = fz_intersect_rect(mediabox, cropbox);
+
+	box.x0 = fz_min(mediabox.x0, mediabox.x1) * userunit;
+	box.y0 = fz_min(mediabox.y0, mediabox.y1) * userunit;
+	box.x1 = fz_max(mediabox.x0, mediabox.x1) * userunit;
+	box.y1 = fz_max(mediabox.y0, mediabox.y1) * userunit;
+
+	if (box.x1 - box.x0 < 1 || box.y1 - box.y0 < 1)
+		box = fz_unit_rect;
+
+	rotate = pdf_to_int(pdf_dict_gets(pageobj, "Rotate"));
+	if (rotate < 0)
+		rotate = 360 - ((-rotate) % 360);
+	if (rotate >= 360)
+		rotate = rotate % 360;
+	rotate = 90*((rotate + 45)/90);
+	if (rotate > 360)
+		rotate = 0;
+
+	box = fz_transform_rect(fz_rotate(rotate), box);
+
+	data[0] = 0;
+	data[1] = 0;
+	data[2] = box.x1 - box.x0;
+	data[3] = box.y1 - box.y0;
+	data[4] = rotate;
+}
+
+/**
+ * Get bounds and rotation of every page.
+ *
+ * Five values are stored per page: x0, y0, x1, y1, rotate. Values are
+ * the same as the ones returned by newPage() but no display lists are
+ * built. PDF pages are read from the page tree; other document types
+ * load and bound each page.
+ *
+ * NOTE: This function *must* be synchronized on the document.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_getPageGeometries(JNIEnv *env, jclass obj, jlong handle, jfloatArray geometry)
+{
+	jni_document *doc = jni_get_document(handle);
+
+	if (!doc)
+	{
+		return -1;
+	}
+
+	int len = (*env)->GetArrayLength(env, geometry) / 5;
+	int count = 0;
+	int rc = 0;
+
+	fz_try(doc->ctx)
+	{
+		count = fz_count_pages(doc->doc);
+	}
+	fz_catch(doc->ctx)
+	{
+		return -2;
+	}
+
+	if (count > len)
+	{
+		count = len;
+	}
+
+	jfloat *data = jni_get_float_array(geometry);
+
+	if (!data)
+	{
+		return -3;
+	}
+
+	int i;
+	fz_page *page = NULL;
+
+	fz_var(page);
+
+	fz_try(doc->ctx)
+	{
+		for (i = 0; i < count; i++)
+		{
+			if (doc->type == DOC_PDF)
+			{
+				jni_pdf_page_geometry((pdf_document*)doc->doc, i, data + i*5);
+			}
+			else
+			{
+				page = fz_load_page(doc->doc, i);
+				fz_rect bbox = fz_bound_page(doc->doc, page);
+				fz_free_page(doc->doc, page);
+				page = NULL;
+				data[i*5+0] = bbox.x0;
+				data[i*5+1] = bbox.y0;
+				data[i*5+2] = bbox.x1;
+				data[i*5+3] = bbox.y1;
+				data[i*5+4] = 0;
+			}
+		}
+	}
+	fz_catch(doc->ctx)
+	{
+		if (page)
+		{
+			fz_free_page(doc->doc, page);
+		}
+		rc = -2;
+	}
+
+	jni_release_float_array(geometry, data);
+
+	return rc == 0 ? count : rc;
+}
+
+/**
+ * Set display list cache budget in bytes
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_setListCacheSize(JNIEnv *env, jclass obj, jlong handle, jint size)
+{
+	jni_document *doc = jni_get_document(handle);
+
+	if (!doc)
+	{
+		return;
+	}
+
+	jni_resize_list_cache(doc->ctx, doc->lists, size < 0 ? 0 : size);
+}
+
+/**
+ * Get display list cache statistics:
+ * hits, misses, evictions, entries, size, max size
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_getListCacheStats(JNIEnv *env, jclass obj, jlong handle, jintArray stats)
+{
+	jni_document *doc = jni_get_document(handle);
+
+	if (!doc || (*env)->GetArrayLength(env, stats) < 6)
+	{
+		return -1;
+	}
+
+	int data[6];
+
+	jni_list_cache_stats(doc->ctx, doc->lists, data);
+	(*env)->SetIntArrayRegion(env, stats, 0, 6, data);
+
+	return 0;
+}
+
+/**
+ * Set pixel buffer pool budget in bytes
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_setPixelPoolSize(JNIEnv *env, jclass obj, jlong handle, jint size)
+{
+	jni_document *doc = jni_get_document(handle);
+
+	if (!doc)
+	{
+		return;
+	}
+
+	jni_resize_pixel_pool(doc->ctx, doc->pixels, size < 0 ? 0 : size);
+}
+
+/**
+ * Get pixel buffer pool statistics:
+ * hits, misses, discards, idle blocks, idle size, max size
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_getPixelPoolStats(JNIEnv *env, jclass obj, jlong handle, jintArray stats)
+{
+	jni_document *doc = jni_get_document(handle);
+
+	if (!doc || (*env)->GetArrayLength(env, stats) < 6)
+	{
+		return -1;
+	}
+
+	int data[6];
+
+	jni_pixel_pool_stats(doc->ctx, doc->pixels, data);
+	(*env)->SetIntArrayRegion(env, stats, 0, 6, data);
+
+	return 0;
+}
+
 /**
  * Get document version
  */
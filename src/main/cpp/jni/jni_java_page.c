@@ -13,7 +13,11 @@ static void jni_free_page(jni_page *page)
 	fz_context *ctx = page->ctx;
 	jni_document *doc = page->doc;
 
-	if (page->list)
+	if (page->entry)
+	{
+		jni_drop_list(doc->ctx, doc->lists, page->entry);
+	}
+	else if (page->list)
 	{
 		fz_free_display_list(doc->ctx, page->list);
 	}
@@ -49,6 +53,8 @@ static jni_page *jni_new_page(jni_document *doc)
 	page->doc = doc;
 	page->page = NULL;
 	page->list = NULL;
+	page->entry = NULL;
+	page->pagen = 0;
 	page->ctx = ctx;
 	page->options = jni_new_options(ctx);
 
@@ -64,6 +70,9 @@ static jni_page *jni_new_page(jni_document *doc)
 /**
  * Initiate and load page
  *
+ * Only the page object and its bounds are loaded. The display list
+ * is built on first use by jni_load_list().
+ *
  * NOTE #1: When initiating a new page the doc->ctx must be used or
  *          else some documents will cause the application to experience
  *          a horrible death.
@@ -72,18 +81,58 @@ static jni_page *jni_new_page(jni_document *doc)
  *          synch'd from the java side.
  */
 static void jni_load_page(jni_page *page, int pagen)
+{
+	fz_context *ctx = page->doc->ctx;
+	fz_document *doc = page->doc->doc;
+	fz_try(ctx)
+	{
+		page->page = fz_load_page(doc, pagen-1);
+		page->pagen = pagen;
+		page->bbox = fz_bound_page(doc, page->page);
+	}
+	fz_catch(ctx)
+	{
+		fz_throw(ctx, "Could not load page.");
+	}
+}
+
+/**
+ * Run page into a display list
+ *
+ * Lists are shared through the document display list cache. A page
+ * that is already cached is not interpreted again.
+ *
+ * NOTE: Same rules as jni_load_page() apply. The doc->ctx is used and
+ *       calls *must* be synchronized on the document from the java side.
+ */
+static void jni_load_list(jni_page *page)
 {
 	fz_device *dev = NULL;
+	fz_display_list *list = NULL;
 	fz_context *ctx = page->doc->ctx;
 	fz_document *doc = page->doc->doc;
 	fz_cookie cookie = { 0 };
+
+	if (page->list)
+	{
+		return;
+	}
+
+	page->entry = jni_find_list(ctx, page->doc->lists, page->pagen);
+
+	if (page->entry)
+	{
+		page->list = page->entry->list;
+		return;
+	}
+
+	fz_var(list);
+
 	fz_try(ctx)
 	{
-		page->list = fz_new_display_list(ctx);
-		dev = fz_new_list_device(ctx, page->list);
-		page->page = fz_load_page(doc, pagen-1);
+		list = fz_new_display_list(ctx);
+		dev = fz_new_list_device(ctx, list);
 		fz_run_page(doc, page->page, dev, fz_identity, &cookie);
-		page->bbox = fz_bound_page(doc, page->page);
 		if (cookie.errors) {
 			fz_warn(ctx, "Warning, errors found on page.");
 		}
@@ -94,8 +143,15 @@ static void jni_load_page(jni_page *page, int pagen)
 	}
 	fz_catch(ctx)
 	{
-		fz_throw(ctx, "Could not load page.");
+		if (list)
+		{
+			fz_free_display_list(ctx, list);
+		}
+		fz_throw(ctx, "Could not load page display list.");
 	}
+
+	page->entry = jni_store_list(ctx, page->doc->lists, page->pagen, list);
+	page->list = page->entry->list;
 }
 
 /**
@@ -177,6 +233,11 @@ static fz_text_page * jni_load_text(jni_page *page, fz_rect clipbox)
 	fz_device *dev = NULL;
 	fz_cookie cookie = { 0 };
 
+	if (!page->list)
+	{
+		return NULL;
+	}
+
 	fz_try(page->ctx)
 	{
 		fz_matrix ctm = jni_get_view_ctm(1, 0);
@@ -520,6 +581,33 @@ Java_com_jmupdf_JmuPdf_newPage(JNIEnv *env, jclass obj, jlong handle, jint pagen
 	return jni_ptr_to_jlong(page);
 }
 
+/**
+ * Build page display list if not already done
+ *
+ * Must be synchronized on the document from the java side.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_loadPageList(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	fz_try(page->doc->ctx)
+	{
+		jni_load_list(page);
+	}
+	fz_catch(page->doc->ctx)
+	{
+		return -2;
+	}
+
+	return 0;
+}
+
 /**
  * Free page resources
  */
@@ -12,6 +12,9 @@ enum jni_image_formats
     FORMAT_BUFFERED_IMAGE,
 };
 
+// TIF compression with JPEG, same value as libtiff COMPRESSION_JPEG
+#define TIF_COMPRESSION_JPEG 7
+
 struct jni_options_s
 {
 	jint imageFormat;
@@ -27,6 +30,12 @@ struct jni_options_s
 	jfloat y0;
 	jfloat x1;
 	jfloat y1;
+	jint fusedPass;
+	jint pngCompression;
+	jint pngFilter;
+	jint encodeThreads;
+	jint bandHeight;
+	fz_cookie *cookie;
 };
 
 /**
@@ -35,6 +44,10 @@ struct jni_options_s
 jni_options * jni_new_options(fz_context *ctx)
 {
 	jni_options *o = fz_malloc_no_throw(ctx, sizeof(jni_options));
+	if (o)
+	{
+		memset(o, 0, sizeof(jni_options));
+	}
 	return o;
 }
 
@@ -81,13 +94,41 @@ fz_matrix jni_get_view_ctm(float zoom, int rotate)
 static int jni_save_alpha(int color)
 {
 	if (color == COLOR_ARGB ||
-		color == COLOR_ARGB_PRE)
+		color == COLOR_ARGB_PRE ||
+		color == COLOR_4BYTE_ABGR ||
+		color == COLOR_BYTE_RGBA ||
+		color == COLOR_BYTE_BGRA_PRE)
 	{
 		return 1;
 	}
 	return 0;
 }
 
+/**
+ * Determine if color type keeps premultiplied samples
+ */
+static int jni_premultiplied(int color)
+{
+	return color == COLOR_ARGB_PRE || color == COLOR_BYTE_BGRA_PRE;
+}
+
+/**
+ * Determine if color type uses the fitz pixmap layout as is.
+ * Such pixels are rendered straight into the returned memory.
+ */
+static int jni_passthrough(int color)
+{
+	return color == COLOR_BYTE_RGBA || color == COLOR_BYTE_BGRA_PRE;
+}
+
+/**
+ * Determine if gamma and unmultiply are left to the fused pack pass
+ */
+static int jni_fused_pass(jni_options *opts)
+{
+	return opts->fusedPass && !jni_passthrough(opts->imageType);
+}
+
 /**
  * Get color space
  */
@@ -102,6 +143,7 @@ static fz_colorspace * jni_get_color_space(int color)
 			colorspace = fz_device_rgb;
 			break;
 		case COLOR_BGR:
+		case COLOR_BYTE_BGRA_PRE:
 			colorspace = fz_device_bgr;
 			break;
 		case COLOR_GRAY_SCALE:
@@ -119,11 +161,11 @@ static fz_colorspace * jni_get_color_space(int color)
 /**
  * Normalize rectangle bounds
  */
-static fz_rect jni_normalize_rect(jni_page *page)
+static fz_rect jni_normalize_rect(jni_page *page, jni_options *opts)
 {
 	fz_rect rect = fz_empty_rect;
-	if (page->options->x0 == 0 && page->options->y0 == 0 &&
-		page->options->x1 == 0 && page->options->y1 == 0)
+	if (opts->x0 == 0 && opts->y0 == 0 &&
+		opts->x1 == 0 && opts->y1 == 0)
 	{
 		rect.x0 = page->bbox.x0;
 		rect.y0 = page->bbox.y0;
@@ -132,10 +174,10 @@ static fz_rect jni_normalize_rect(jni_page *page)
 	}
 	else
 	{
-		rect.x0 = fz_maxi(page->options->x0, page->bbox.x0);
-		rect.y0 = fz_maxi(page->options->y0, page->bbox.y0);
-		rect.x1 = fz_mini(page->options->x1, page->bbox.x1);
-		rect.y1 = fz_mini(page->options->y1, page->bbox.y1);
+		rect.x0 = fz_maxi(opts->x0, page->bbox.x0);
+		rect.y0 = fz_maxi(opts->y0, page->bbox.y0);
+		rect.x1 = fz_mini(opts->x1, page->bbox.x1);
+		rect.y1 = fz_mini(opts->y1, page->bbox.y1);
 	}
 	return rect;
 }
@@ -143,68 +185,138 @@ static fz_rect jni_normalize_rect(jni_page *page)
 /**
  * Set anti alias level
  */
-static void jni_set_aa_level(jni_page *page)
+static void jni_set_aa_level(fz_context *ctx, jni_options *opts)
 {
-	if (fz_aa_level(page->ctx) != page->options->antiAlias)
+	if (fz_aa_level(ctx) != opts->antiAlias)
 	{
-		fz_drop_glyph_cache_context(page->ctx);
-		fz_set_aa_level(page->ctx, page->options->antiAlias);
-		fz_new_glyph_cache_context(page->ctx);
+		fz_drop_glyph_cache_context(ctx);
+		fz_set_aa_level(ctx, opts->antiAlias);
+		fz_new_glyph_cache_context(ctx);
 	}
 }
 
 /**
- * Get an RGB, ARGB, Gray scale pixel data
+ * Get transformation and pixel bounds of a render
  */
-static fz_pixmap *jni_get_pixmap(jni_page *page)
+static fz_bbox jni_get_render_bbox(jni_page *page, jni_options *opts, fz_matrix *ctm)
+{
+	*ctm = jni_get_view_ctm(opts->zoom, opts->rotate);
+	return fz_round_rect(fz_transform_rect(*ctm, jni_normalize_rect(page, opts)));
+}
+
+/**
+ * Clear a pixmap and draw the page display list into it.
+ * When fused is set gamma and unmultiply are left to jni_pack_pixels_fused().
+ */
+static void jni_draw_pixmap(fz_context *ctx, jni_page *page, jni_options *opts, fz_pixmap *pix, fz_matrix ctm, int fused)
 {
-	fz_pixmap *pix = NULL;
 	fz_device *dev = NULL;
+
+	fz_var(dev);
+
+	fz_try(ctx)
+	{
+		if (jni_save_alpha(opts->imageType))
+		{
+			fz_clear_pixmap(ctx, pix);
+		}
+		else
+		{
+			fz_clear_pixmap_with_value(ctx, pix, 255);
+		}
+		dev = fz_new_draw_device(ctx, pix);
+		fz_run_display_list(page->list, dev, ctm, fz_pixmap_bbox(ctx, pix), opts->cookie);
+		if (opts->cookie && opts->cookie->abort)
+		{
+			fz_throw(ctx, "render cancelled");
+		}
+		if (!fused)
+		{
+			if (opts->gamma != 1 && opts->gamma > 0)
+			{
+				fz_gamma_pixmap(ctx, pix, opts->gamma);
+			}
+			if (!jni_premultiplied(opts->imageType))
+			{
+				fz_unmultiply_pixmap(ctx, pix);
+			}
+		}
+	}
+	fz_always(ctx)
+	{
+		fz_free_device(dev);
+	}
+	fz_catch(ctx)
+	{
+		fz_rethrow(ctx);
+	}
+}
+
+/**
+ * Get an RGB, ARGB, Gray scale pixel data.
+ * When samples is not null the pixmap renders into it. Otherwise samples
+ * come from the document pixel pool. Either way the pixmap must be
+ * dropped with jni_drop_pixmap() given the same samples value.
+ * When fused is set gamma and unmultiply are left to jni_pack_pixels_fused().
+ */
+static fz_pixmap *jni_get_pixmap(fz_context *ctx, jni_page *page, jni_options *opts, unsigned char *samples, int fused)
+{
+	fz_pixmap *pix = NULL;
+	fz_colorspace *colorspace = jni_get_color_space(opts->imageType);
+	unsigned char *pooled = NULL;
 	fz_matrix ctm;
 	fz_bbox bbox;
 
-	// Try to get pixel buffer
-	fz_try(page->ctx)
+	if (!page->list || (opts->cookie && opts->cookie->abort))
+	{
+		return NULL;
+	}
+
+	fz_try(ctx)
 	{
-		jni_set_aa_level(page);
-		ctm = jni_get_view_ctm(page->options->zoom, page->options->rotate);
-		bbox = fz_round_rect(fz_transform_rect(ctm, jni_normalize_rect(page)));
-		pix = fz_new_pixmap_with_bbox(page->ctx, jni_get_color_space(page->options->imageType), bbox);
+		jni_set_aa_level(ctx, opts);
 	}
-	fz_catch(page->ctx)
+	fz_catch(ctx)
 	{
 		return NULL;
 	}
 
-	// Render image
-	fz_try(page->ctx)
+	bbox = jni_get_render_bbox(page, opts, &ctm);
+
+	if (!samples)
 	{
-		if (jni_save_alpha(page->options->imageType))
-		{
-			fz_clear_pixmap(page->ctx, pix);
-		}
-		else
-		{
-			fz_clear_pixmap_with_value(page->ctx, pix, 255);
-		}
-		dev = fz_new_draw_device(page->ctx, pix);
-		fz_run_display_list(page->list, dev, ctm, bbox, NULL);
-		if (page->options->gamma != 1 && page->options->gamma > 0)
+		jlong size = (jlong)fz_absi(bbox.x1 - bbox.x0) * fz_absi(bbox.y1 - bbox.y0) * (colorspace->n + 1);
+		if (size <= 0 || size > INT_MAX)
 		{
-			fz_gamma_pixmap(page->ctx, pix, page->options->gamma);
+			return NULL;
 		}
-		if (page->options->imageType != COLOR_ARGB_PRE)
+		samples = pooled = jni_pixel_alloc(ctx, page->doc->pixels, (unsigned int)size);
+		if (!samples)
 		{
-			fz_unmultiply_pixmap(page->ctx, pix);
+			return NULL;
 		}
 	}
-	fz_always(page->ctx)
+
+	// Try to get pixel buffer
+	fz_try(ctx)
 	{
-		fz_free_device(dev);
+		pix = fz_new_pixmap_with_bbox_and_data(ctx, colorspace, bbox, samples);
+	}
+	fz_catch(ctx)
+	{
+		jni_pixel_free(ctx, page->doc->pixels, pooled);
+		return NULL;
+	}
+
+	// Render image
+	fz_try(ctx)
+	{
+		jni_draw_pixmap(ctx, page, opts, pix, ctm, fused);
 	}
-	fz_catch(page->ctx)
+	fz_catch(ctx)
 	{
-		fz_drop_pixmap(page->ctx, pix);
+		fz_drop_pixmap(ctx, pix);
+		jni_pixel_free(ctx, page->doc->pixels, pooled);
 		pix = NULL;
 	}
 
@@ -212,25 +324,65 @@ static fz_pixmap *jni_get_pixmap(jni_page *page)
 }
 
 /**
- * Get a new direct byte buffer that wraps packed pixel data
+ * Drop a pixmap from jni_get_pixmap(). Samples is the value that was
+ * given to jni_get_pixmap(); pooled samples go back to the pool.
  */
-static jobject jni_get_packed_pixels(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, jint color)
+static void jni_drop_pixmap(fz_context *ctx, jni_document *doc, fz_pixmap *pix, unsigned char *samples)
 {
-	int usebyte = (color == COLOR_BLACK_WHITE || color == COLOR_BLACK_WHITE_DITHER || color == COLOR_GRAY_SCALE);
-	int size = pix->w * pix->h;
-	int memsize = usebyte ? (size*sizeof(jbyte)) : (size*sizeof(jint));
+	if (!pix)
+	{
+		return;
+	}
 
-	jobject pixarray = fz_malloc_no_throw(ctx, memsize);
+	if (!samples)
+	{
+		samples = pix->samples;
+		fz_drop_pixmap(ctx, pix);
+		jni_pixel_free(ctx, doc->pixels, samples);
+	}
+	else
+	{
+		fz_drop_pixmap(ctx, pix);
+	}
+}
 
-	if (!pixarray)
+/**
+ * Get number of bytes packed pixels of a w x h image use for a color type.
+ * Binary images use 1 bit per pixel and rows are padded to whole bytes.
+ */
+static jlong jni_packed_size(jint color, int w, int h)
+{
+	if (color == COLOR_BLACK_WHITE || color == COLOR_BLACK_WHITE_DITHER)
 	{
-		return NULL;
+		return (jlong)((w + 7) >> 3) * h;
+	}
+	if (color == COLOR_GRAY_SCALE)
+	{
+		return (jlong)w * h * sizeof(jbyte);
+	}
+	if (jni_passthrough(color))
+	{
+		return (jlong)w * h * 4 * sizeof(jbyte);
+	}
+	if (color == COLOR_3BYTE_BGR)
+	{
+		return (jlong)w * h * 3 * sizeof(jbyte);
 	}
+	return (jlong)w * h * sizeof(jint);
+}
 
-	jint *ptr_pixint = (jint*)pixarray;
-	jbyte *ptr_pixbyte = (jbyte*)pixarray;
+/**
+ * Pack pixel data into dst. Integer pixels are stored in native byte order.
+ * Byte pixels are stored in the component order of the java image type.
+ * Binary pixels are stored 8 to a byte with 1 for black.
+ */
+static int jni_pack_pixels(fz_context *ctx, fz_pixmap *pix, jint color, void *dst)
+{
+	size_t size = (size_t)pix->w * pix->h;
+	jint *ptr_pixint = (jint*)dst;
+	jbyte *ptr_pixbyte = (jbyte*)dst;
 	unsigned char *pixels = pix->samples;
-	int i = 0;
+	size_t i = 0;
 	int rc = 0;
 	int dither = (color == COLOR_BLACK_WHITE_DITHER);
 
@@ -266,393 +418,1285 @@ static jobject jni_get_packed_pixels(JNIEnv *env, fz_context *ctx, fz_pixmap *pi
 				pixels += pix->n;
 			}
 			break;
+		case COLOR_3BYTE_BGR:
+			for (i=0; i<size; i++)
+			{
+				*ptr_pixbyte++ = pixels[2];
+				*ptr_pixbyte++ = pixels[1];
+				*ptr_pixbyte++ = pixels[0];
+				pixels += pix->n;
+			}
+			break;
+		case COLOR_4BYTE_ABGR:
+			for (i=0; i<size; i++)
+			{
+				*ptr_pixbyte++ = pixels[3];
+				*ptr_pixbyte++ = pixels[2];
+				*ptr_pixbyte++ = pixels[1];
+				*ptr_pixbyte++ = pixels[0];
+				pixels += pix->n;
+			}
+			break;
 		case COLOR_GRAY_SCALE:
 			for (i=0; i<size; i++)
 			{
-				*ptr_pixbyte++ = jni_get_rgb_r(pixels[0]) |
-							 	 jni_get_rgb_g(pixels[0]) |
-								 jni_get_rgb_b(pixels[0]);
+				*ptr_pixbyte++ = pixels[0];
 				pixels += pix->n;
 			}
 			break;
 		case COLOR_BLACK_WHITE:
 		case COLOR_BLACK_WHITE_DITHER:
-			rc = jni_pix_to_black_white(ctx, pix, dither, (unsigned char *)ptr_pixbyte);
+			rc = jni_pix_to_binary(ctx, pix, dither, (unsigned char *)ptr_pixbyte);
+			break;
+		case COLOR_BYTE_RGBA:
+		case COLOR_BYTE_BGRA_PRE:
+			if (dst != pix->samples)
+			{
+				memcpy(dst, pix->samples, size * pix->n);
+			}
 			break;
 		default:
 			break;
 	}
 
-	if (rc != 0)
-	{
-		fz_free(ctx, pixarray);
-		return NULL;
-	}
-
-	return jni_new_buffer_direct(pixarray, memsize);
+	return rc;
 }
 
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Fused pack pass.
+ *
+ * Gamma correction, unmultiply and packing are done in one
+ * walk over the samples instead of one full pass each. Both
+ * corrections are table lookups. When no unmultiply is wanted
+ * the reciprocal alpha table holds 256 for every entry so the
+ * same expression leaves the sample unchanged.
+ *
+ * Results are the same as fz_gamma_pixmap() followed by
+ * fz_unmultiply_pixmap() and jni_pack_pixels().
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+typedef struct jni_tone_s jni_tone;
+struct jni_tone_s
+{
+	unsigned char gamma[256];
+	int inva[256];
+};
+
+// Gamma correct and unmultiply one color sample
+#define jni_tone_sample(T, S, A) ((unsigned char)(((T)->gamma[S] * (T)->inva[A]) >> 8))
+
 /**
- * Convert pixels to black and white image
- * with optional dithering.
+ * Build gamma and reciprocal alpha tables
  */
-int jni_pix_to_black_white(fz_context *ctx, fz_pixmap * pix, int dither, unsigned char * trgbuf)
+static void jni_init_tone(jni_tone *tone, jni_options *opts)
 {
-	int size = pix->w * pix->h;
-	unsigned char *pixbuf = (unsigned char*)fz_malloc_no_throw(ctx, (size_t)size);
+	int gamma = (opts->gamma != 1 && opts->gamma > 0);
+	int unmultiply = !jni_premultiplied(opts->imageType);
+	int k;
 
-	if (!pixbuf)
+	for (k = 0; k < 256; k++)
 	{
-		return -1;
+		tone->gamma[k] = gamma ? pow(k / 255.0f, opts->gamma) * 255 : k;
+		tone->inva[k] = unmultiply ? (k ? 255 * 256 / k : 0) : 256;
 	}
+}
 
-	unsigned char *srcbuf = pixbuf;
-	unsigned char *ptrsrc = pixbuf;
-	unsigned char *ptrstr = pixbuf;
-	unsigned char *pixels = pix->samples;
+/**
+ * Get the gray value of each pixel of a row, toned when a tone is given
+ */
+static void jni_gray_row(jni_tone *tone, unsigned char *s, unsigned char *gray, int w, int n)
+{
+	int x;
+	for (x = 0; x < w; x++)
+	{
+		*gray++ = tone ? jni_tone_sample(tone, s[0], s[n - 1]) : s[0];
+		s += n;
+	}
+}
 
+/**
+ * Threshold a gray pixmap into black and white with optional
+ * Floyd-Steinberg dithering. Pixels are stored one byte each as
+ * 0 or 255, or when packed 8 to a byte with 1 for black and rows
+ * padded to whole bytes. Only two rows of gray values are kept to
+ * spread the dithering error into, and the pixmap is not modified.
+ */
+static int jni_pack_binary(fz_context *ctx, fz_pixmap *pix, jni_tone *tone, int dither, int packed, unsigned char *dst)
+{
+	int n = pix->n;
+	int w = pix->w;
+	int h = pix->h;
+	size_t stride = (size_t)w * n;
+	unsigned char *row = pix->samples;
+	unsigned char *gray = fz_malloc_no_throw(ctx, 2 * w);
+	unsigned char *cur = gray;
+	unsigned char *next = gray + w;
+	unsigned char *tmp;
+	unsigned char bitpack;
 	float value, qerror;
 	int threshold = 128;
-	int stride, x, y;
+	int bitcnt;
+	int x, y;
+
+	if (!gray)
+	{
+		return -1;
+	}
 
-	// Create a packed gray scale image
-	for (x = 0; x < size; x++)
+	if (h > 0)
 	{
-		*srcbuf++ = jni_get_rgb_r(*pixels) |
-				    jni_get_rgb_g(*pixels) |
-				    jni_get_rgb_b(*pixels);
-		pixels += pix->n;
+		jni_gray_row(tone, row, cur, w, n);
 	}
 
-	for (y = 0; y < pix->h; y++)
+	for (y = 0; y < h; y++)
 	{
-		for (x = 0; x < pix->w; x++)
+		if (y < h - 1)
+		{
+			row += stride;
+			jni_gray_row(tone, row, next, w, n);
+		}
+
+		bitpack = 0;
+		bitcnt = 7;
+
+		for (x = 0; x < w; x++)
 		{
-			//  Get gray value
-			value = *ptrsrc++;
+			value = cur[x];
 
 			// Threshold value
-			*trgbuf++ = value < threshold ? 0 : 255;
+			if (packed)
+			{
+				bitpack |= (value < threshold) << bitcnt;
+				if (bitcnt-- == 0)
+				{
+					*dst++ = bitpack;
+					bitpack = 0;
+					bitcnt = 7;
+				}
+			}
+			else
+			{
+				*dst++ = value < threshold ? 0 : 255;
+			}
 
 			// Spread error amongst neighboring pixels
 			// Based on Floyd-Steinberg Dithering
 			// http://en.wikipedia.org/wiki/Floyd-Steinberg_dithering
-			if (dither)
+			if (dither && (x > 0) && (y > 0) && (x < (w-1)) && (y < (h-1)))
 			{
-				if((x > 0) && (y > 0) && (x < (pix->w-1)) && (y < (pix->h-1)))
-				{
-					// Compute quantization error
-					qerror = value < threshold ? value : (value-255);
-
-					stride = y * pix->w;
-
-					// 7/16 = 0.4375f
-					srcbuf = ptrstr + x + 1 + stride;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.4375f * qerror), 0, 255);
-
-					// 3/16 = 0.1875f
-					srcbuf = ptrstr + x - 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.1875f * qerror), 0, 255);
-
-					// 5/16 = 0.3125f
-					srcbuf = ptrstr + x + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.3125f * qerror), 0, 255);
-
-					// 1/16 = 0.0625f
-					srcbuf = ptrstr + x + 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.0625f * qerror), 0, 255);
-				}
+				qerror = value < threshold ? value : (value-255);
+				cur[x + 1] = fz_clamp(roundf(cur[x + 1] + 0.4375f * qerror), 0, 255);
+				next[x - 1] = fz_clamp(roundf(next[x - 1] + 0.1875f * qerror), 0, 255);
+				next[x] = fz_clamp(roundf(next[x] + 0.3125f * qerror), 0, 255);
+				next[x + 1] = fz_clamp(roundf(next[x + 1] + 0.0625f * qerror), 0, 255);
 			}
 		}
+
+		// Pad bit pack if needed
+		if (packed && bitcnt < 7)
+		{
+			*dst++ = bitpack;
+		}
+
+		tmp = cur;
+		cur = next;
+		next = tmp;
 	}
-	fz_free(ctx, pixbuf);
+
+	fz_free(ctx, gray);
 	return 0;
 }
 
 /**
- * Convert pixels to packed binary image
- * with optional dithering.
+ * Gamma correct, unmultiply and pack pixel data into dst in one pass.
+ * Pixmap must come from jni_get_pixmap() with fused set.
  */
-int jni_pix_to_binary(fz_context *ctx, fz_pixmap * pix, int dither, unsigned char * trgbuf)
+static int jni_pack_pixels_fused(fz_context *ctx, fz_pixmap *pix, jni_options *opts, void *dst)
 {
-	int size = pix->w * pix->h;
-	unsigned char *pixbuf = (unsigned char*)fz_malloc_no_throw(ctx, (size_t)size);
-
-	if (!pixbuf)
-	{
-		return -1;
-	}
-
-	unsigned char *srcbuf = pixbuf;
-	unsigned char *ptrsrc = pixbuf;
-	unsigned char *ptrstr = pixbuf;
-	unsigned char *pixels = pix->samples;
-	unsigned char bitpack = 0;
-	float value, qerror;
-	int threshold = 128;
-	int bitcnt = 7;
-	int stride, x, y;
-
-	// Create a packed gray scale image
-	for (x = 0; x < size; x++)
+	jni_tone tone;
+	jint *ptr_pixint = (jint*)dst;
+	unsigned char *ptr_pixbyte = (unsigned char*)dst;
+	unsigned char *row = pix->samples;
+	unsigned char *s;
+	int n = pix->n;
+	int stride = pix->w * n;
+	int x, y, a;
+
+	jni_init_tone(&tone, opts);
+
+	if (opts->imageType == COLOR_BLACK_WHITE || opts->imageType == COLOR_BLACK_WHITE_DITHER)
 	{
-		*srcbuf++ = jni_get_rgb_r(*pixels) |
-				    jni_get_rgb_g(*pixels) |
-				    jni_get_rgb_b(*pixels);
-		pixels += pix->n;
+		return jni_pack_binary(ctx, pix, &tone, opts->imageType == COLOR_BLACK_WHITE_DITHER, 1, ptr_pixbyte);
 	}
 
-	for (y = 0; y < pix->h; y++)
+	for (y = 0; y < pix->h; y++, row += stride)
 	{
-		for (x = 0; x < pix->w; x++)
+		s = row;
+		switch (opts->imageType)
 		{
-			 // Grab gray value
-			value = *ptrsrc++;
-
-			// Convert to binary and Pack bits
-			bitpack |= (value < threshold) << bitcnt; //(7-(bitcnt%8));
-			if (bitcnt-- == 0) {
-				*trgbuf++ = bitpack;
-				bitpack = 0;
-				bitcnt = 7;
-			}
-
-			// Spread error amongst neighboring pixels
-			// Based on Floyd-Steinberg Dithering
-			// http://en.wikipedia.org/wiki/Floyd-Steinberg_dithering
-			if (dither == 1)
-			{
-				if((x > 0) && (y > 0) && (x < (pix->w-1)) && (y < (pix->h-1)))
+			case COLOR_RGB:
+				for (x = 0; x < pix->w; x++, s += n)
 				{
-					// Compute quantization error
-					qerror = value < threshold ? value : (value-255);
-
-					stride = y * pix->w;
-
-					// 7/16 = 0.4375f
-					srcbuf = ptrstr + x + 1 + stride;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.4375f * qerror), 0, 255);
-
-					// 3/16 = 0.1875f
-					srcbuf = ptrstr + x - 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.1875f * qerror), 0, 255);
-
-					// 5/16 = 0.3125f
-					srcbuf = ptrstr + x + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.3125f * qerror), 0, 255);
-
-					// 1/16 = 0.0625f
-					srcbuf = ptrstr + x + 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.0625f * qerror), 0, 255);
+					a = s[n - 1];
+					*ptr_pixint++ = jni_get_rgb_r(jni_tone_sample(&tone, s[0], a)) |
+									jni_get_rgb_g(jni_tone_sample(&tone, s[1], a)) |
+									jni_get_rgb_b(jni_tone_sample(&tone, s[2], a));
 				}
-			}
-		}
-
-		// Pad bit pack if needed
-		if (bitcnt < 7)
-		{
-			while (bitcnt >= 0)
-			{
-				bitpack |= 0 << bitcnt--;
-			}
-			*trgbuf++ = bitpack;
-			bitpack = 0;
-			bitcnt = 7;
+				break;
+			case COLOR_ARGB:
+			case COLOR_ARGB_PRE:
+				for (x = 0; x < pix->w; x++, s += n)
+				{
+					a = s[n - 1];
+					*ptr_pixint++ = jni_get_rgb_a(a) |
+									jni_get_rgb_r(jni_tone_sample(&tone, s[0], a)) |
+									jni_get_rgb_g(jni_tone_sample(&tone, s[1], a)) |
+									jni_get_rgb_b(jni_tone_sample(&tone, s[2], a));
+				}
+				break;
+			case COLOR_BGR:
+				for (x = 0; x < pix->w; x++, s += n)
+				{
+					a = s[n - 1];
+					*ptr_pixint++ = jni_get_bgr_b(jni_tone_sample(&tone, s[0], a)) |
+									jni_get_bgr_g(jni_tone_sample(&tone, s[1], a)) |
+									jni_get_bgr_r(jni_tone_sample(&tone, s[2], a));
+				}
+				break;
+			case COLOR_3BYTE_BGR:
+				for (x = 0; x < pix->w; x++, s += n)
+				{
+					a = s[n - 1];
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[2], a);
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[1], a);
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[0], a);
+				}
+				break;
+			case COLOR_4BYTE_ABGR:
+				for (x = 0; x < pix->w; x++, s += n)
+				{
+					a = s[n - 1];
+					*ptr_pixbyte++ = a;
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[2], a);
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[1], a);
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[0], a);
+				}
+				break;
+			case COLOR_GRAY_SCALE:
+				for (x = 0; x < pix->w; x++, s += n)
+				{
+					*ptr_pixbyte++ = jni_tone_sample(&tone, s[0], s[n - 1]);
+				}
+				break;
+			default:
+				return -1;
 		}
-
 	}
-	fz_free(ctx, pixbuf);
+
 	return 0;
 }
 
 /**
- * Get an packed RGB, Gray or Binary pixels
- * Returns a DirectByteBuffer
+ * Pack pixel data with the pass selected by the options
  */
-JNIEXPORT jobject JNICALL
-Java_com_jmupdf_JmuPdf_getByteBuffer(JNIEnv *env, jclass obj, jlong handle, jintArray bbox)
+static int jni_pack_output(fz_context *ctx, fz_pixmap *pix, jni_options *opts, void *dst)
 {
-	jni_page *page = jni_get_page(handle);
-
-	if (!page)
+	if (jni_fused_pass(opts))
 	{
-		return NULL;
+		return jni_pack_pixels_fused(ctx, pix, opts, dst);
 	}
+	return jni_pack_pixels(ctx, pix, opts->imageType, dst);
+}
 
-	fz_pixmap *pix = jni_get_pixmap(page);
+/**
+ * Get a new direct byte buffer that wraps packed pixel data.
+ * The buffer comes from the document pixel pool.
+ */
+static jobject jni_get_packed_pixels(JNIEnv *env, fz_context *ctx, jni_page *page, fz_pixmap *pix, jni_options *opts)
+{
+	jlong memsize = jni_packed_size(opts->imageType, pix->w, pix->h);
 
-	if (!pix)
+	if (memsize <= 0 || memsize > INT_MAX)
 	{
 		return NULL;
 	}
 
-	jobject pixarray = jni_get_packed_pixels(env, page->ctx, pix, page->options->imageType);
+	void *pixarray = jni_pixel_alloc(ctx, page->doc->pixels, (unsigned int)memsize);
 
 	if (!pixarray)
 	{
-		fz_drop_pixmap(page->ctx, pix);
 		return NULL;
 	}
 
-	jint *ae = jni_get_int_array(bbox);
-
-	if (ae)
+	if (jni_pack_output(ctx, pix, opts, pixarray) != 0)
 	{
-		ae[0] = 0;
-		ae[1] = 0;
-		ae[2] = fz_absi(pix->w);
-		ae[3] = fz_absi(pix->h);
+		jni_pixel_free(ctx, page->doc->pixels, pixarray);
+		return NULL;
 	}
 
-	jni_release_int_array(bbox, ae);
-	fz_drop_pixmap(page->ctx, pix);
-
-	return pixarray;
+	return jni_new_buffer_direct(pixarray, memsize);
 }
 
 /**
- * Free a ByteBuffer resource
+ * Convert pixels to black and white image
+ * with optional dithering. One byte per pixel.
  */
-JNIEXPORT void JNICALL
-Java_com_jmupdf_JmuPdf_freeByteBuffer(JNIEnv *env, jclass obj, jlong handle, jobject buffer)
+int jni_pix_to_black_white(fz_context *ctx, fz_pixmap * pix, int dither, unsigned char * trgbuf)
 {
-	jni_page *page = jni_get_page(handle);
-
-	if (!page)
-	{
-		return;
-	}
-
-	void *pixmap = jni_get_buffer_address(buffer);
+	return jni_pack_binary(ctx, pix, NULL, dither, 0, trgbuf);
+}
 
-	fz_free(page->ctx, pixmap);
+/**
+ * Convert pixels to packed binary image
+ * with optional dithering. One bit per pixel,
+ * 1 for black, rows padded to whole bytes.
+ */
+int jni_pix_to_binary(fz_context *ctx, fz_pixmap * pix, int dither, unsigned char * trgbuf)
+{
+	return jni_pack_binary(ctx, pix, NULL, dither, 1, trgbuf);
 }
 
 /**
- * Create an image file from a given page
+ * Render a pixmap that shares its samples with a new direct byte buffer
  */
-JNIEXPORT jint JNICALL
-Java_com_jmupdf_JmuPdf_saveAsFile(JNIEnv *env, jobject obj, jlong handle, jbyteArray out)
+static jobject jni_get_passthrough_pixels(JNIEnv *env, fz_context *ctx, jni_page *page, jni_options *opts, int *w, int *h)
 {
-	jni_page *page = jni_get_page(handle);
+	fz_matrix ctm;
+	fz_bbox rect = jni_get_render_bbox(page, opts, &ctm);
+	jlong memsize = jni_packed_size(opts->imageType, fz_absi(rect.x1 - rect.x0), fz_absi(rect.y1 - rect.y0));
 
-	if (!page)
+	if (memsize <= 0 || memsize > INT_MAX)
 	{
-		return -1;
+		return NULL;
 	}
 
-	fz_pixmap *pix = jni_get_pixmap(page);
+	unsigned char *samples = jni_pixel_alloc(ctx, page->doc->pixels, (unsigned int)memsize);
 
-	if (!pix)
+	if (!samples)
 	{
-		return -2;
+		return NULL;
 	}
 
-	char * file = jni_jbyte_to_char(env, page->ctx, out);
-	int rc = 0;
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, opts, samples, 0);
 
-	fz_try(page->ctx)
+	if (!pix)
 	{
-		switch (page->options->imageFormat)
-		{
-		case FORMAT_PNG:
-			jni_write_png(NULL, page->ctx, pix, (const char*)file, jni_save_alpha(page->options->imageType), page->options->zoom);
-			break;
-		case FORMAT_JPG:
-			jni_write_jpg(NULL, page->ctx, pix, (const char*)file, page->options->zoom, page->options->imageType, page->options->quality);
-			break;
-		case FORMAT_TIF:
-			rc = jni_write_tif(page->ctx, pix, (const char*)file, page->options->zoom, page->options->compression, page->options->imageType, page->options->mode, page->options->quality);
-			break;
-		case FORMAT_PNM:
-			fz_write_pnm(page->ctx, pix, file);
-			break;
-		case FORMAT_PAM:
-			fz_write_pam(page->ctx, pix, file, jni_save_alpha(page->options->imageType));
-			break;
-		case FORMAT_PBM:
+		jni_pixel_free(ctx, page->doc->pixels, samples);
+		return NULL;
+	}
+
+	*w = pix->w;
+	*h = pix->h;
+
+	jni_drop_pixmap(ctx, page->doc, pix, samples);
+
+	return jni_new_buffer_direct(samples, (int)memsize);
+}
+
+/**
+ * Render packed pixels and store image size in bbox
+ */
+static jobject jni_get_pixel_buffer(JNIEnv *env, fz_context *ctx, jni_page *page, jni_options *opts, jintArray bbox)
+{
+	jobject pixarray = NULL;
+	int w = 0;
+	int h = 0;
+
+	if (jni_passthrough(opts->imageType))
+	{
+		pixarray = jni_get_passthrough_pixels(env, ctx, page, opts, &w, &h);
+	}
+	else
+	{
+		fz_pixmap *pix = jni_get_pixmap(ctx, page, opts, NULL, jni_fused_pass(opts));
+		if (pix)
 		{
-			fz_halftone *ht = fz_default_halftone(page->ctx, 1);
-			fz_bitmap *bit = NULL;
-			if (ht)
-			{
-				bit = fz_halftone_pixmap(page->ctx, pix, ht);
-			}
-			if (bit)
+			pixarray = jni_get_packed_pixels(env, ctx, page, pix, opts);
+			w = pix->w;
+			h = pix->h;
+			jni_drop_pixmap(ctx, page->doc, pix, NULL);
+		}
+	}
+
+	if (!pixarray)
+	{
+		return NULL;
+	}
+
+	jint *ae = jni_get_int_array(bbox);
+
+	if (ae)
+	{
+		ae[0] = 0;
+		ae[1] = 0;
+		ae[2] = fz_absi(w);
+		ae[3] = fz_absi(h);
+	}
+
+	jni_release_int_array(bbox, ae);
+
+	return pixarray;
+}
+
+/**
+ * Determine if an image format can be written to any output
+ */
+static int jni_streamable(int format)
+{
+	switch (format)
+	{
+	case FORMAT_PNG:
+	case FORMAT_JPG:
+	case FORMAT_PNM:
+	case FORMAT_PAM:
+	case FORMAT_PBM:
+		return 1;
+	}
+	return 0;
+}
+
+/**
+ * Encode pixmap to an output. Format must be streamable.
+ */
+static void jni_encode_pixmap(fz_context *ctx, fz_pixmap *pix, jni_options *opts, jni_output *out)
+{
+	switch (opts->imageFormat)
+	{
+	case FORMAT_PNG:
+		jni_write_png(ctx, pix, out, jni_save_alpha(opts->imageType), opts->zoom, opts->pngCompression, opts->pngFilter, opts->encodeThreads);
+		break;
+	case FORMAT_JPG:
+		jni_write_jpg(ctx, pix, out, opts->zoom, opts->imageType, opts->quality);
+		break;
+	case FORMAT_PNM:
+		jni_write_pnm(ctx, pix, out);
+		break;
+	case FORMAT_PAM:
+		jni_write_pam(ctx, pix, out, jni_save_alpha(opts->imageType));
+		break;
+	case FORMAT_PBM:
+	{
+		fz_halftone *ht = fz_default_halftone(ctx, 1);
+		fz_bitmap *bit = NULL;
+		fz_try(ctx)
+		{
+			bit = fz_halftone_pixmap(ctx, pix, ht);
+			jni_write_pbm(ctx, bit, out);
+		}
+		fz_always(ctx)
+		{
+			fz_drop_bitmap(ctx, bit);
+			fz_drop_halftone(ctx, ht);
+		}
+		fz_catch(ctx)
+		{
+			fz_rethrow(ctx);
+		}
+		break;
+	}
+	default:
+		fz_throw(ctx, "Image Format not supported : %i", (int)opts->imageFormat);
+	}
+}
+
+/**
+ * Write pixmap to an image file
+ */
+static int jni_write_pixmap(fz_context *ctx, fz_pixmap *pix, jni_options *opts, char *file)
+{
+	jni_output *out = NULL;
+	int rc = 0;
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		if (jni_streamable(opts->imageFormat))
+		{
+			out = jni_new_file_output(ctx, (const char*)file);
+			jni_encode_pixmap(ctx, pix, opts, out);
+		}
+		else
+		{
+			switch (opts->imageFormat)
 			{
-				fz_write_pbm(page->ctx, bit, (char*)file);
+			case FORMAT_TIF:
+				rc = jni_write_tif(ctx, pix, (const char*)file, opts->zoom, opts->compression, opts->imageType, opts->mode, opts->quality);
+				break;
+			case FORMAT_BMP:
+				rc = jni_write_bmp(ctx, pix, (const char*)file, opts->zoom, opts->imageType);
+				break;
+			default:
+				fprintf(stderr,"Image Format not supported : %i\n", (int)opts->imageFormat);
+				rc = -4;
+				break;
 			}
-			break;
 		}
-		case FORMAT_BMP:
-			rc = jni_write_bmp(page->ctx, pix, (const char*)file, page->options->zoom, page->options->imageType);
-			break;
-		default:
-			fprintf(stderr,"Image Format not supported : %i\n", (int)page->options->imageFormat);
-			rc = -4;
-			break;
+	}
+	fz_catch(ctx)
+	{
+		rc = -3;
+	}
+
+	if (jni_close_output(out) != 0 && rc == 0)
+	{
+		rc = -3;
+	}
+
+	return rc;
+}
+
+/**
+ * Write pixmap to an encoded byte array
+ */
+static jbyteArray jni_write_pixmap_bytes(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, jni_options *opts)
+{
+	jni_output *out = NULL;
+	jbyteArray buffer = NULL;
+
+	if (opts->imageFormat != FORMAT_PNG && opts->imageFormat != FORMAT_JPG)
+	{
+		fprintf(stderr,"Image Format not supported : %i\n", (int)opts->imageFormat);
+		return NULL;
+	}
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		out = jni_new_memory_output(ctx, 65536);
+		jni_encode_pixmap(ctx, pix, opts, out);
+		buffer = jni_output_to_byte_array(env, out);
+	}
+	fz_catch(ctx) {}
+
+	jni_close_output(out);
+
+	return buffer;
+}
+
+/**
+ * Write pixmap to an ImageChannel object. Returns -4 when the image
+ * format cannot be streamed.
+ */
+static int jni_write_pixmap_stream(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, jni_options *opts, jobject channel)
+{
+	jni_output *out = NULL;
+	int rc = 0;
+
+	if (!jni_streamable(opts->imageFormat))
+	{
+		return -4;
+	}
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		out = jni_new_channel_output(env, ctx, channel);
+		jni_encode_pixmap(ctx, pix, opts, out);
+	}
+	fz_catch(ctx)
+	{
+		rc = -3;
+	}
+
+	if (jni_close_output(out) != 0 && rc == 0)
+	{
+		rc = -3;
+	}
+
+	return rc;
+}
+
+/**
+ * Determine if a render is done in bands
+ */
+static int jni_banded(jni_options *opts)
+{
+	if (opts->bandHeight <= 0)
+	{
+		return 0;
+	}
+
+	switch (opts->imageFormat)
+	{
+	case FORMAT_PNG:
+	case FORMAT_JPG:
+	case FORMAT_PNM:
+	case FORMAT_PAM:
+	case FORMAT_TIF:
+		return 1;
+	}
+	return 0;
+}
+
+/**
+ * Create a band writer for a w x h image. TIF images go to file,
+ * other formats to out.
+ */
+static jni_band_writer *jni_new_band_writer(fz_context *ctx, jni_options *opts, jni_output *out, const char *file, int w, int h, int rows)
+{
+	fz_colorspace *colorspace = jni_get_color_space(opts->imageType);
+	int n = colorspace->n + 1;
+
+	switch (opts->imageFormat)
+	{
+	case FORMAT_PNG:
+		return jni_new_png_writer(ctx, out, w, h, n, jni_save_alpha(opts->imageType), opts->zoom, opts->pngCompression, opts->pngFilter);
+	case FORMAT_JPG:
+		return jni_new_jpg_writer(ctx, out, w, h, n, opts->zoom, opts->imageType, opts->quality);
+	case FORMAT_PNM:
+		return jni_new_pnm_writer(ctx, out, w, h, n);
+	case FORMAT_PAM:
+		return jni_new_pam_writer(ctx, out, w, h, n, colorspace, jni_save_alpha(opts->imageType));
+	case FORMAT_TIF:
+		return jni_new_tif_writer(ctx, file, w, h, n, rows, opts->zoom, opts->compression, opts->imageType, opts->mode, opts->quality);
+	}
+
+	fz_throw(ctx, "Image Format not supported : %i", (int)opts->imageFormat);
+	return NULL;
+}
+
+/**
+ * Get pixel bounds of a banded render
+ */
+static fz_bbox jni_get_band_bbox(fz_context *ctx, jni_page *page, jni_options *opts, fz_matrix *ctm)
+{
+	fz_bbox bbox;
+
+	if (!page->list)
+	{
+		fz_throw(ctx, "page has no display list");
+	}
+
+	jni_set_aa_level(ctx, opts);
+
+	bbox = jni_get_render_bbox(page, opts, ctm);
+
+	if (bbox.x1 <= bbox.x0 || bbox.y1 <= bbox.y0)
+	{
+		fz_throw(ctx, "nothing to render");
+	}
+
+	return bbox;
+}
+
+/**
+ * Get number of rows to render at a time, no more than the image height.
+ * TIF strips compressed with JPEG must be a multiple of 16 rows high.
+ */
+static int jni_get_band_rows(fz_context *ctx, jni_options *opts, fz_bbox bbox, int rows)
+{
+	int n = jni_get_color_space(opts->imageType)->n + 1;
+	int w = bbox.x1 - bbox.x0;
+	int h = bbox.y1 - bbox.y0;
+	int jpeg = opts->imageFormat == FORMAT_TIF && opts->compression == TIF_COMPRESSION_JPEG;
+
+	if (jpeg)
+	{
+		rows = (rows + 15) & ~15;
+	}
+	if ((jlong)w * n * rows > INT_MAX)
+	{
+		rows = INT_MAX / ((jlong)w * n);
+		if (jpeg)
+		{
+			rows &= ~15;
+		}
+	}
+	if (rows > h)
+	{
+		rows = h;
+	}
+	if (rows < 1)
+	{
+		fz_throw(ctx, "image is too wide to render");
+	}
+
+	return rows;
+}
+
+/**
+ * Draw page in bands of rows rows from its display list and hand every
+ * band to an image writer as soon as it is drawn, then close the writer.
+ * Only one band of pixels is held at a time, whatever the size of the image.
+ *
+ * Dithered black and white images are dithered one band at a time.
+ */
+static void jni_draw_bands(fz_context *ctx, jni_page *page, jni_options *opts, jni_band_writer *wri, fz_bbox bbox, fz_matrix ctm, int rows)
+{
+	fz_colorspace *colorspace = jni_get_color_space(opts->imageType);
+	fz_pixmap *band = NULL;
+	unsigned char *samples = NULL;
+	fz_bbox rect = bbox;
+	int n = colorspace->n + 1;
+	int y;
+
+	samples = jni_pixel_alloc(ctx, page->doc->pixels, (unsigned int)(bbox.x1 - bbox.x0) * n * rows);
+
+	if (!samples)
+	{
+		fz_throw(ctx, "Could not allocate memory");
+	}
+
+	fz_var(band);
+
+	fz_try(ctx)
+	{
+		if (opts->cookie && opts->cookie->abort)
+		{
+			fz_throw(ctx, "render cancelled");
+		}
+		for (y = bbox.y0; y < bbox.y1; y += rows)
+		{
+			rect.y0 = y;
+			rect.y1 = fz_mini(y + rows, bbox.y1);
+			band = fz_new_pixmap_with_bbox_and_data(ctx, colorspace, rect, samples);
+			jni_draw_pixmap(ctx, page, opts, band, ctm, 0);
+			wri->write_band(ctx, wri, band);
+			fz_drop_pixmap(ctx, band);
+			band = NULL;
 		}
+		wri->close(ctx, wri);
+	}
+	fz_always(ctx)
+	{
+		fz_drop_pixmap(ctx, band);
+		jni_pixel_free(ctx, page->doc->pixels, samples);
+	}
+	fz_catch(ctx)
+	{
+		fz_rethrow(ctx);
+	}
+}
+
+/**
+ * Render page in bands of opts->bandHeight rows to an image writer
+ * for out, or file for TIF images.
+ */
+static void jni_render_bands(fz_context *ctx, jni_page *page, jni_options *opts, jni_output *out, const char *file)
+{
+	jni_band_writer *wri = NULL;
+	fz_matrix ctm;
+	fz_bbox bbox = jni_get_band_bbox(ctx, page, opts, &ctm);
+	int rows = jni_get_band_rows(ctx, opts, bbox, opts->bandHeight);
+
+	fz_var(wri);
+
+	fz_try(ctx)
+	{
+		wri = jni_new_band_writer(ctx, opts, out, file, bbox.x1 - bbox.x0, bbox.y1 - bbox.y0, rows);
+		jni_draw_bands(ctx, page, opts, wri, bbox, ctm, rows);
+	}
+	fz_always(ctx)
+	{
+		if (wri)
+		{
+			wri->drop(ctx, wri);
+		}
+	}
+	fz_catch(ctx)
+	{
+		fz_rethrow(ctx);
+	}
+}
+
+/**
+ * Render page in bands to an image file
+ */
+static int jni_write_banded(fz_context *ctx, jni_page *page, jni_options *opts, char *file)
+{
+	jni_output *out = NULL;
+	int rc = 0;
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		if (opts->imageFormat != FORMAT_TIF)
+		{
+			out = jni_new_file_output(ctx, (const char*)file);
+		}
+		jni_render_bands(ctx, page, opts, out, (const char*)file);
+	}
+	fz_catch(ctx)
+	{
+		rc = -3;
+	}
+
+	if (jni_close_output(out) != 0 && rc == 0)
+	{
+		rc = -3;
+	}
+
+	return rc;
+}
+
+/**
+ * Render page in bands to an encoded byte array. Only the encoded
+ * image is held in full.
+ */
+static jbyteArray jni_write_banded_bytes(JNIEnv *env, fz_context *ctx, jni_page *page, jni_options *opts)
+{
+	jni_output *out = NULL;
+	jbyteArray buffer = NULL;
+
+	if (opts->imageFormat != FORMAT_PNG && opts->imageFormat != FORMAT_JPG)
+	{
+		fprintf(stderr,"Image Format not supported : %i\n", (int)opts->imageFormat);
+		return NULL;
+	}
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		out = jni_new_memory_output(ctx, 65536);
+		jni_render_bands(ctx, page, opts, out, NULL);
+		buffer = jni_output_to_byte_array(env, out);
+	}
+	fz_catch(ctx) {}
+
+	jni_close_output(out);
+
+	return buffer;
+}
+
+/**
+ * Render page in bands to an ImageChannel object. Returns -4 when the
+ * image format cannot be streamed.
+ */
+static int jni_write_banded_stream(JNIEnv *env, fz_context *ctx, jni_page *page, jni_options *opts, jobject channel)
+{
+	jni_output *out = NULL;
+	int rc = 0;
+
+	if (!jni_streamable(opts->imageFormat))
+	{
+		return -4;
+	}
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		out = jni_new_channel_output(env, ctx, channel);
+		jni_render_bands(ctx, page, opts, out, NULL);
+	}
+	fz_catch(ctx)
+	{
+		rc = -3;
+	}
+
+	if (jni_close_output(out) != 0 && rc == 0)
+	{
+		rc = -3;
+	}
+
+	return rc;
+}
+
+/**
+ * Copy a com.jmupdf.page.RenderSpec object into an options structure
+ */
+static int jni_get_render_spec(JNIEnv *env, jobject spec, jni_options *opts)
+{
+	if (!spec)
+	{
+		return -1;
+	}
+
+	jclass cls = (*env)->GetObjectClass(env, spec);
+
+	if (!cls)
+	{
+		return -1;
+	}
+
+	opts->imageFormat = jni_get_spec_int(spec, cls, "imageFormat");
+	opts->imageType = jni_get_spec_int(spec, cls, "imageType");
+	opts->rotate = jni_get_spec_int(spec, cls, "rotate");
+	opts->quality = jni_get_spec_int(spec, cls, "quality");
+	opts->compression = jni_get_spec_int(spec, cls, "compression");
+	opts->mode = jni_get_spec_int(spec, cls, "mode");
+	opts->antiAlias = jni_get_spec_int(spec, cls, "antiAlias");
+	opts->zoom = jni_get_spec_float(spec, cls, "zoom");
+	opts->gamma = jni_get_spec_float(spec, cls, "gamma");
+	opts->x0 = jni_get_spec_float(spec, cls, "x0");
+	opts->y0 = jni_get_spec_float(spec, cls, "y0");
+	opts->x1 = jni_get_spec_float(spec, cls, "x1");
+	opts->y1 = jni_get_spec_float(spec, cls, "y1");
+	opts->fusedPass = jni_get_spec_boolean(spec, cls, "fusedPass");
+	opts->pngCompression = jni_get_spec_int(spec, cls, "pngCompression");
+	opts->pngFilter = jni_get_spec_int(spec, cls, "pngFilter");
+	opts->encodeThreads = jni_get_spec_int(spec, cls, "encodeThreads");
+	opts->bandHeight = jni_get_spec_int(spec, cls, "bandHeight");
+	opts->cookie = NULL;
+
+	jobject ticket = jni_get_spec_object(spec, cls, "ticket", "Lcom/jmupdf/page/RenderTicket;");
+
+	if (ticket)
+	{
+		jclass tcls = (*env)->GetObjectClass(env, ticket);
+		jobject buf = jni_get_spec_object(ticket, tcls, "cookie", "Ljava/nio/ByteBuffer;");
+		if (buf && jni_get_buffer_capacity(buf) >= (jlong)sizeof(fz_cookie))
+		{
+			opts->cookie = (fz_cookie *)jni_get_buffer_address(buf);
+		}
+		jni_free_ref(buf);
+		jni_free_ref(tcls);
+		jni_free_ref(ticket);
+	}
+
+	jni_free_ref(cls);
+
+	if ((*env)->ExceptionCheck(env))
+	{
+		(*env)->ExceptionClear(env);
+		return -1;
+	}
+
+	return 0;
+}
+
+/**
+ * Prepare a render call that does not touch the page context or options.
+ *
+ * A context is cloned for the call so that renders of the same page
+ * may run at the same time, each with its own anti alias level. The
+ * returned context must be freed with fz_free_context().
+ */
+static fz_context *jni_begin_render(JNIEnv *env, jni_page *page, jobject spec, jni_options *opts)
+{
+	if (!page || !page->list)
+	{
+		return NULL;
+	}
+
+	if (jni_get_render_spec(env, spec, opts) != 0)
+	{
+		return NULL;
+	}
+
+	return fz_clone_context(page->doc->ctx);
+}
+
+/**
+ * Get an packed RGB, Gray or Binary pixels
+ * Returns a DirectByteBuffer
+ */
+JNIEXPORT jobject JNICALL
+Java_com_jmupdf_JmuPdf_getByteBuffer(JNIEnv *env, jclass obj, jlong handle, jintArray bbox)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return NULL;
+	}
+
+	return jni_get_pixel_buffer(env, page->ctx, page, page->options, bbox);
+}
+
+/**
+ * Free a ByteBuffer resource
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_freeByteBuffer(JNIEnv *env, jclass obj, jlong handle, jobject buffer)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return;
+	}
+
+	void *pixmap = jni_get_buffer_address(buffer);
+
+	jni_pixel_free(page->ctx, page->doc->pixels, pixmap);
+}
+
+/**
+ * Create an image file from a given page
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_saveAsFile(JNIEnv *env, jobject obj, jlong handle, jbyteArray out)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	if (jni_banded(page->options))
+	{
+		char * file = jni_jbyte_to_char(env, page->ctx, out);
+		int rc = jni_write_banded(page->ctx, page, page->options, file);
+		fz_free(page->ctx, file);
+		return rc;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(page->ctx, page, page->options, NULL, 0);
+
+	if (!pix)
+	{
+		return -2;
+	}
+
+	char * file = jni_jbyte_to_char(env, page->ctx, out);
+	int rc = jni_write_pixmap(page->ctx, pix, page->options, file);
+
+	fz_free(page->ctx, file);
+	jni_drop_pixmap(page->ctx, page->doc, pix, NULL);
+
+	return rc;
+}
+
+/**
+ * Create an encoded image from a given page
+ */
+JNIEXPORT jbyteArray JNICALL
+Java_com_jmupdf_JmuPdf_saveAsByte(JNIEnv *env, jobject obj, jlong handle)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return NULL;
+	}
+
+	if (jni_banded(page->options))
+	{
+		return jni_write_banded_bytes(env, page->ctx, page, page->options);
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(page->ctx, page, page->options, NULL, 0);
+
+	if (!pix)
+	{
+		return NULL;
+	}
+
+	jbyteArray buffer = jni_write_pixmap_bytes(env, page->ctx, pix, page->options);
+
+	jni_drop_pixmap(page->ctx, page->doc, pix, NULL);
+
+	return buffer;
+}
+
+/**
+ * Render packed pixels using a RenderSpec.
+ * Returns a DirectByteBuffer that must be released with freeByteBuffer()
+ */
+JNIEXPORT jobject JNICALL
+Java_com_jmupdf_JmuPdf_renderPixels(JNIEnv *env, jclass obj, jlong handle, jobject spec, jintArray bbox)
+{
+	jni_options opts;
+	jni_page *page = jni_get_page(handle);
+	fz_context *ctx = jni_begin_render(env, page, spec, &opts);
+
+	if (!ctx)
+	{
+		return NULL;
+	}
+
+	jobject pixarray = jni_get_pixel_buffer(env, ctx, page, &opts, bbox);
+
+	fz_free_context(ctx);
+
+	return pixarray;
+}
+
+/**
+ * Render packed pixels into a caller supplied direct buffer using a RenderSpec.
+ *
+ * Pixels are written starting at offset. The image size is stored in bbox.
+ * Returns the number of bytes the image needs. If the buffer is null or
+ * length is too small nothing is rendered and the page display list is
+ * not needed. Returns a negative value on error.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_renderInto(JNIEnv *env, jclass obj, jlong handle, jobject spec, jobject target, jint offset, jint length, jintArray bbox)
+{
+	jni_options opts;
+	jni_page *page = jni_get_page(handle);
+
+	if (!page || jni_get_render_spec(env, spec, &opts) != 0)
+	{
+		return -1;
+	}
+
+	fz_matrix ctm;
+	fz_bbox rect = jni_get_render_bbox(page, &opts, &ctm);
+	int w = fz_absi(rect.x1 - rect.x0);
+	int h = fz_absi(rect.y1 - rect.y0);
+	jlong required = jni_packed_size(opts.imageType, w, h);
+
+	jint *ae = jni_get_int_array(bbox);
+
+	if (ae)
+	{
+		ae[0] = 0;
+		ae[1] = 0;
+		ae[2] = w;
+		ae[3] = h;
+	}
+
+	jni_release_int_array(bbox, ae);
+
+	if (required > INT_MAX)
+	{
+		return -3;
+	}
+
+	unsigned char *data = target ? (unsigned char *)jni_get_buffer_address(target) : NULL;
+
+	if (!data || offset < 0 || length < required || jni_get_buffer_capacity(target) - offset < required)
+	{
+		return (jint)required;
 	}
-	fz_catch(page->ctx)
+
+	fz_context *ctx = page->list ? fz_clone_context(page->doc->ctx) : NULL;
+
+	if (!ctx)
 	{
-		rc = -3;
+		return -1;
 	}
 
-	fz_free(page->ctx, file);
-	fz_drop_pixmap(page->ctx, pix);
+	int rc = (jint)required;
+
+	// Pass through pixels render straight into the target
+	unsigned char *samples = jni_passthrough(opts.imageType) ? data + offset : NULL;
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, &opts, samples, samples ? 0 : jni_fused_pass(&opts));
+
+	if (!pix || jni_pack_output(ctx, pix, &opts, data + offset) != 0)
+	{
+		rc = -2;
+	}
+
+	jni_drop_pixmap(ctx, page->doc, pix, samples);
+	fz_free_context(ctx);
 
 	return rc;
 }
 
-JNIEXPORT jbyteArray JNICALL
-Java_com_jmupdf_JmuPdf_saveAsByte(JNIEnv *env, jobject obj, jlong handle)
+/**
+ * Render an image file using a RenderSpec
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_renderFile(JNIEnv *env, jclass obj, jlong handle, jobject spec, jbyteArray out)
 {
+	jni_options opts;
 	jni_page *page = jni_get_page(handle);
+	fz_context *ctx = jni_begin_render(env, page, spec, &opts);
 
-	if (!page)
+	if (!ctx)
 	{
-		return NULL;
+		return -1;
 	}
 
-	fz_pixmap *pix = jni_get_pixmap(page);
+	int rc = -2;
 
-	if (!pix)
+	if (jni_banded(&opts))
+	{
+		char * file = jni_jbyte_to_char(env, ctx, out);
+		rc = jni_write_banded(ctx, page, &opts, file);
+		fz_free(ctx, file);
+		fz_free_context(ctx);
+		return rc;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, &opts, NULL, 0);
+
+	if (pix)
+	{
+		char * file = jni_jbyte_to_char(env, ctx, out);
+		rc = jni_write_pixmap(ctx, pix, &opts, file);
+		fz_free(ctx, file);
+		jni_drop_pixmap(ctx, page->doc, pix, NULL);
+	}
+
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Render an encoded image using a RenderSpec
+ */
+JNIEXPORT jbyteArray JNICALL
+Java_com_jmupdf_JmuPdf_renderBytes(JNIEnv *env, jclass obj, jlong handle, jobject spec)
+{
+	jni_options opts;
+	jni_page *page = jni_get_page(handle);
+	fz_context *ctx = jni_begin_render(env, page, spec, &opts);
+
+	if (!ctx)
 	{
 		return NULL;
 	}
 
 	jbyteArray buffer = NULL;
 
-	fz_try(page->ctx)
+	if (jni_banded(&opts))
 	{
-		switch (page->options->imageFormat)
-		{
-		case FORMAT_PNG:
-			buffer = (jbyteArray)jni_write_png(env, page->ctx, pix, NULL, jni_save_alpha(page->options->imageType), page->options->zoom);
-			break;
-		case FORMAT_JPG:
-			buffer = (jbyteArray)jni_write_jpg(env, page->ctx, pix, NULL, page->options->zoom, page->options->imageType, page->options->quality);
-			break;
-		default:
-			fprintf(stderr,"Image Format not supported : %i\n", (int)page->options->imageFormat);
-			break;
-		}
+		buffer = jni_write_banded_bytes(env, ctx, page, &opts);
+		fz_free_context(ctx);
+		return buffer;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, &opts, NULL, 0);
+
+	if (pix)
+	{
+		buffer = jni_write_pixmap_bytes(env, ctx, pix, &opts);
+		jni_drop_pixmap(ctx, page->doc, pix, NULL);
 	}
-	fz_catch(page->ctx) {}
 
-	fz_drop_pixmap(page->ctx, pix);
+	fz_free_context(ctx);
 
 	return buffer;
 }
 
+/**
+ * Render an encoded image to an ImageChannel using a RenderSpec
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_renderStream(JNIEnv *env, jclass obj, jlong handle, jobject spec, jobject channel)
+{
+	jni_options opts;
+	jni_page *page = jni_get_page(handle);
+	fz_context *ctx = jni_begin_render(env, page, spec, &opts);
+
+	if (!ctx)
+	{
+		return -1;
+	}
+
+	int rc = -2;
+
+	if (jni_banded(&opts))
+	{
+		rc = jni_write_banded_stream(env, ctx, page, &opts, channel);
+		fz_free_context(ctx);
+		return rc;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, &opts, NULL, 0);
+
+	if (pix)
+	{
+		rc = jni_write_pixmap_stream(env, ctx, pix, &opts, channel);
+		jni_drop_pixmap(ctx, page->doc, pix, NULL);
+	}
+
+	fz_free_context(ctx);
+
+	return rc;
+}
+
 /**
  * Get pointer to page options structure
  */
@@ -668,3 +1712,316 @@ Java_com_jmupdf_JmuPdf_getPageOptionsStruct(JNIEnv *env, jclass obj, jlong handl
 
 	return jni_new_buffer_direct((void *)page->options, sizeof(*page->options));
 }
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Rendered pixmaps.
+ *
+ * A pixmap rendered with renderPixmap() keeps the options it
+ * was rendered with and can be encoded later from any thread
+ * with encodePixmap(). This lets rasterizing and encoding run
+ * on different threads. Encoding and freeing use a context
+ * cloned from the document, so the page may be freed first.
+ * Rendered pixmaps must be freed before their document.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+typedef struct jni_rendered_s jni_rendered;
+struct jni_rendered_s
+{
+	jni_document *doc;
+	fz_pixmap *pix;
+	jni_options opts;
+};
+
+/**
+ * Get rendered pixmap from handle
+ */
+static jni_rendered *jni_get_rendered(jlong handle)
+{
+	if (handle > 0)
+	{
+		return (jni_rendered *)jni_jlong_to_ptr(handle);
+	}
+	return NULL;
+}
+
+/**
+ * Render a pixmap using a RenderSpec. The image size is stored in bbox.
+ * Returns a handle that must be released with freePixmap() or
+ * a negative value on error.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_renderPixmap(JNIEnv *env, jclass obj, jlong handle, jobject spec, jintArray bbox)
+{
+	jni_options opts;
+	jni_page *page = jni_get_page(handle);
+	fz_context *ctx = jni_begin_render(env, page, spec, &opts);
+
+	if (!ctx)
+	{
+		return -1;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, &opts, NULL, 0);
+
+	if (!pix)
+	{
+		fz_free_context(ctx);
+		return -2;
+	}
+
+	jni_rendered *rendered = fz_malloc_no_throw(ctx, sizeof(jni_rendered));
+
+	if (!rendered)
+	{
+		jni_drop_pixmap(ctx, page->doc, pix, NULL);
+		fz_free_context(ctx);
+		return -2;
+	}
+
+	rendered->doc = page->doc;
+	rendered->pix = pix;
+	rendered->opts = opts;
+	rendered->opts.cookie = NULL;
+
+	jint *ae = jni_get_int_array(bbox);
+
+	if (ae)
+	{
+		ae[0] = 0;
+		ae[1] = 0;
+		ae[2] = pix->w;
+		ae[3] = pix->h;
+	}
+
+	jni_release_int_array(bbox, ae);
+
+	fz_free_context(ctx);
+
+	return jni_ptr_to_jlong(rendered);
+}
+
+/**
+ * Encode a rendered pixmap to an image file
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_encodePixmap(JNIEnv *env, jclass obj, jlong handle, jbyteArray out)
+{
+	jni_rendered *rendered = jni_get_rendered(handle);
+
+	if (!rendered)
+	{
+		return -1;
+	}
+
+	fz_context *ctx = fz_clone_context(rendered->doc->ctx);
+
+	if (!ctx)
+	{
+		return -2;
+	}
+
+	char * file = jni_jbyte_to_char(env, ctx, out);
+	int rc = jni_write_pixmap(ctx, rendered->pix, &rendered->opts, file);
+
+	fz_free(ctx, file);
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Encode a rendered pixmap to a PNG or JPEG byte array
+ */
+JNIEXPORT jbyteArray JNICALL
+Java_com_jmupdf_JmuPdf_encodePixmapBytes(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_rendered *rendered = jni_get_rendered(handle);
+
+	if (!rendered)
+	{
+		return NULL;
+	}
+
+	fz_context *ctx = fz_clone_context(rendered->doc->ctx);
+
+	if (!ctx)
+	{
+		return NULL;
+	}
+
+	jbyteArray buffer = jni_write_pixmap_bytes(env, ctx, rendered->pix, &rendered->opts);
+
+	fz_free_context(ctx);
+
+	return buffer;
+}
+
+/**
+ * Encode a rendered pixmap to an ImageChannel
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_encodePixmapStream(JNIEnv *env, jclass obj, jlong handle, jobject channel)
+{
+	jni_rendered *rendered = jni_get_rendered(handle);
+
+	if (!rendered)
+	{
+		return -1;
+	}
+
+	fz_context *ctx = fz_clone_context(rendered->doc->ctx);
+
+	if (!ctx)
+	{
+		return -2;
+	}
+
+	int rc = jni_write_pixmap_stream(env, ctx, rendered->pix, &rendered->opts, channel);
+
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Free a rendered pixmap
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_freePixmap(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_rendered *rendered = jni_get_rendered(handle);
+
+	if (!rendered)
+	{
+		return;
+	}
+
+	fz_context *ctx = fz_clone_context(rendered->doc->ctx);
+
+	if (!ctx)
+	{
+		return;
+	}
+
+	jni_drop_pixmap(ctx, rendered->doc, rendered->pix, NULL);
+	fz_free(ctx, rendered);
+	fz_free_context(ctx);
+}
+
+/**
+ * Open a TIF file pages are added to with writeTiffPage().
+ * Returns a handle that must be released with closeTiff() or
+ * a negative value on error.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_openTiff(JNIEnv *env, jclass obj, jbyteArray file, jint mode)
+{
+	if (!file)
+	{
+		return -1;
+	}
+
+	jsize len = jni_get_array_len(file);
+	char *name = (char*)malloc(len + 1);
+
+	if (!name)
+	{
+		return -1;
+	}
+
+	(*env)->GetByteArrayRegion(env, file, 0, len, (jbyte*)name);
+	name[len] = '\0';
+
+	jni_tif_session *session = jni_open_tif_session(name, mode);
+
+	free(name);
+
+	if (!session)
+	{
+		return -2;
+	}
+
+	return jni_ptr_to_jlong(session);
+}
+
+/**
+ * Render a page in strips or tiles and add it to a TIF file.
+ * Strips are stripRows high, or as high as the band height of
+ * the spec. The page is tiled when tileWidth is not zero.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_writeTiffPage(JNIEnv *env, jclass obj, jlong handle, jlong pagehandle, jobject spec, jint stripRows, jint tileWidth, jint tileHeight)
+{
+	jni_tif_session *session = handle > 0 ? (jni_tif_session *)jni_jlong_to_ptr(handle) : NULL;
+	jni_options opts;
+	jni_page *page = jni_get_page(pagehandle);
+	fz_context *ctx = session ? jni_begin_render(env, page, spec, &opts) : NULL;
+
+	if (!ctx)
+	{
+		return -1;
+	}
+
+	jni_band_writer *wri = NULL;
+	fz_colorspace *colorspace = jni_get_color_space(opts.imageType);
+	fz_matrix ctm;
+	fz_bbox bbox;
+	int rc = 0;
+	int w, h, rows;
+
+	fz_var(wri);
+
+	fz_try(ctx)
+	{
+		bbox = jni_get_band_bbox(ctx, page, &opts, &ctm);
+		w = bbox.x1 - bbox.x0;
+		h = bbox.y1 - bbox.y0;
+
+		if (tileWidth > 0)
+		{
+			rows = jni_get_band_rows(ctx, &opts, bbox, tileHeight);
+			if (rows < fz_mini(tileHeight, h))
+			{
+				fz_throw(ctx, "tiles are too large");
+			}
+			wri = jni_new_tif_page_writer(ctx, session, w, h, colorspace->n + 1, tileHeight, tileWidth, opts.zoom, opts.compression, opts.imageType, opts.quality);
+		}
+		else
+		{
+			rows = stripRows > 0 ? stripRows : opts.bandHeight > 0 ? opts.bandHeight : h;
+			rows = jni_get_band_rows(ctx, &opts, bbox, rows);
+			wri = jni_new_tif_page_writer(ctx, session, w, h, colorspace->n + 1, rows, 0, opts.zoom, opts.compression, opts.imageType, opts.quality);
+		}
+
+		jni_draw_bands(ctx, page, &opts, wri, bbox, ctm, rows);
+	}
+	fz_always(ctx)
+	{
+		if (wri)
+		{
+			wri->drop(ctx, wri);
+		}
+	}
+	fz_catch(ctx)
+	{
+		rc = -3;
+	}
+
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Close a TIF file opened with openTiff()
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_closeTiff(JNIEnv *env, jclass obj, jlong handle)
+{
+	if (handle <= 0)
+	{
+		return -1;
+	}
+
+	return jni_close_tif_session((jni_tif_session *)jni_jlong_to_ptr(handle));
+}
@@ -0,0 +1,433 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Display list cache.
+ *
+ * Each document keeps the display lists of recently used pages
+ * so that several page objects for the same page number share
+ * one list instead of interpreting the page again. A display
+ * list is never modified once built, so one list can be run by
+ * several threads at the same time.
+ *
+ * Entries are reference counted. The cache holds one reference
+ * and every page using the list holds one more. When the cache
+ * grows over its byte budget the least recently used entries
+ * that no page is using are dropped. Entries still in use are
+ * kept until their pages are freed.
+ *
+ * Sizes are estimates of the list structures only. Images and
+ * fonts referenced by a list live in the fitz store and are
+ * bounded by the document max store value.
+ *
+ * All cache operations are serialized with JNI_LOCK_INTERNAL.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+// Approximate size of one display list node
+#define JNI_LIST_NODE_SIZE 128
+
+/**
+ * Add node and path size
+ */
+static void jni_count_path(fz_device *dev, fz_path *path)
+{
+	*(int*)dev->user += JNI_LIST_NODE_SIZE + sizeof(fz_path) + path->len * sizeof(fz_path_item);
+}
+
+/**
+ * Add node and text size
+ */
+static void jni_count_text(fz_device *dev, fz_text *text)
+{
+	*(int*)dev->user += JNI_LIST_NODE_SIZE + sizeof(fz_text) + text->len * sizeof(fz_text_item);
+}
+
+/**
+ * Add node size
+ */
+static void jni_count_node(fz_device *dev)
+{
+	*(int*)dev->user += JNI_LIST_NODE_SIZE;
+}
+
+static void jni_count_fill_path(fz_device *dev, fz_path *path, int even_odd, fz_matrix ctm, fz_colorspace *cs, float *color, float alpha)
+{
+	jni_count_path(dev, path);
+}
+
+static void jni_count_stroke_path(fz_device *dev, fz_path *path, fz_stroke_state *stroke, fz_matrix ctm, fz_colorspace *cs, float *color, float alpha)
+{
+	jni_count_path(dev, path);
+}
+
+static void jni_count_clip_path(fz_device *dev, fz_path *path, fz_rect *rect, int even_odd, fz_matrix ctm)
+{
+	jni_count_path(dev, path);
+}
+
+static void jni_count_clip_stroke_path(fz_device *dev, fz_path *path, fz_rect *rect, fz_stroke_state *stroke, fz_matrix ctm)
+{
+	jni_count_path(dev, path);
+}
+
+static void jni_count_fill_text(fz_device *dev, fz_text *text, fz_matrix ctm, fz_colorspace *cs, float *color, float alpha)
+{
+	jni_count_text(dev, text);
+}
+
+static void jni_count_stroke_text(fz_device *dev, fz_text *text, fz_stroke_state *stroke, fz_matrix ctm, fz_colorspace *cs, float *color, float alpha)
+{
+	jni_count_text(dev, text);
+}
+
+static void jni_count_clip_text(fz_device *dev, fz_text *text, fz_matrix ctm, int accumulate)
+{
+	jni_count_text(dev, text);
+}
+
+static void jni_count_clip_stroke_text(fz_device *dev, fz_text *text, fz_stroke_state *stroke, fz_matrix ctm)
+{
+	jni_count_text(dev, text);
+}
+
+static void jni_count_ignore_text(fz_device *dev, fz_text *text, fz_matrix ctm)
+{
+	jni_count_text(dev, text);
+}
+
+static void jni_count_fill_shade(fz_device *dev, fz_shade *shade, fz_matrix ctm, float alpha)
+{
+	jni_count_node(dev);
+}
+
+static void jni_count_fill_image(fz_device *dev, fz_image *image, fz_matrix ctm, float alpha)
+{
+	jni_count_node(dev);
+}
+
+static void jni_count_fill_image_mask(fz_device *dev, fz_image *image, fz_matrix ctm, fz_colorspace *cs, float *color, float alpha)
+{
+	jni_count_node(dev);
+}
+
+static void jni_count_clip_image_mask(fz_device *dev, fz_image *image, fz_rect *rect, fz_matrix ctm)
+{
+	jni_count_node(dev);
+}
+
+static void jni_count_begin_mask(fz_device *dev, fz_rect rect, int luminosity, fz_colorspace *cs, float *bc)
+{
+	jni_count_node(dev);
+}
+
+static void jni_count_begin_group(fz_device *dev, fz_rect rect, int isolated, int knockout, int blendmode, float alpha)
+{
+	jni_count_node(dev);
+}
+
+static void jni_count_begin_tile(fz_device *dev, fz_rect area, fz_rect view, float xstep, float ystep, fz_matrix ctm)
+{
+	jni_count_node(dev);
+}
+
+/**
+ * Estimate memory used by a display list
+ */
+static int jni_list_size(fz_context *ctx, fz_display_list *list)
+{
+	int size = 0;
+	fz_device *dev = NULL;
+
+	fz_var(dev);
+
+	fz_try(ctx)
+	{
+		dev = fz_new_device(ctx, &size);
+		dev->fill_path = jni_count_fill_path;
+		dev->stroke_path = jni_count_stroke_path;
+		dev->clip_path = jni_count_clip_path;
+		dev->clip_stroke_path = jni_count_clip_stroke_path;
+		dev->fill_text = jni_count_fill_text;
+		dev->stroke_text = jni_count_stroke_text;
+		dev->clip_text = jni_count_clip_text;
+		dev->clip_stroke_text = jni_count_clip_stroke_text;
+		dev->ignore_text = jni_count_ignore_text;
+		dev->fill_shade = jni_count_fill_shade;
+		dev->fill_image = jni_count_fill_image;
+		dev->fill_image_mask = jni_count_fill_image_mask;
+		dev->clip_image_mask = jni_count_clip_image_mask;
+		dev->pop_clip = jni_count_node;
+		dev->begin_mask = jni_count_begin_mask;
+		dev->end_mask = jni_count_node;
+		dev->begin_group = jni_count_begin_group;
+		dev->end_group = jni_count_node;
+		dev->begin_tile = jni_count_begin_tile;
+		dev->end_tile = jni_count_node;
+		fz_run_display_list(list, dev, fz_identity, fz_infinite_bbox, NULL);
+	}
+	fz_always(ctx)
+	{
+		fz_free_device(dev);
+	}
+	fz_catch(ctx)
+	{
+		// Keep whatever was counted
+	}
+
+	return size + JNI_LIST_NODE_SIZE;
+}
+
+/**
+ * Unlink entry from LRU chain
+ */
+static void jni_unlink_list(jni_list_cache *cache, jni_list_entry *entry)
+{
+	if (entry->prev)
+		entry->prev->next = entry->next;
+	else
+		cache->head = entry->next;
+	if (entry->next)
+		entry->next->prev = entry->prev;
+	else
+		cache->tail = entry->prev;
+	entry->prev = NULL;
+	entry->next = NULL;
+}
+
+/**
+ * Link entry at head of LRU chain
+ */
+static void jni_link_list(jni_list_cache *cache, jni_list_entry *entry)
+{
+	entry->prev = NULL;
+	entry->next = cache->head;
+	if (cache->head)
+		cache->head->prev = entry;
+	else
+		cache->tail = entry;
+	cache->head = entry;
+}
+
+/**
+ * Remove unused entries from the tail until the cache fits its budget.
+ * Removed entries are chained through next and returned so they can
+ * be freed outside the lock.
+ */
+static jni_list_entry *jni_trim_list_cache(jni_list_cache *cache)
+{
+	jni_list_entry *entry = cache->tail;
+	jni_list_entry *prev;
+	jni_list_entry *evicted = NULL;
+
+	while (entry && cache->size > cache->max_size)
+	{
+		prev = entry->prev;
+		if (entry->refs == 1)
+		{
+			jni_unlink_list(cache, entry);
+			cache->size -= entry->size;
+			cache->count--;
+			cache->evictions++;
+			entry->next = evicted;
+			evicted = entry;
+		}
+		entry = prev;
+	}
+
+	return evicted;
+}
+
+/**
+ * Free a chain of entries
+ */
+static void jni_free_list_entries(fz_context *ctx, jni_list_entry *entry)
+{
+	jni_list_entry *next;
+	while (entry)
+	{
+		next = entry->next;
+		fz_free_display_list(ctx, entry->list);
+		fz_free(ctx, entry);
+		entry = next;
+	}
+}
+
+/**
+ * Create a new display list cache
+ */
+jni_list_cache *jni_new_list_cache(fz_context *ctx, int max_size)
+{
+	jni_list_cache *cache = fz_malloc_no_throw(ctx, sizeof(jni_list_cache));
+
+	if (!cache)
+	{
+		return NULL;
+	}
+
+	memset(cache, 0, sizeof(jni_list_cache));
+	cache->max_size = max_size;
+
+	return cache;
+}
+
+/**
+ * Free display list cache.
+ * All pages using the cache must have been freed.
+ */
+void jni_free_list_cache(fz_context *ctx, jni_list_cache *cache)
+{
+	if (!cache)
+	{
+		return;
+	}
+
+	jni_free_list_entries(ctx, cache->head);
+	fz_free(ctx, cache);
+}
+
+/**
+ * Change cache budget
+ */
+void jni_resize_list_cache(fz_context *ctx, jni_list_cache *cache, int max_size)
+{
+	jni_list_entry *evicted;
+
+	jni_lock(ctx);
+	cache->max_size = max_size;
+	evicted = jni_trim_list_cache(cache);
+	jni_unlock(ctx);
+
+	jni_free_list_entries(ctx, evicted);
+}
+
+/**
+ * Find a cached display list. On success a reference is added
+ * for the caller that must be released with jni_drop_list().
+ */
+jni_list_entry *jni_find_list(fz_context *ctx, jni_list_cache *cache, int pagen)
+{
+	jni_list_entry *entry;
+
+	jni_lock(ctx);
+
+	for (entry = cache->head; entry; entry = entry->next)
+	{
+		if (entry->pagen == pagen)
+		{
+			break;
+		}
+	}
+
+	if (entry)
+	{
+		entry->refs++;
+		jni_unlink_list(cache, entry);
+		jni_link_list(cache, entry);
+		cache->hits++;
+	}
+	else
+	{
+		cache->misses++;
+	}
+
+	jni_unlock(ctx);
+
+	return entry;
+}
+
+/**
+ * Add a display list to the cache. The cache takes ownership of
+ * the list. If the page is already cached the given list is freed
+ * and the cached one is used instead. A reference is added for the
+ * caller that must be released with jni_drop_list().
+ */
+jni_list_entry *jni_store_list(fz_context *ctx, jni_list_cache *cache, int pagen, fz_display_list *list)
+{
+	jni_list_entry *entry = NULL;
+	jni_list_entry *evicted = NULL;
+	int size = jni_list_size(ctx, list);
+
+	fz_try(ctx)
+	{
+		entry = fz_malloc_struct(ctx, jni_list_entry);
+	}
+	fz_catch(ctx)
+	{
+		fz_free_display_list(ctx, list);
+		fz_rethrow(ctx);
+	}
+
+	entry->pagen = pagen;
+	entry->list = list;
+	entry->size = size;
+	entry->refs = 2;
+
+	jni_lock(ctx);
+	{
+		jni_list_entry *found;
+		for (found = cache->head; found; found = found->next)
+		{
+			if (found->pagen == pagen)
+			{
+				break;
+			}
+		}
+		if (found)
+		{
+			found->refs++;
+			jni_unlink_list(cache, found);
+			jni_link_list(cache, found);
+			evicted = entry;
+			entry = found;
+		}
+		else
+		{
+			jni_link_list(cache, entry);
+			cache->size += entry->size;
+			cache->count++;
+			evicted = jni_trim_list_cache(cache);
+		}
+	}
+	jni_unlock(ctx);
+
+	if (evicted)
+	{
+		jni_free_list_entries(ctx, evicted);
+	}
+
+	return entry;
+}
+
+/**
+ * Release a reference obtained from jni_find_list() or jni_store_list()
+ */
+void jni_drop_list(fz_context *ctx, jni_list_cache *cache, jni_list_entry *entry)
+{
+	jni_list_entry *evicted;
+
+	if (!entry)
+	{
+		return;
+	}
+
+	jni_lock(ctx);
+	entry->refs--;
+	evicted = jni_trim_list_cache(cache);
+	jni_unlock(ctx);
+
+	jni_free_list_entries(ctx, evicted);
+}
+
+/**
+ * Copy cache statistics: hits, misses, evictions, entries, size, max size
+ */
+void jni_list_cache_stats(fz_context *ctx, jni_list_cache *cache, int *stats)
+{
+	jni_lock(ctx);
+	stats[0] = cache->hits;
+	stats[1] = cache->misses;
+	stats[2] = cache->evictions;
+	stats[3] = cache->count;
+	stats[4] = cache->size;
+	stats[5] = cache->max_size;
+	jni_unlock(ctx);
+}
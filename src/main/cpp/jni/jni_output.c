@@ -0,0 +1,320 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Encoded image output.
+ *
+ * Image writers hand their output to a jni_output as it is
+ * produced. An output writes to a file, grows a memory block
+ * that becomes a java byte array, or fills the direct buffer
+ * of a com.jmupdf.page.ImageChannel object and asks it to
+ * pass the buffer on to a java channel each time it is full.
+ * A channel output never holds more than one buffer of data.
+ *
+ * Write errors are remembered and later writes are dropped, so
+ * writers do not have to check every call. Channel outputs
+ * must be used on the thread that created them.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+struct jni_output_s
+{
+	fz_context *ctx;
+	FILE *fp;
+	JNIEnv *env;
+	jobject channel;
+	jmethodID write;
+	unsigned char *data;
+	int len;
+	int cap;
+	int err;
+};
+
+/**
+ * Create a file output
+ */
+jni_output *jni_new_file_output(fz_context *ctx, const char *filename)
+{
+	FILE *fp = fopen(filename, "wb");
+
+	if (!fp)
+	{
+		fz_throw(ctx, "cannot open file '%s': %s", filename, strerror(errno));
+	}
+
+	jni_output *out = fz_malloc_no_throw(ctx, sizeof(jni_output));
+
+	if (!out)
+	{
+		fclose(fp);
+		fz_throw(ctx, "cannot create output");
+	}
+
+	memset(out, 0, sizeof(jni_output));
+	out->ctx = ctx;
+	out->fp = fp;
+
+	return out;
+}
+
+/**
+ * Create a memory output
+ */
+jni_output *jni_new_memory_output(fz_context *ctx, int initial)
+{
+	jni_output *out = fz_malloc_no_throw(ctx, sizeof(jni_output));
+
+	if (!out)
+	{
+		fz_throw(ctx, "cannot create output");
+	}
+
+	memset(out, 0, sizeof(jni_output));
+	out->ctx = ctx;
+	out->cap = initial > 0 ? initial : 4096;
+	out->data = fz_malloc_no_throw(ctx, out->cap);
+
+	if (!out->data)
+	{
+		fz_free(ctx, out);
+		fz_throw(ctx, "cannot create output");
+	}
+
+	return out;
+}
+
+/**
+ * Create an output over an ImageChannel object
+ */
+jni_output *jni_new_channel_output(JNIEnv *env, fz_context *ctx, jobject channel)
+{
+	jclass cls = channel ? (*env)->GetObjectClass(env, channel) : NULL;
+
+	if (!cls)
+	{
+		fz_throw(ctx, "cannot open output channel");
+	}
+
+	jmethodID write = jni_get_output_write(cls);
+	jmethodID buffer = jni_get_output_buffer(cls);
+
+	jni_free_ref(cls);
+
+	if (!write || !buffer)
+	{
+		fz_throw(ctx, "cannot open output channel");
+	}
+
+	jobject buf = jni_output_buffer_call(channel, buffer);
+	unsigned char *data = buf ? (unsigned char *)jni_get_buffer_address(buf) : NULL;
+	jlong cap = buf ? jni_get_buffer_capacity(buf) : 0;
+
+	if (buf)
+	{
+		jni_free_ref(buf);
+	}
+
+	if (!data || cap <= 0 || cap > INT_MAX)
+	{
+		fz_throw(ctx, "cannot open output channel");
+	}
+
+	jni_output *out = fz_malloc_no_throw(ctx, sizeof(jni_output));
+
+	if (!out)
+	{
+		fz_throw(ctx, "cannot create output");
+	}
+
+	memset(out, 0, sizeof(jni_output));
+	out->ctx = ctx;
+	out->env = env;
+	out->channel = channel;
+	out->write = write;
+	out->data = data;
+	out->cap = (int)cap;
+
+	return out;
+}
+
+/**
+ * Pass buffered data of a channel output on to java
+ */
+static void jni_flush_channel(jni_output *out)
+{
+	JNIEnv *env = out->env;
+
+	if (out->len == 0 || out->err)
+	{
+		out->len = 0;
+		return;
+	}
+
+	jint rc = jni_output_write_call(out->channel, out->write, out->len);
+
+	if ((*env)->ExceptionCheck(env))
+	{
+		(*env)->ExceptionClear(env);
+		rc = -1;
+	}
+
+	if (rc != 0)
+	{
+		out->err = 1;
+	}
+
+	out->len = 0;
+}
+
+/**
+ * Write bytes to output
+ */
+void jni_output_write(jni_output *out, const void *data, int len)
+{
+	const unsigned char *p = (const unsigned char *)data;
+	int n;
+
+	if (out->err || len <= 0)
+	{
+		return;
+	}
+
+	if (out->fp)
+	{
+		if (fwrite(p, 1, len, out->fp) != (size_t)len)
+		{
+			out->err = 1;
+		}
+		return;
+	}
+
+	if (!out->channel && out->len + len > out->cap)
+	{
+		int cap = out->cap;
+		while (cap < out->len + len)
+		{
+			cap = cap < (INT_MAX / 2) ? cap * 2 : INT_MAX;
+		}
+		unsigned char *grown = fz_resize_array_no_throw(out->ctx, out->data, cap, 1);
+		if (!grown)
+		{
+			out->err = 1;
+			return;
+		}
+		out->data = grown;
+		out->cap = cap;
+	}
+
+	while (len > 0 && !out->err)
+	{
+		n = out->cap - out->len;
+		if (n > len)
+		{
+			n = len;
+		}
+		memcpy(out->data + out->len, p, n);
+		out->len += n;
+		p += n;
+		len -= n;
+		if (out->channel && out->len == out->cap)
+		{
+			jni_flush_channel(out);
+		}
+	}
+}
+
+/**
+ * Write a big endian 32 bit value
+ */
+void jni_output_write32(jni_output *out, unsigned int v)
+{
+	unsigned char buf[4];
+	buf[0] = (v >> 24) & 0xff;
+	buf[1] = (v >> 16) & 0xff;
+	buf[2] = (v >> 8) & 0xff;
+	buf[3] = (v) & 0xff;
+	jni_output_write(out, buf, 4);
+}
+
+/**
+ * Write formatted text
+ */
+void jni_output_printf(jni_output *out, const char *fmt, ...)
+{
+	char buf[256];
+	va_list args;
+	int n;
+
+	va_start(args, fmt);
+	n = vsnprintf(buf, sizeof(buf), fmt, args);
+	va_end(args);
+
+	if (n < 0 || n >= (int)sizeof(buf))
+	{
+		out->err = 1;
+		return;
+	}
+
+	jni_output_write(out, buf, n);
+}
+
+/**
+ * Determine if a write failed
+ */
+int jni_output_error(jni_output *out)
+{
+	return out->err;
+}
+
+/**
+ * Copy data of a memory output to a new java byte array
+ */
+jbyteArray jni_output_to_byte_array(JNIEnv *env, jni_output *out)
+{
+	if (out->err || out->fp || out->channel)
+	{
+		return NULL;
+	}
+
+	jbyteArray ba = jni_new_byte_array(out->len);
+
+	if (ba)
+	{
+		(*env)->SetByteArrayRegion(env, ba, 0, out->len, (jbyte *)out->data);
+	}
+
+	return ba;
+}
+
+/**
+ * Flush and free output. Returns 0 if all data was written.
+ */
+int jni_close_output(jni_output *out)
+{
+	if (!out)
+	{
+		return 0;
+	}
+
+	fz_context *ctx = out->ctx;
+	int err;
+
+	if (out->fp)
+	{
+		if (fclose(out->fp) != 0)
+		{
+			out->err = 1;
+		}
+	}
+	else if (out->channel)
+	{
+		jni_flush_channel(out);
+	}
+	else
+	{
+		fz_free(ctx, out->data);
+	}
+
+	err = out->err;
+	fz_free(ctx, out);
+
+	return err ? -1 : 0;
+}
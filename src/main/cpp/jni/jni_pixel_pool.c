@@ -0,0 +1,261 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Pixel buffer pool.
+ *
+ * Rendering the same kind of page over and over asks the
+ * allocator for the same large blocks each time: the pixmap
+ * samples and the packed pixels handed to java. Each document
+ * keeps released blocks in size class buckets and hands them
+ * out again instead of going back to the allocator.
+ *
+ * There are four size classes per power of two starting at
+ * JNI_PIXEL_POOL_MIN_BLOCK, so a block is never more than a
+ * quarter larger than requested. Every block starts with a
+ * small header holding its class, so a block can be given
+ * back knowing only its address.
+ *
+ * Idle blocks are bounded by a byte budget. A released block
+ * that does not fit the budget is freed. All pool operations
+ * are serialized with JNI_LOCK_INTERNAL.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+// Space reserved in front of each block. Keeps data 16 byte aligned.
+#define JNI_PIXEL_HEADER 16
+
+// Block header
+typedef struct jni_pixel_block_s jni_pixel_block;
+struct jni_pixel_block_s
+{
+	jni_pixel_block *next;
+	int cls;
+};
+
+/**
+ * Get size of a size class
+ */
+static unsigned int jni_pixel_class_size(int cls)
+{
+	unsigned int base = JNI_PIXEL_POOL_MIN_BLOCK << (cls / 4);
+	return base + (base / 4) * (cls % 4);
+}
+
+/**
+ * Get smallest size class that holds size bytes
+ */
+static int jni_pixel_class(unsigned int size)
+{
+	int cls;
+	for (cls = 0; cls < JNI_PIXEL_POOL_CLASSES; cls++)
+	{
+		if (jni_pixel_class_size(cls) >= size)
+		{
+			return cls;
+		}
+	}
+	return -1;
+}
+
+/**
+ * Get block header from data address
+ */
+static jni_pixel_block *jni_pixel_header(void *data)
+{
+	return (jni_pixel_block *)((unsigned char *)data - JNI_PIXEL_HEADER);
+}
+
+/**
+ * Get data address from block header
+ */
+static void *jni_pixel_data(jni_pixel_block *block)
+{
+	return (unsigned char *)block + JNI_PIXEL_HEADER;
+}
+
+/**
+ * Create a new pixel buffer pool
+ */
+jni_pixel_pool *jni_new_pixel_pool(fz_context *ctx, int max_size)
+{
+	jni_pixel_pool *pool = fz_malloc_no_throw(ctx, sizeof(jni_pixel_pool));
+
+	if (!pool)
+	{
+		return NULL;
+	}
+
+	memset(pool, 0, sizeof(jni_pixel_pool));
+	pool->max_size = max_size;
+
+	return pool;
+}
+
+/**
+ * Free all idle blocks of a pool. Caller holds the lock.
+ * Removed blocks are chained through next and returned so they
+ * can be freed outside the lock.
+ */
+static jni_pixel_block *jni_take_pixel_blocks(jni_pixel_pool *pool)
+{
+	jni_pixel_block *taken = NULL;
+	jni_pixel_block *block;
+	int cls;
+
+	for (cls = 0; cls < JNI_PIXEL_POOL_CLASSES; cls++)
+	{
+		while ((block = pool->free[cls]) != NULL)
+		{
+			pool->free[cls] = block->next;
+			block->next = taken;
+			taken = block;
+		}
+	}
+
+	pool->size = 0;
+	pool->count = 0;
+
+	return taken;
+}
+
+/**
+ * Free a chain of blocks
+ */
+static void jni_free_pixel_blocks(fz_context *ctx, jni_pixel_block *block)
+{
+	jni_pixel_block *next;
+	while (block)
+	{
+		next = block->next;
+		fz_free(ctx, block);
+		block = next;
+	}
+}
+
+/**
+ * Free pixel buffer pool.
+ * All blocks handed out must have been given back.
+ */
+void jni_free_pixel_pool(fz_context *ctx, jni_pixel_pool *pool)
+{
+	if (!pool)
+	{
+		return;
+	}
+
+	jni_free_pixel_blocks(ctx, jni_take_pixel_blocks(pool));
+	fz_free(ctx, pool);
+}
+
+/**
+ * Change pool budget. Idle blocks are dropped when the budget shrinks.
+ */
+void jni_resize_pixel_pool(fz_context *ctx, jni_pixel_pool *pool, int max_size)
+{
+	jni_pixel_block *taken = NULL;
+
+	jni_lock(ctx);
+	if (max_size < pool->size)
+	{
+		taken = jni_take_pixel_blocks(pool);
+	}
+	pool->max_size = max_size;
+	jni_unlock(ctx);
+
+	jni_free_pixel_blocks(ctx, taken);
+}
+
+/**
+ * Get a block of at least size bytes. Returns NULL when out of memory.
+ * The block must be given back with jni_pixel_free().
+ */
+void *jni_pixel_alloc(fz_context *ctx, jni_pixel_pool *pool, unsigned int size)
+{
+	jni_pixel_block *block = NULL;
+	int cls = jni_pixel_class(size);
+
+	if (cls < 0)
+	{
+		return NULL;
+	}
+
+	jni_lock(ctx);
+	block = pool->free[cls];
+	if (block)
+	{
+		pool->free[cls] = block->next;
+		pool->size -= jni_pixel_class_size(cls);
+		pool->count--;
+		pool->hits++;
+	}
+	else
+	{
+		pool->misses++;
+	}
+	jni_unlock(ctx);
+
+	if (!block)
+	{
+		block = fz_malloc_no_throw(ctx, jni_pixel_class_size(cls) + JNI_PIXEL_HEADER);
+		if (!block)
+		{
+			return NULL;
+		}
+		block->cls = cls;
+	}
+
+	block->next = NULL;
+
+	return jni_pixel_data(block);
+}
+
+/**
+ * Give back a block obtained from jni_pixel_alloc()
+ */
+void jni_pixel_free(fz_context *ctx, jni_pixel_pool *pool, void *data)
+{
+	jni_pixel_block *block;
+	unsigned int size;
+
+	if (!data)
+	{
+		return;
+	}
+
+	block = jni_pixel_header(data);
+	size = jni_pixel_class_size(block->cls);
+
+	jni_lock(ctx);
+	if (pool->size + size <= (unsigned int)pool->max_size)
+	{
+		block->next = pool->free[block->cls];
+		pool->free[block->cls] = block;
+		pool->size += size;
+		pool->count++;
+		block = NULL;
+	}
+	else
+	{
+		pool->discards++;
+	}
+	jni_unlock(ctx);
+
+	if (block)
+	{
+		fz_free(ctx, block);
+	}
+}
+
+/**
+ * Copy pool statistics: hits, misses, discards, idle blocks, idle size, max size
+ */
+void jni_pixel_pool_stats(fz_context *ctx, jni_pixel_pool *pool, int *stats)
+{
+	jni_lock(ctx);
+	stats[0] = pool->hits;
+	stats[1] = pool->misses;
+	stats[2] = pool->discards;
+	stats[3] = pool->count;
+	stats[4] = pool->size;
+	stats[5] = pool->max_size;
+	jni_unlock(ctx);
+}
@@ -0,0 +1,200 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Java channel streams.
+ *
+ * The stream buffer of the fz_stream is the direct read ahead
+ * buffer owned by a com.jmupdf.document.DocumentChannel object.
+ * When fitz runs out of buffered data the read call back asks
+ * the Java object to fill the buffer from the current stream
+ * position. Reads of at least a buffer full go to the caller's
+ * memory instead; those are filled one buffer at a time and
+ * copied. Seeks that land inside the buffered window are
+ * resolved by fz_seek() without calling back into Java.
+ *
+ * The stream holds a global reference to the Java object that
+ * is released when the document is closed.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+typedef struct jni_channel_s jni_channel;
+struct jni_channel_s
+{
+	JavaVM *vm;
+	jobject channel;
+	jmethodID read;
+	unsigned char *data;
+	int len;
+	int size;
+};
+
+/**
+ * Get JNI environment of current thread
+ */
+static JNIEnv *jni_channel_env(jni_channel *state)
+{
+	JNIEnv *env = NULL;
+	if ((*state->vm)->GetEnv(state->vm, (void **)&env, JNI_VERSION_1_4) != JNI_OK)
+	{
+		return NULL;
+	}
+	return env;
+}
+
+/**
+ * Fill read ahead buffer starting at position
+ */
+static int jni_fill_channel(fz_stream *stm, JNIEnv *env, int pos)
+{
+	jni_channel *state = (jni_channel *)stm->state;
+	jint n = jni_channel_read_call(state->channel, state->read, (jlong)pos);
+
+	if ((*env)->ExceptionCheck(env))
+	{
+		(*env)->ExceptionClear(env);
+		n = -1;
+	}
+
+	if (n < 0 || n > state->len)
+	{
+		fz_throw(stm->ctx, "read error: channel could not be read");
+	}
+
+	return n;
+}
+
+/**
+ * Read from current stream position into the read ahead buffer, or
+ * into a caller buffer until it is full or the channel ends
+ */
+static int jni_read_channel(fz_stream *stm, unsigned char *buf, int len)
+{
+	jni_channel *state = (jni_channel *)stm->state;
+	JNIEnv *env = jni_channel_env(state);
+	int count = 0;
+	int n;
+
+	if (!env)
+	{
+		fz_throw(stm->ctx, "read error: thread not attached to jvm");
+	}
+
+	if (buf == state->data)
+	{
+		return fz_mini(jni_fill_channel(stm, env, stm->pos), len);
+	}
+
+	do
+	{
+		n = fz_mini(jni_fill_channel(stm, env, stm->pos + count), len - count);
+		memcpy(buf + count, state->data, n);
+		count += n;
+	}
+	while (n > 0 && count < len);
+
+	return count;
+}
+
+/**
+ * Seek to a new position. Buffer contents are discarded.
+ */
+static void jni_seek_channel(fz_stream *stm, int offset, int whence)
+{
+	jni_channel *state = (jni_channel *)stm->state;
+	int pos = offset;
+
+	if (whence == 1)
+		pos = stm->pos + offset;
+	if (whence == 2)
+		pos = state->size + offset;
+
+	stm->pos = fz_clampi(pos, 0, state->size);
+	stm->rp = stm->bp;
+	stm->wp = stm->bp;
+}
+
+/**
+ * Release channel reference
+ */
+static void jni_close_channel(fz_context *ctx, void *data)
+{
+	jni_channel *state = (jni_channel *)data;
+
+	if (!state)
+	{
+		return;
+	}
+
+	JNIEnv *env = jni_channel_env(state);
+
+	if (env && state->channel)
+	{
+		(*env)->DeleteGlobalRef(env, state->channel);
+	}
+
+	fz_free(ctx, state);
+}
+
+/**
+ * Open a DocumentChannel object as a stream
+ */
+fz_stream *jni_open_channel(JNIEnv *env, fz_context *ctx, jobject channel)
+{
+	fz_stream *stm;
+	jni_channel *state;
+	jclass cls = (*env)->GetObjectClass(env, channel);
+
+	if (!cls)
+	{
+		fz_throw(ctx, "cannot open channel");
+	}
+
+	jmethodID read = jni_get_channel_read(cls);
+	jmethodID size = jni_get_channel_size(cls);
+	jmethodID buffer = jni_get_channel_buffer(cls);
+
+	jni_free_ref(cls);
+
+	if (!read || !size || !buffer)
+	{
+		fz_throw(ctx, "cannot open channel");
+	}
+
+	jobject buf = jni_channel_buffer_call(channel, buffer);
+	unsigned char *data = buf ? (unsigned char *)jni_get_buffer_address(buf) : NULL;
+	jlong len = buf ? jni_get_buffer_capacity(buf) : 0;
+	jlong total = jni_channel_size_call(channel, size);
+
+	if (buf)
+	{
+		jni_free_ref(buf);
+	}
+
+	if (!data || len <= 0 || len > INT_MAX || total < 0 || total > INT_MAX)
+	{
+		fz_throw(ctx, "cannot open channel");
+	}
+
+	state = fz_malloc_struct(ctx, jni_channel);
+	state->read = read;
+	state->data = data;
+	state->len = (int)len;
+	state->size = (int)total;
+	state->channel = (*env)->NewGlobalRef(env, channel);
+
+	if (!state->channel || (*env)->GetJavaVM(env, &state->vm) != 0)
+	{
+		jni_close_channel(ctx, state);
+		fz_throw(ctx, "cannot open channel");
+	}
+
+	/* fz_new_stream() releases the channel if it fails */
+	stm = fz_new_stream(ctx, state, jni_read_channel, jni_close_channel);
+	stm->seek = jni_seek_channel;
+
+	stm->bp = data;
+	stm->rp = data;
+	stm->wp = data;
+	stm->ep = data + state->len;
+
+	return stm;
+}
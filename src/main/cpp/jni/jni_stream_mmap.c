@@ -0,0 +1,181 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Memory mapped file streams.
+ *
+ * The whole file is mapped read only and handed to fitz as
+ * one stream buffer. Reads and seeks never leave the mapped
+ * region so random object access is served from the page
+ * cache instead of read()/lseek() system calls.
+ *
+ * The mapping belongs to the stream and is released when the
+ * last stream reference is closed, i.e. when the document
+ * is closed.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+#ifdef __WIN32__
+#include <windows.h>
+#else
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <unistd.h>
+#endif
+
+typedef struct jni_mmap_s jni_mmap;
+struct jni_mmap_s
+{
+	unsigned char *data;
+	size_t len;
+#ifdef __WIN32__
+	HANDLE file;
+	HANDLE map;
+#endif
+};
+
+/**
+ * Everything is already in the buffer
+ */
+static int jni_read_mmap(fz_stream *stm, unsigned char *buf, int len)
+{
+	return 0;
+}
+
+/**
+ * Seek within mapped region
+ */
+static void jni_seek_mmap(fz_stream *stm, int offset, int whence)
+{
+	if (whence == 0)
+		stm->rp = stm->bp + offset;
+	if (whence == 1)
+		stm->rp += offset;
+	if (whence == 2)
+		stm->rp = stm->ep - offset;
+	stm->rp = fz_clampp(stm->rp, stm->bp, stm->ep);
+	stm->wp = stm->ep;
+}
+
+/**
+ * Release mapping
+ */
+static void jni_close_mmap(fz_context *ctx, void *state)
+{
+	jni_mmap *map = (jni_mmap *)state;
+
+	if (!map)
+	{
+		return;
+	}
+
+#ifdef __WIN32__
+	if (map->data)
+		UnmapViewOfFile(map->data);
+	if (map->map)
+		CloseHandle(map->map);
+	if (map->file != INVALID_HANDLE_VALUE)
+		CloseHandle(map->file);
+#else
+	if (map->data)
+		munmap(map->data, map->len);
+#endif
+
+	fz_free(ctx, map);
+}
+
+/**
+ * Map file into memory
+ */
+static int jni_map_file(fz_context *ctx, jni_mmap *map, const char *file)
+{
+#ifdef __WIN32__
+	char *s = (char*)file;
+	wchar_t *wname, *d;
+	int c;
+	LARGE_INTEGER size;
+
+	d = wname = fz_malloc(ctx, (strlen(file)+1) * sizeof(wchar_t));
+	while (*s) {
+		s += fz_chartorune(&c, s);
+		*d++ = c;
+	}
+	*d = 0;
+
+	map->file = CreateFileW(wname, GENERIC_READ, FILE_SHARE_READ, NULL, OPEN_EXISTING, FILE_FLAG_RANDOM_ACCESS, NULL);
+	fz_free(ctx, wname);
+
+	if (map->file == INVALID_HANDLE_VALUE)
+		return -1;
+
+	if (!GetFileSizeEx(map->file, &size) || size.QuadPart <= 0 || size.QuadPart > INT_MAX)
+		return -2;
+
+	map->len = (size_t)size.QuadPart;
+	map->map = CreateFileMapping(map->file, NULL, PAGE_READONLY, 0, 0, NULL);
+
+	if (!map->map)
+		return -3;
+
+	map->data = MapViewOfFile(map->map, FILE_MAP_READ, 0, 0, 0);
+
+	if (!map->data)
+		return -3;
+#else
+	struct stat st;
+	int fd = open(file, O_RDONLY);
+
+	if (fd == -1)
+		return -1;
+
+	if (fstat(fd, &st) != 0 || st.st_size <= 0 || st.st_size > INT_MAX)
+	{
+		close(fd);
+		return -2;
+	}
+
+	map->len = (size_t)st.st_size;
+	map->data = mmap(NULL, map->len, PROT_READ, MAP_SHARED, fd, 0);
+
+	/* The mapping stays valid after the descriptor is closed */
+	close(fd);
+
+	if (map->data == MAP_FAILED)
+	{
+		map->data = NULL;
+		return -3;
+	}
+#endif
+	return 0;
+}
+
+/**
+ * Open a memory mapped file as a stream
+ */
+fz_stream *jni_open_mmap(fz_context *ctx, const char *file)
+{
+	fz_stream *stm;
+	jni_mmap *map = fz_malloc_struct(ctx, jni_mmap);
+
+#ifdef __WIN32__
+	map->file = INVALID_HANDLE_VALUE;
+#endif
+
+	if (jni_map_file(ctx, map, file) != 0)
+	{
+		jni_close_mmap(ctx, map);
+		fz_throw(ctx, "cannot map file %s", file);
+	}
+
+	/* fz_new_stream() releases the mapping if it fails */
+	stm = fz_new_stream(ctx, map, jni_read_mmap, jni_close_mmap);
+	stm->seek = jni_seek_mmap;
+
+	stm->bp = map->data;
+	stm->rp = map->data;
+	stm->wp = map->data + map->len;
+	stm->ep = map->data + map->len;
+
+	stm->pos = (int)map->len;
+
+	return stm;
+}
@@ -1,6 +1,98 @@
 #include "includes/jmupdf.h"
 #include "bmpfile.h"
 
+/**
+ * Store a little endian value
+ */
+static void bmp_put(unsigned char *p, unsigned int v, int len)
+{
+	while (len-- > 0)
+	{
+		*p++ = v & 0xff;
+		v >>= 8;
+	}
+}
+
+/**
+ * Write a 1 bit BMP file. Pixels are packed 8 to a byte with 1 for
+ * black and the rows are written as they are, bottom up, so the
+ * palette holds white first.
+ */
+static int bmp_write_binary(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int dither)
+{
+	size_t stride = (pix->w + 7) >> 3;
+	size_t bstride = ((pix->w + 31) >> 5) << 2;
+	unsigned char header[62];
+	unsigned char pad[4] = {0, 0, 0, 0};
+	unsigned int dpm = (unsigned int)((unsigned int)jni_resolution(zoom) * 39.37007874015748);
+	unsigned char *bits;
+	jni_output *out = NULL;
+	int rc = 0;
+	int y;
+
+	if ((jlong)bstride * pix->h + sizeof(header) > UINT_MAX || (jlong)stride * pix->h > UINT_MAX)
+	{
+		return -1;
+	}
+
+	bits = fz_malloc_no_throw(ctx, stride * pix->h);
+
+	if (!bits)
+	{
+		return -1;
+	}
+
+	if (jni_pix_to_binary(ctx, pix, dither, bits) != 0)
+	{
+		fz_free(ctx, bits);
+		return -1;
+	}
+
+	memset(header, 0, sizeof(header));
+	header[0] = 'B';
+	header[1] = 'M';
+	bmp_put(header + 2, sizeof(header) + bstride * pix->h, 4);
+	bmp_put(header + 10, sizeof(header), 4);
+	bmp_put(header + 14, 40, 4);
+	bmp_put(header + 18, pix->w, 4);
+	bmp_put(header + 22, pix->h, 4);
+	bmp_put(header + 26, 1, 2);
+	bmp_put(header + 28, 1, 2);
+	bmp_put(header + 34, bstride * pix->h, 4);
+	bmp_put(header + 38, dpm, 4);
+	bmp_put(header + 42, dpm, 4);
+	bmp_put(header + 46, 2, 4);
+	bmp_put(header + 54, 0xffffff, 4);
+
+	fz_var(out);
+
+	fz_try(ctx)
+	{
+		out = jni_new_file_output(ctx, file);
+		jni_output_write(out, header, sizeof(header));
+		for (y = pix->h - 1; y >= 0; y--)
+		{
+			jni_output_write(out, bits + y * stride, stride);
+			jni_output_write(out, pad, bstride - stride);
+		}
+	}
+	fz_always(ctx)
+	{
+		fz_free(ctx, bits);
+	}
+	fz_catch(ctx)
+	{
+		rc = -1;
+	}
+
+	if (jni_close_output(out) != 0)
+	{
+		rc = -1;
+	}
+
+	return rc;
+}
+
 int jni_write_bmp(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int color)
 {
 	bmpfile_t *bmp;
@@ -10,6 +102,11 @@ int jni_write_bmp(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom,
 	unsigned char *pixels = pix->samples;
 	int rc = 0;
 
+	if (color == COLOR_BLACK_WHITE || color == COLOR_BLACK_WHITE_DITHER)
+	{
+		return bmp_write_binary(ctx, pix, file, zoom, color == COLOR_BLACK_WHITE_DITHER);
+	}
+
 	if (color == COLOR_RGB)
 	{
 		depth = 24;
@@ -65,33 +162,6 @@ int jni_write_bmp(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom,
 		}
 	}
 
-	else if (color == COLOR_BLACK_WHITE || color == COLOR_BLACK_WHITE_DITHER)
-	{
-		unsigned char *trgbuf = (unsigned char*)fz_malloc_no_throw(ctx, pix->w*pix->h);
-		if (trgbuf)
-		{
-			unsigned char *ptrbuf = trgbuf;
-			int dither = (color == COLOR_BLACK_WHITE_DITHER);
-			rc = jni_pix_to_black_white(ctx, pix, dither, ptrbuf);
-			if (rc == 0)
-			{
-				ptrbuf = trgbuf;
-				for (i=0; i<pix->h; i++)
-				{
-					for (j=0; j<pix->w; j++)
-					{
-						pixel.red = ptrbuf[0];
-						pixel.green = ptrbuf[0];
-						pixel.blue = ptrbuf[0];
-						bmp_set_pixel(bmp, j, i, pixel);
-						ptrbuf++;
-					}
-				}
-			}
-			fz_free(ctx, trgbuf);
-		}
-	}
-
 	/* control access here */
 	fz_lock(ctx, FZ_LOCK_ALLOC);
 	bmp_save(bmp, file);
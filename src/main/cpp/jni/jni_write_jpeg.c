@@ -1,166 +1,256 @@
 #include "includes/jmupdf.h"
 #include "jpeglib.h"
+#include <setjmp.h>
+
+// Size of the block handed to the output at a time
+#define JNI_JPEG_BLOCK 16384
 
 /**
- *
- * Create a JPEG image format and save to file or byte buffer
- *
- * When *env is passed in we are assuming creation of a byte buffer.
- *
- * To improve performance I am using GetPrimitiveArrayCritical(). Later on we could change this to a
- * ByteBuffer and avoid getting in the way of the GC due to array pinning.
- *
+ * Destination manager writing to a jni_output
  */
-void * jni_write_jpg(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int color, int quality)
+typedef struct jni_jpeg_dest_s jni_jpeg_dest;
+struct jni_jpeg_dest_s
 {
+	struct jpeg_destination_mgr pub;
+	jni_output *out;
+	JOCTET buffer[JNI_JPEG_BLOCK];
+};
+
+/**
+ * Error manager returning to the writer instead of exiting
+ */
+typedef struct jni_jpeg_error_s jni_jpeg_error;
+struct jni_jpeg_error_s
+{
+	struct jpeg_error_mgr pub;
+	jmp_buf jump;
+};
+
+static void jni_jpeg_error_exit(j_common_ptr cinfo)
+{
+	jni_jpeg_error *err = (jni_jpeg_error *)cinfo->err;
+	longjmp(err->jump, 1);
+}
+
+static void jni_jpeg_init_destination(j_compress_ptr cinfo)
+{
+	jni_jpeg_dest *dest = (jni_jpeg_dest *)cinfo->dest;
+	dest->pub.next_output_byte = dest->buffer;
+	dest->pub.free_in_buffer = JNI_JPEG_BLOCK;
+}
+
+static boolean jni_jpeg_empty_output_buffer(j_compress_ptr cinfo)
+{
+	jni_jpeg_dest *dest = (jni_jpeg_dest *)cinfo->dest;
+	jni_output_write(dest->out, dest->buffer, JNI_JPEG_BLOCK);
+	dest->pub.next_output_byte = dest->buffer;
+	dest->pub.free_in_buffer = JNI_JPEG_BLOCK;
+	return TRUE;
+}
+
+static void jni_jpeg_term_destination(j_compress_ptr cinfo)
+{
+	jni_jpeg_dest *dest = (jni_jpeg_dest *)cinfo->dest;
+	jni_output_write(dest->out, dest->buffer, JNI_JPEG_BLOCK - dest->pub.free_in_buffer);
+}
+
+/**
+ * JPEG band writer. Scanlines are compressed as bands arrive.
+ */
+typedef struct jni_jpg_writer_s jni_jpg_writer;
+struct jni_jpg_writer_s
+{
+	jni_band_writer super;
 	struct jpeg_compress_struct cinfo;
-	struct jpeg_error_mgr jerr;
+	jni_jpeg_error jerr;
+	jni_jpeg_dest dest;
+	int init;
+	int color;
+	JSAMPLE *row;
+};
 
-	FILE *fp = NULL;
-	unsigned char *outbuffer = NULL;
-	long unsigned int outlen = 4096;
+/**
+ * Remove alpha from pixels and compress one row at a time
+ */
+static void jpg_write_band(fz_context *ctx, jni_band_writer *super, fz_pixmap *band)
+{
+	jni_jpg_writer *wri = (jni_jpg_writer*)super;
+	JSAMPROW row_pointer[1];
+	int x, y;
 
-	JSAMPLE *trgbuf = NULL;
-	int stride = pix->w * (pix->n - 1);
-	int size = pix->w * pix->h;
-	int i = 0;
+	if (band->w != (int)wri->cinfo.image_width || wri->cinfo.next_scanline + band->h > wri->cinfo.image_height)
+		fz_throw(ctx, "band does not fit jpeg image");
 
-	/*
-	 * Step 1: allocate and initialize JPEG compression object
-	 */
-	cinfo.err = jpeg_std_error(&jerr);
-	jpeg_create_compress(&cinfo);
+	if (setjmp(wri->jerr.jump))
+		fz_throw(ctx, "cannot compress jpeg image");
 
-	/*
-	 * Step 2: specify data destination
-	 */
-	if (env)
+	row_pointer[0] = wri->row;
+	for (y = 0; y < band->h; y++)
 	{
-		outbuffer = malloc(outlen);
-		if (!outbuffer)
-			goto cleanup;
-		jpeg_mem_dest(&cinfo, &outbuffer, &outlen);
+		JSAMPLE *pixels = band->samples + (size_t)y * band->w * band->n;
+		JSAMPLE *ptrbuf = wri->row;
+
+		if (wri->color == COLOR_GRAY_SCALE)
+		{
+			for (x = 0; x < band->w; x++)
+			{
+				*ptrbuf++ = pixels[0];
+				pixels += band->n;
+			}
+		}
+		else
+		{
+			for (x = 0; x < band->w; x++)
+			{
+				*ptrbuf++ = pixels[0];
+				*ptrbuf++ = pixels[1];
+				*ptrbuf++ = pixels[2];
+				pixels += band->n;
+			}
+		}
+
+		jpeg_write_scanlines(&wri->cinfo, row_pointer, 1);
 	}
-	else
+}
+
+static void jpg_close(fz_context *ctx, jni_band_writer *super)
+{
+	jni_jpg_writer *wri = (jni_jpg_writer*)super;
+
+	if (wri->cinfo.next_scanline != wri->cinfo.image_height)
+		fz_throw(ctx, "jpeg image is missing rows");
+
+	if (setjmp(wri->jerr.jump))
+		fz_throw(ctx, "cannot compress jpeg image");
+
+	jpeg_finish_compress(&wri->cinfo);
+
+	if (jni_output_error(wri->dest.out))
+		fz_throw(ctx, "cannot write jpeg image");
+}
+
+static void jpg_drop(fz_context *ctx, jni_band_writer *super)
+{
+	jni_jpg_writer *wri = (jni_jpg_writer*)super;
+
+	if (!wri)
+		return;
+
+	if (wri->init)
+		jpeg_destroy_compress(&wri->cinfo);
+
+	fz_free(ctx, wri->row);
+	fz_free(ctx, wri);
+}
+
+/**
+ *
+ * Create a JPEG band writer for a w x h image with n components per pixel
+ *
+ * Compressed data goes to the output in small blocks.
+ *
+ */
+jni_band_writer *jni_new_jpg_writer(fz_context *ctx, jni_output *out, int w, int h, int n, float zoom, int color, int quality)
+{
+	jni_jpg_writer *wri;
+	int components = n - 1;
+
+	if (n != 2 && n != 4)
+		fz_throw(ctx, "pixmap must be grayscale or rgb to write as jpeg");
+
+	wri = fz_malloc_no_throw(ctx, sizeof(jni_jpg_writer));
+
+	if (!wri)
+		fz_throw(ctx, "Could not allocate memory");
+
+	memset(wri, 0, sizeof(jni_jpg_writer));
+	wri->super.write_band = jpg_write_band;
+	wri->super.close = jpg_close;
+	wri->super.drop = jpg_drop;
+	wri->color = color;
+	wri->row = fz_malloc_no_throw(ctx, (size_t)w * components);
+
+	if (!wri->row)
 	{
-		fp = fopen(file, "wb");
-		if (!fp)
-			goto cleanup;
-		jpeg_stdio_dest(&cinfo, fp);
+		jpg_drop(ctx, &wri->super);
+		fz_throw(ctx, "Could not allocate memory");
 	}
 
 	/*
-	 * Step 3: set parameters for compression
+	 * Step 1: allocate and initialize JPEG compression object
 	 */
-	cinfo.image_width = pix->w;
-	cinfo.image_height = pix->h;
-	cinfo.input_components = pix->n - 1;
+	wri->cinfo.err = jpeg_std_error(&wri->jerr.pub);
+	wri->jerr.pub.error_exit = jni_jpeg_error_exit;
 
-	if (color == COLOR_GRAY_SCALE)
-	{
-		cinfo.in_color_space = JCS_GRAYSCALE;
-	}
-	else
+	if (setjmp(wri->jerr.jump))
 	{
-		cinfo.in_color_space = JCS_RGB;
+		jpg_drop(ctx, &wri->super);
+		fz_throw(ctx, "cannot compress jpeg image");
 	}
 
-	jpeg_set_defaults(&cinfo);
-	jpeg_set_quality(&cinfo, quality, TRUE);
-
-	cinfo.X_density = jni_resolution(zoom);
-	cinfo.Y_density = jni_resolution(zoom);;
-	cinfo.density_unit = 1;
+	jpeg_create_compress(&wri->cinfo);
+	wri->init = 1;
 
 	/*
-	 * Step 4: Compression initialization
+	 * Step 2: specify data destination
 	 */
-	jpeg_start_compress(&cinfo, TRUE);
+	wri->dest.out = out;
+	wri->dest.pub.init_destination = jni_jpeg_init_destination;
+	wri->dest.pub.empty_output_buffer = jni_jpeg_empty_output_buffer;
+	wri->dest.pub.term_destination = jni_jpeg_term_destination;
+	wri->cinfo.dest = &wri->dest.pub;
 
 	/*
-	 * Step 5: Remove alpha from original pixels
+	 * Step 3: set parameters for compression
 	 */
-	trgbuf = (JSAMPLE*)fz_malloc_no_throw(ctx, pix->h*stride);
-
-	if (!trgbuf)
-	{
-		goto cleanup;
-	}
-
-	JSAMPLE * ptrbuf = trgbuf;
-	JSAMPLE * pixels = pix->samples;
+	wri->cinfo.image_width = w;
+	wri->cinfo.image_height = h;
+	wri->cinfo.input_components = components;
 
 	if (color == COLOR_GRAY_SCALE)
 	{
-		for (i=0; i<size; i++)
-		{
-			*ptrbuf++ = pixels[0];
-			pixels += pix->n;
-		}
+		wri->cinfo.in_color_space = JCS_GRAYSCALE;
 	}
 	else
 	{
-		for (i=0; i<size; i++)
-		{
-			*ptrbuf++ = pixels[0];
-			*ptrbuf++ = pixels[1];
-			*ptrbuf++ = pixels[2];
-			pixels += pix->n;
-		}
+		wri->cinfo.in_color_space = JCS_RGB;
 	}
 
-	/*
-	 * Step 6: while (scan lines remain to be written)
-	 */
-	JSAMPROW row_pointer[1];
-	while (cinfo.next_scanline < cinfo.image_height)
-	{
-		row_pointer[0] = &trgbuf[cinfo.next_scanline * stride];
-		jpeg_write_scanlines(&cinfo, row_pointer, 1);
-	}
+	jpeg_set_defaults(&wri->cinfo);
+	jpeg_set_quality(&wri->cinfo, quality, TRUE);
 
-cleanup:
+	wri->cinfo.X_density = jni_resolution(zoom);
+	wri->cinfo.Y_density = jni_resolution(zoom);
+	wri->cinfo.density_unit = 1;
 
 	/*
-	 * Step 7: Finish compression
+	 * Step 4: Compression initialization
 	 */
-	jpeg_finish_compress(&cinfo);
+	jpeg_start_compress(&wri->cinfo, TRUE);
 
-	jbyteArray ba = NULL;
+	return &wri->super;
+}
+
+/**
+ *
+ * Create a JPEG image format and write it to an output
+ *
+ */
+void jni_write_jpg(fz_context *ctx, fz_pixmap *pix, jni_output *out, float zoom, int color, int quality)
+{
+	jni_band_writer *wri = jni_new_jpg_writer(ctx, out, pix->w, pix->h, pix->n, zoom, color, quality);
 
-	if (env)
+	fz_try(ctx)
 	{
-		ba = jni_new_byte_array(outlen);
-		if (ba)
-		{
-			jbyte *pa = jni_start_array_critical(ba);
-			if (pa)
-			{
-				JOCTET *pbuf = outbuffer;
-				for (i=0; i<outlen; i++)
-					*pa++ = (jbyte)*pbuf++;
-				jni_end_array_critical(ba, pa);
-			}
-		}
-		free(outbuffer);
+		wri->write_band(ctx, wri, pix);
+		wri->close(ctx, wri);
 	}
-	else
+	fz_always(ctx)
 	{
-		if (fp)
-			fclose(fp);
+		wri->drop(ctx, wri);
 	}
-
-	/*
-	 * Step 8: release JPEG compression object
-	 */
-	jpeg_destroy_compress(&cinfo);
-
-	if (trgbuf)
-		fz_free(ctx, trgbuf);
-
-	if (env)
+	fz_catch(ctx)
 	{
-		return ba;
+		fz_rethrow(ctx);
 	}
-	return NULL;
 }
@@ -20,195 +20,457 @@ static inline void big32(unsigned char *buf, unsigned int v)
 	buf[3] = (v) & 0xff;
 }
 
-static inline void put32(unsigned int v, FILE *fp)
-{
-	putc(v >> 24, fp);
-	putc(v >> 16, fp);
-	putc(v >> 8, fp);
-	putc(v, fp);
-}
-
-static void putchunk(char *tag, unsigned char *data, int size, FILE *fp)
+static void putchunk(char *tag, unsigned char *data, int size, jni_output *out)
 {
 	unsigned int sum;
-	put32(size, fp);
-	fwrite(tag, 1, 4, fp);
-	fwrite(data, 1, size, fp);
+	jni_output_write32(out, size);
+	jni_output_write(out, tag, 4);
+	jni_output_write(out, data, size);
 	sum = crc32(0, NULL, 0);
 	sum = crc32(sum, (unsigned char*)tag, 4);
-	sum = crc32(sum, data, size);
-	put32(sum, fp);
+	if (size > 0)
+		sum = crc32(sum, data, size);
+	jni_output_write32(out, sum);
 }
 
-static int chunksize(int rawsize)
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Image data.
+ *
+ * Rows are filtered and deflated in chunks of whole rows, one
+ * thread per chunk, a few chunks at a time. Every chunk is a
+ * raw deflate stream primed with the last 32K of the chunk
+ * before it. All but the last end with a sync flush, so they
+ * join byte aligned into one zlib stream. The adler32 checksums
+ * of the chunks are joined with adler32_combine(). Each chunk
+ * is written as its own IDAT chunk once it and all chunks
+ * before it are done, so memory use does not depend on image
+ * height.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+// Amount of filtered data deflated by one thread at a time
+#define JNI_PNG_CHUNK (1 << 20)
+
+// Deflate window size
+#define JNI_PNG_WINDOW 32768
+
+typedef struct jni_png_job_s jni_png_job;
+typedef struct jni_png_chunk_s jni_png_chunk;
+
+struct jni_png_chunk_s
+{
+	int y0;
+	int y1;
+	unsigned char *udata;	// filtered rows
+	uLong usize;
+	unsigned char *cdata;	// deflated rows
+	uLong cbound;
+	uLong csize;
+	uLong adler;
+	unsigned char *rows;	// 4 rows of scratch space
+	int err;
+};
+
+struct jni_png_job_s
+{
+	fz_pixmap *pixmap;
+	int dn;
+	int level;
+	int filter;
+	int count;
+	jni_png_chunk *chunks;
+	unsigned char *dict;	// end of the chunk before the first one
+	uLong dictsize;
+};
+
+/**
+ * Paeth predictor
+ */
+static inline int paeth(int a, int b, int c)
 {
-	return 4 + 4 + rawsize + 4;
+	int p = a + b - c;
+	int pa = abs(p - a);
+	int pb = abs(p - b);
+	int pc = abs(p - c);
+	if (pa <= pb && pa <= pc)
+		return a;
+	if (pb <= pc)
+		return b;
+	return c;
 }
 
-static inline void put32_buffer(jbyte *buf, unsigned int offset, unsigned int v)
+/**
+ * Filter one row. Prev is the row above, all zero for the first row.
+ */
+static void filter_row(int filter, unsigned char *dp, unsigned char *cur, unsigned char *prev, int len, int bpp)
 {
-	buf[0 + offset] = (v >> 24) & 0xff;
-	buf[1 + offset] = (v >> 16) & 0xff;
-	buf[2 + offset] = (v >> 8) & 0xff;
-	buf[3 + offset] = (v) & 0xff;
+	int i;
+
+	switch (filter)
+	{
+	case PNG_FILTER_NONE:
+		memcpy(dp, cur, len);
+		break;
+	case PNG_FILTER_SUB:
+		for (i = 0; i < bpp; i++)
+			dp[i] = cur[i];
+		for (; i < len; i++)
+			dp[i] = cur[i] - cur[i-bpp];
+		break;
+	case PNG_FILTER_UP:
+		for (i = 0; i < len; i++)
+			dp[i] = cur[i] - prev[i];
+		break;
+	case PNG_FILTER_AVERAGE:
+		for (i = 0; i < bpp; i++)
+			dp[i] = cur[i] - (prev[i] >> 1);
+		for (; i < len; i++)
+			dp[i] = cur[i] - ((cur[i-bpp] + prev[i]) >> 1);
+		break;
+	case PNG_FILTER_PAETH:
+		for (i = 0; i < bpp; i++)
+			dp[i] = cur[i] - prev[i];
+		for (; i < len; i++)
+			dp[i] = cur[i] - paeth(cur[i-bpp], prev[i], prev[i-bpp]);
+		break;
+	}
 }
 
-static int putchunk_buffer(char *tag, unsigned char *data, int size, jbyte *buf, int offset)
+/**
+ * Sum of filtered bytes taken as signed values. Smaller usually deflates better.
+ */
+static unsigned int filter_cost(unsigned char *dp, int len)
 {
-	unsigned int sum;
-	put32_buffer(buf, offset, size);
-	offset += 4;
-	memcpy(&(buf[offset]), tag, 4);
-	offset += 4;
-	memcpy(&(buf[offset]), data, size);
-	offset += size;
+	unsigned int sum = 0;
+	int i;
+	for (i = 0; i < len; i++)
+		sum += abs((signed char)dp[i]);
+	return sum;
+}
 
-	sum = crc32(0, NULL, 0);
-	sum = crc32(sum, (unsigned char*)tag, 4);
-	sum = crc32(sum, data, size);
-	put32_buffer(buf, offset, sum);
-	offset += 4;
+/**
+ * Copy samples of row y without the alpha channel if it is not saved
+ */
+static void get_row(fz_pixmap *pixmap, int y, int dn, unsigned char *dp)
+{
+	unsigned char *sp = pixmap->samples + (size_t)y * pixmap->w * pixmap->n;
+	int sn = pixmap->n;
+	int x, k;
 
-	return chunksize(size);
+	if (sn == dn)
+	{
+		memcpy(dp, sp, pixmap->w * dn);
+		return;
+	}
+
+	for (x = 0; x < pixmap->w; x++)
+	{
+		for (k = 0; k < dn; k++)
+			dp[k] = sp[k];
+		sp += sn;
+		dp += dn;
+	}
 }
 
 /**
- *
- * Create a PNG image format and save to file or byte buffer
- *
- * When *env is passed in we are assuming creation of a byte buffer.
- *
- * To improve performance I am using GetPrimitiveArrayCritical(). Later on we could change this to a
- * ByteBuffer and avoid getting in the way of the GC due to array pinning.
- *
+ * Filter one row into dp with its filter type byte in front.
+ * Adaptive filtering needs two rows of scratch space.
  */
-void * jni_write_png(JNIEnv *env, fz_context *ctx, fz_pixmap *pixmap, const char *filename, int savealpha, float zoom)
+static void filter_line(int filter, unsigned char *dp, unsigned char *cur, unsigned char *prev, unsigned char *scratch, int len, int bpp)
 {
-	static const unsigned char pngsig[8] = { 137, 80, 78, 71, 13, 10, 26, 10 };
-	FILE *fp = NULL;
-	unsigned char head[13];
-	unsigned char *udata = NULL;
-	unsigned char *cdata = NULL;
-	unsigned char *sp, *dp;
-	uLong usize, csize;
-	int y, x, k, sn, dn;
-	int color;
-	int err;
+	unsigned char *best = scratch;
+	unsigned char *test = scratch + len;
+	unsigned char *tmp;
+	unsigned int cost, least;
+	int f;
 
-	fz_var(udata);
-	fz_var(cdata);
+	if (filter != PNG_FILTER_ADAPTIVE)
+	{
+		*dp++ = filter;
+		filter_row(filter, dp, cur, prev, len, bpp);
+		return;
+	}
 
-	if (pixmap->n != 1 && pixmap->n != 2 && pixmap->n != 4)
-		fz_throw(ctx, "pixmap must be grayscale or rgb to write as png");
+	filter = PNG_FILTER_NONE;
+	filter_row(filter, best, cur, prev, len, bpp);
+	least = filter_cost(best, len);
+	for (f = PNG_FILTER_SUB; f <= PNG_FILTER_PAETH; f++)
+	{
+		filter_row(f, test, cur, prev, len, bpp);
+		cost = filter_cost(test, len);
+		if (cost < least)
+		{
+			least = cost;
+			filter = f;
+			tmp = best;
+			best = test;
+			test = tmp;
+		}
+	}
+	*dp++ = filter;
+	memcpy(dp, best, len);
+}
 
-	sn = pixmap->n;
-	dn = pixmap->n;
-	if (!savealpha && dn > 1)
-		dn--;
+/**
+ * Filter rows of a chunk. Each row gets its filter type byte in front.
+ */
+static void filter_chunk(void *arg, int index)
+{
+	jni_png_job *job = (jni_png_job*)arg;
+	jni_png_chunk *chunk = &job->chunks[index];
+	fz_pixmap *pixmap = job->pixmap;
+	int len = pixmap->w * job->dn;
+	unsigned char *prev = chunk->rows;
+	unsigned char *cur = prev + len;
+	unsigned char *scratch = cur + len;
+	unsigned char *dp = chunk->udata;
+	unsigned char *tmp;
+	int y;
 
-	switch (dn)
+	if (chunk->y0 > 0)
+		get_row(pixmap, chunk->y0 - 1, job->dn, prev);
+	else
+		memset(prev, 0, len);
+
+	for (y = chunk->y0; y < chunk->y1; y++)
 	{
-	default:
-	case 1: color = 0; break;
-	case 2: color = 4; break;
-	case 3: color = 2; break;
-	case 4: color = 6; break;
+		get_row(pixmap, y, job->dn, cur);
+		filter_line(job->filter, dp, cur, prev, scratch, len, job->dn);
+		dp += len + 1;
+
+		tmp = prev;
+		prev = cur;
+		cur = tmp;
 	}
+}
 
-	usize = (pixmap->w * dn + 1) * pixmap->h;
-	csize = compressBound(usize);
-	fz_try(ctx)
+/**
+ * Deflate filtered rows of a chunk
+ */
+static void deflate_chunk(void *arg, int index)
+{
+	jni_png_job *job = (jni_png_job*)arg;
+	jni_png_chunk *chunk = &job->chunks[index];
+	int last = chunk->y1 == job->pixmap->h;
+	z_stream stream;
+
+	memset(&stream, 0, sizeof(stream));
+	chunk->adler = adler32(adler32(0, NULL, 0), chunk->udata, chunk->usize);
+
+	if (deflateInit2(&stream, job->level, Z_DEFLATED, -15, 8, Z_DEFAULT_STRATEGY) != Z_OK)
 	{
-		udata = fz_malloc(ctx, usize);
-		cdata = fz_malloc(ctx, csize);
+		chunk->err = 1;
+		return;
 	}
-	fz_catch(ctx)
+
+	if (index > 0)
 	{
-		fz_free(ctx, udata);
-		fz_free(ctx, cdata);
-		fz_throw(ctx, "Could not allocate memory");
+		jni_png_chunk *before = &job->chunks[index - 1];
+		uLong dict = before->usize < JNI_PNG_WINDOW ? before->usize : JNI_PNG_WINDOW;
+		deflateSetDictionary(&stream, before->udata + before->usize - dict, dict);
+	}
+	else if (job->dictsize > 0)
+	{
+		deflateSetDictionary(&stream, job->dict, job->dictsize);
 	}
 
-	sp = pixmap->samples;
-	dp = udata;
-	for (y = 0; y < pixmap->h; y++)
+	stream.next_in = chunk->udata;
+	stream.avail_in = chunk->usize;
+	stream.next_out = chunk->cdata;
+	stream.avail_out = chunk->cbound;
+
+	int err = deflate(&stream, last ? Z_FINISH : Z_SYNC_FLUSH);
+
+	if ((last && err != Z_STREAM_END) || (!last && (err != Z_OK || stream.avail_out == 0)))
 	{
-		*dp++ = 1; /* sub prediction filter */
-		for (x = 0; x < pixmap->w; x++)
-		{
-			for (k = 0; k < dn; k++)
-			{
-				if (x == 0)
-					dp[k] = sp[k];
-				else
-					dp[k] = sp[k] - sp[k-sn];
-			}
-			sp += sn;
-			dp += dn;
-		}
+		chunk->err = 1;
 	}
 
-	err = compress(cdata, &csize, udata, usize);
-	if (err != Z_OK)
+	chunk->csize = stream.total_out;
+	deflateEnd(&stream);
+}
+
+/**
+ * Fall back to defaults for an unknown compression level or filter
+ */
+static void png_normalize(int *level, int *filter)
+{
+	if (*level < Z_DEFAULT_COMPRESSION || *level > Z_BEST_COMPRESSION)
+		*level = Z_DEFAULT_COMPRESSION;
+
+	if (*filter < PNG_FILTER_NONE || *filter > PNG_FILTER_ADAPTIVE)
+		*filter = PNG_FILTER_SUB;
+}
+
+/**
+ * Filter and deflate image data into a zlib stream and write it as IDAT
+ * chunks. Each chunk of rows becomes one IDAT chunk.
+ */
+static void png_image_data(fz_context *ctx, jni_output *out, fz_pixmap *pixmap, int dn, int level, int filter, int threads)
+{
+	jni_png_job job;
+	jni_png_chunk *chunk;
+	unsigned char *udata = NULL;
+	unsigned char *cdata = NULL;
+	unsigned char *rows = NULL;
+	unsigned char *dict = NULL;
+	unsigned char *data;
+	uLong rowsize = (uLong)pixmap->w * dn + 1;
+	uLong chunkrows, usize, cbound, size, adler;
+	int i, y, err, flags, head;
+
+	png_normalize(&level, &filter);
+
+	chunkrows = JNI_PNG_CHUNK / rowsize;
+	if (chunkrows < 1)
+		chunkrows = 1;
+	if (threads > (pixmap->h + chunkrows - 1) / chunkrows)
+		threads = (pixmap->h + chunkrows - 1) / chunkrows;
+	if (threads < 1)
+		threads = 1;
+
+	usize = rowsize * chunkrows;
+	cbound = compressBound(usize) + 16;
+
+	job.pixmap = pixmap;
+	job.dn = dn;
+	job.level = level;
+	job.filter = filter;
+	job.chunks = NULL;
+	job.dict = NULL;
+	job.dictsize = 0;
+
+	fz_var(udata);
+	fz_var(cdata);
+	fz_var(rows);
+	fz_var(dict);
+
+	fz_try(ctx)
 	{
+		job.chunks = fz_malloc_array(ctx, threads, sizeof(jni_png_chunk));
+		udata = fz_malloc_array(ctx, threads, usize);
+		cdata = fz_malloc_array(ctx, threads, cbound + 6);
+		rows = fz_malloc_array(ctx, threads * 4, rowsize);
+		dict = fz_malloc(ctx, JNI_PNG_WINDOW);
+	}
+	fz_catch(ctx)
+	{
+		fz_free(ctx, job.chunks);
 		fz_free(ctx, udata);
 		fz_free(ctx, cdata);
-		fz_throw(ctx, "cannot compress image data");
+		fz_free(ctx, rows);
+		fz_throw(ctx, "Could not allocate memory");
 	}
 
-	jbyteArray buf = NULL;
-	jbyte *ptrbuf = NULL;
+	/* zlib header */
+	if (level == Z_DEFAULT_COMPRESSION)
+		flags = 2;
+	else if (level < 2)
+		flags = 0;
+	else if (level < 6)
+		flags = 1;
+	else if (level == 6)
+		flags = 2;
+	else
+		flags = 3;
+	head = (0x78 << 8) | (flags << 6);
+	head += 31 - (head % 31);
+
+	err = 0;
+	y = 0;
+	adler = adler32(0, NULL, 0);
 
-	if (env)
+	do
 	{
-		int size = 8 + chunksize(13) + chunksize(9) + chunksize(csize) + chunksize(0);
-		buf = jni_new_byte_array(size);
-		if (!buf)
+		/* split the next rows among threads, leaving room for header and checksum */
+		for (job.count = 0; job.count < threads && (y < pixmap->h || job.count == 0); job.count++)
 		{
-			fz_free(ctx, udata);
-			fz_free(ctx, cdata);
-			fz_throw(ctx, "could not create buffer");
+			chunk = &job.chunks[job.count];
+			memset(chunk, 0, sizeof(jni_png_chunk));
+			chunk->y0 = y;
+			chunk->y1 = y = y + chunkrows < pixmap->h ? y + chunkrows : pixmap->h;
+			chunk->udata = udata + usize * job.count;
+			chunk->usize = rowsize * (chunk->y1 - chunk->y0);
+			chunk->cdata = cdata + (cbound + 6) * job.count + 2;
+			chunk->cbound = cbound;
+			chunk->rows = rows + rowsize * 4 * job.count;
 		}
-		ptrbuf = jni_start_array_critical(buf);
-		if (!ptrbuf)
+
+		jni_run_tasks(filter_chunk, &job, job.count);
+		jni_run_tasks(deflate_chunk, &job, job.count);
+
+		/* write chunks in order and join checksums */
+		for (i = 0; i < job.count && !err; i++)
 		{
-			fz_free(ctx, udata);
-			fz_free(ctx, cdata);
-			fz_throw(ctx, "could not create buffer");
+			chunk = &job.chunks[i];
+			err = chunk->err;
+			data = chunk->cdata;
+			size = chunk->csize;
+			adler = chunk->y0 == 0 ? chunk->adler : adler32_combine(adler, chunk->adler, chunk->usize);
+
+			if (chunk->y0 == 0)
+			{
+				data -= 2;
+				data[0] = head >> 8;
+				data[1] = head & 0xff;
+				size += 2;
+			}
+
+			if (chunk->y1 == pixmap->h)
+			{
+				big32(data + size, adler);
+				size += 4;
+			}
+
+			if (!err)
+				putchunk("IDAT", data, size, out);
 		}
+
+		/* keep the end of the last chunk to prime the next one */
+		chunk = &job.chunks[job.count - 1];
+		job.dictsize = chunk->usize < JNI_PNG_WINDOW ? chunk->usize : JNI_PNG_WINDOW;
+		memcpy(dict, chunk->udata + chunk->usize - job.dictsize, job.dictsize);
+		job.dict = dict;
 	}
-	else
+	while (y < pixmap->h && !err && !jni_output_error(out));
+
+	fz_free(ctx, job.chunks);
+	fz_free(ctx, udata);
+	fz_free(ctx, cdata);
+	fz_free(ctx, rows);
+	fz_free(ctx, dict);
+
+	if (err)
+		fz_throw(ctx, "cannot compress image data");
+}
+
+/**
+ * Write signature, IHDR and pHYs chunks
+ */
+static void png_header(jni_output *out, int w, int h, int dn, float zoom)
+{
+	static const unsigned char pngsig[8] = { 137, 80, 78, 71, 13, 10, 26, 10 };
+	unsigned char head[13];
+	int color;
+
+	switch (dn)
 	{
-		fp = fopen(filename, "wb");
-		if (!fp)
-		{
-			fz_free(ctx, udata);
-			fz_free(ctx, cdata);
-			fz_throw(ctx, "cannot open file '%s': %s", filename, strerror(errno));
-		}
+	default:
+	case 1: color = 0; break;
+	case 2: color = 4; break;
+	case 3: color = 2; break;
+	case 4: color = 6; break;
 	}
 
-	big32(head+0, pixmap->w);
-	big32(head+4, pixmap->h);
+	big32(head+0, w);
+	big32(head+4, h);
 	head[8] = 8;  /* depth */
 	head[9] = color;
 	head[10] = 0; /* compression */
 	head[11] = 0; /* filter */
 	head[12] = 0; /* interlace */
 
-	int offset = 0;
-
-	if (env)
-	{
-		memcpy(ptrbuf, pngsig, 8);
-		offset += 8;
-		offset += putchunk_buffer("IHDR", head, 13, ptrbuf, offset);
-	}
-	else
-	{
-		fwrite(pngsig, 1, 8, fp);
-		putchunk("IHDR", head, 13, fp);
-	}
+	jni_output_write(out, pngsig, 8);
+	putchunk("IHDR", head, 13, out);
 
 	if (zoom > 0)
 	{
@@ -219,31 +481,198 @@ void * jni_write_png(JNIEnv *env, fz_context *ctx, fz_pixmap *pixmap, const char
 		big32(phys+0, px);		// PixelsPerUnitX
 		big32(phys+4, px);		// PixelsPerUnitY
 		phys[8] = 1;			// PixelUnits 1 = Meters
-		if (env)
-			offset += putchunk_buffer("pHYs", phys, 9, ptrbuf, offset);
-		else
-			putchunk("pHYs", phys, 9, fp);
+		putchunk("pHYs", phys, 9, out);
 	}
+}
+
+/**
+ *
+ * Create a PNG image format and write it to an output
+ *
+ * Level is the zlib compression level, -1 for the default. Filter is one of
+ * jni_png_filter. Image data is compressed on up to threads threads.
+ *
+ */
+void jni_write_png(fz_context *ctx, fz_pixmap *pixmap, jni_output *out, int savealpha, float zoom, int level, int filter, int threads)
+{
+	int dn;
+
+	if (pixmap->n != 1 && pixmap->n != 2 && pixmap->n != 4)
+		fz_throw(ctx, "pixmap must be grayscale or rgb to write as png");
+
+	dn = pixmap->n;
+	if (!savealpha && dn > 1)
+		dn--;
+
+	png_header(out, pixmap->w, pixmap->h, dn, zoom);
 
-	if (env)
+	png_image_data(ctx, out, pixmap, dn, level, filter, threads);
+	putchunk("IEND", NULL, 0, out);
+
+	if (jni_output_error(out))
+		fz_throw(ctx, "cannot write png image");
+}
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Band writer.
+ *
+ * Rows are filtered and deflated into one zlib stream as bands
+ * arrive. An IDAT chunk is written each time the compressed
+ * data buffer fills, so memory use does not depend on image
+ * height. Rows are compressed on the calling thread.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+// Size of the IDAT chunks of a band writer
+#define JNI_PNG_IDAT_SIZE (64 << 10)
+
+typedef struct jni_png_writer_s jni_png_writer;
+struct jni_png_writer_s
+{
+	jni_band_writer super;
+	jni_output *out;
+	z_stream stream;
+	int init;
+	int w;
+	int h;
+	int y;
+	int dn;
+	int filter;
+	unsigned char *rows;	// previous, current and 2 scratch rows
+	unsigned char *line;	// filtered row
+	unsigned char *cdata;	// compressed data not yet written
+};
+
+/**
+ * Deflate data and write an IDAT chunk each time the buffer is full
+ */
+static void png_deflate(fz_context *ctx, jni_png_writer *wri, unsigned char *data, int len, int flush)
+{
+	z_stream *stream = &wri->stream;
+	int err;
+
+	stream->next_in = data;
+	stream->avail_in = len;
+
+	do
 	{
-		offset += putchunk_buffer("IDAT", cdata, csize, ptrbuf, offset);
-		offset += putchunk_buffer("IEND", head, 0, ptrbuf, offset);
-		jni_end_array_critical(buf, ptrbuf);
+		err = deflate(stream, flush);
+
+		if (err != Z_OK && err != Z_STREAM_END && err != Z_BUF_ERROR)
+			fz_throw(ctx, "cannot compress image data");
+
+		if (stream->avail_out == 0 || err == Z_STREAM_END)
+		{
+			putchunk("IDAT", wri->cdata, JNI_PNG_IDAT_SIZE - stream->avail_out, wri->out);
+			stream->next_out = wri->cdata;
+			stream->avail_out = JNI_PNG_IDAT_SIZE;
+		}
 	}
-	else
+	while (stream->avail_in > 0 || (flush == Z_FINISH && err != Z_STREAM_END));
+}
+
+static void png_write_band(fz_context *ctx, jni_band_writer *super, fz_pixmap *band)
+{
+	jni_png_writer *wri = (jni_png_writer*)super;
+	int len = wri->w * wri->dn;
+	unsigned char *prev = wri->rows + (wri->y & 1) * len;
+	unsigned char *cur = wri->rows + (~wri->y & 1) * len;
+	unsigned char *tmp;
+	int y;
+
+	if (band->w != wri->w || band->n < wri->dn || wri->y + band->h > wri->h)
+		fz_throw(ctx, "band does not fit png image");
+
+	for (y = 0; y < band->h; y++)
 	{
-		putchunk("IDAT", cdata, csize, fp);
-		putchunk("IEND", head, 0, fp);
-		fclose(fp);
+		get_row(band, y, wri->dn, cur);
+		filter_line(wri->filter, wri->line, cur, prev, wri->rows + len * 2, len, wri->dn);
+		png_deflate(ctx, wri, wri->line, len + 1, Z_NO_FLUSH);
+
+		tmp = prev;
+		prev = cur;
+		cur = tmp;
 	}
 
-	fz_free(ctx, udata);
-	fz_free(ctx, cdata);
+	wri->y += band->h;
+}
+
+static void png_close(fz_context *ctx, jni_band_writer *super)
+{
+	jni_png_writer *wri = (jni_png_writer*)super;
+
+	if (wri->y != wri->h)
+		fz_throw(ctx, "png image is missing rows");
+
+	png_deflate(ctx, wri, NULL, 0, Z_FINISH);
+	putchunk("IEND", NULL, 0, wri->out);
+
+	if (jni_output_error(wri->out))
+		fz_throw(ctx, "cannot write png image");
+}
+
+static void png_drop(fz_context *ctx, jni_band_writer *super)
+{
+	jni_png_writer *wri = (jni_png_writer*)super;
+
+	if (!wri)
+		return;
+
+	if (wri->init)
+		deflateEnd(&wri->stream);
+
+	fz_free(ctx, wri->rows);
+	fz_free(ctx, wri->cdata);
+	fz_free(ctx, wri);
+}
+
+/**
+ * Create a PNG band writer for a w x h image with n components per
+ * pixel. The header is written right away.
+ */
+jni_band_writer *jni_new_png_writer(fz_context *ctx, jni_output *out, int w, int h, int n, int savealpha, float zoom, int level, int filter)
+{
+	jni_png_writer *wri;
+	int dn;
 
-	if (env)
+	if (n != 1 && n != 2 && n != 4)
+		fz_throw(ctx, "pixmap must be grayscale or rgb to write as png");
+
+	dn = n;
+	if (!savealpha && dn > 1)
+		dn--;
+
+	png_normalize(&level, &filter);
+
+	wri = fz_malloc_no_throw(ctx, sizeof(jni_png_writer));
+
+	if (!wri)
+		fz_throw(ctx, "Could not allocate memory");
+
+	memset(wri, 0, sizeof(jni_png_writer));
+	wri->super.write_band = png_write_band;
+	wri->super.close = png_close;
+	wri->super.drop = png_drop;
+	wri->out = out;
+	wri->w = w;
+	wri->h = h;
+	wri->dn = dn;
+	wri->filter = filter;
+	wri->rows = fz_malloc_no_throw(ctx, (size_t)w * dn * 5 + 1);
+	wri->cdata = fz_malloc_no_throw(ctx, JNI_PNG_IDAT_SIZE);
+
+	if (!wri->rows || !wri->cdata || deflateInit(&wri->stream, level) != Z_OK)
 	{
-		return buf;
+		png_drop(ctx, &wri->super);
+		fz_throw(ctx, "Could not allocate memory");
 	}
-	return NULL;
+
+	wri->init = 1;
+	wri->line = wri->rows + (size_t)w * dn * 4;
+	wri->stream.next_out = wri->cdata;
+	wri->stream.avail_out = JNI_PNG_IDAT_SIZE;
+	memset(wri->rows, 0, (size_t)w * dn);
+
+	png_header(out, w, h, dn, zoom);
+
+	return &wri->super;
 }
@@ -0,0 +1,239 @@
+/*
+ * Source copied from res_pixmap.c and res_bitmap.c
+ *
+ * Modifications
+ * =============
+ *
+ *   Pedro J Rivera
+ *
+ *   Write to a jni_output one row at a time.
+ *
+ */
+
+#include "includes/jmupdf.h"
+
+/**
+ * Copy row y of a pixmap keeping the first dn samples of each pixel
+ */
+static void pnm_row(fz_pixmap *pixmap, int y, int dn, unsigned char *dp)
+{
+	unsigned char *sp = pixmap->samples + (size_t)y * pixmap->w * pixmap->n;
+	int x, k;
+
+	for (x = 0; x < pixmap->w; x++)
+	{
+		for (k = 0; k < dn; k++)
+			dp[k] = sp[k];
+		sp += pixmap->n;
+		dp += dn;
+	}
+}
+
+/**
+ * Write pixmap rows without alpha, or with it when dn == n
+ */
+static void pnm_rows(fz_context *ctx, fz_pixmap *pixmap, int dn, jni_output *out)
+{
+	unsigned char *row;
+	int y;
+
+	if (dn == pixmap->n)
+	{
+		for (y = 0; y < pixmap->h; y++)
+		{
+			jni_output_write(out, pixmap->samples + (size_t)y * pixmap->w * dn, pixmap->w * dn);
+		}
+		return;
+	}
+
+	row = fz_malloc_no_throw(ctx, pixmap->w * dn);
+
+	if (!row)
+		fz_throw(ctx, "Could not allocate memory");
+
+	for (y = 0; y < pixmap->h; y++)
+	{
+		pnm_row(pixmap, y, dn, row);
+		jni_output_write(out, row, pixmap->w * dn);
+	}
+
+	fz_free(ctx, row);
+}
+
+/**
+ * Write PNM header. Returns number of samples written per pixel.
+ */
+static int pnm_header(fz_context *ctx, jni_output *out, int w, int h, int n)
+{
+	if (n != 1 && n != 2 && n != 4)
+		fz_throw(ctx, "pixmap must be grayscale or rgb to write as pnm");
+
+	if (n == 1 || n == 2)
+		jni_output_printf(out, "P5\n");
+	if (n == 4)
+		jni_output_printf(out, "P6\n");
+	jni_output_printf(out, "%d %d\n", w, h);
+	jni_output_printf(out, "255\n");
+
+	return n == 4 ? 3 : 1;
+}
+
+/**
+ * Write PAM header. Returns number of samples written per pixel.
+ */
+static int pam_header(jni_output *out, int w, int h, int n, fz_colorspace *colorspace, int savealpha)
+{
+	int sn = n;
+	int dn = n;
+	if (!savealpha && dn > 1)
+		dn--;
+
+	jni_output_printf(out, "P7\n");
+	jni_output_printf(out, "WIDTH %d\n", w);
+	jni_output_printf(out, "HEIGHT %d\n", h);
+	jni_output_printf(out, "DEPTH %d\n", dn);
+	jni_output_printf(out, "MAXVAL 255\n");
+	if (colorspace)
+		jni_output_printf(out, "# COLORSPACE %s\n", colorspace->name);
+	switch (dn)
+	{
+	case 1: jni_output_printf(out, "TUPLTYPE GRAYSCALE\n"); break;
+	case 2: if (sn == 2) jni_output_printf(out, "TUPLTYPE GRAYSCALE_ALPHA\n"); break;
+	case 3: if (sn == 4) jni_output_printf(out, "TUPLTYPE RGB\n"); break;
+	case 4: if (sn == 4) jni_output_printf(out, "TUPLTYPE RGB_ALPHA\n"); break;
+	}
+	jni_output_printf(out, "ENDHDR\n");
+
+	return dn;
+}
+
+/**
+ * Write pixmap as PNM
+ */
+void jni_write_pnm(fz_context *ctx, fz_pixmap *pixmap, jni_output *out)
+{
+	int dn = pnm_header(ctx, out, pixmap->w, pixmap->h, pixmap->n);
+
+	pnm_rows(ctx, pixmap, dn, out);
+
+	if (jni_output_error(out))
+		fz_throw(ctx, "cannot write pnm image");
+}
+
+/**
+ * Write pixmap as PAM (with or without alpha channel)
+ */
+void jni_write_pam(fz_context *ctx, fz_pixmap *pixmap, jni_output *out, int savealpha)
+{
+	int dn = pam_header(out, pixmap->w, pixmap->h, pixmap->n, pixmap->colorspace, savealpha);
+
+	pnm_rows(ctx, pixmap, dn, out);
+
+	if (jni_output_error(out))
+		fz_throw(ctx, "cannot write pam image");
+}
+
+/**
+ * Write bitmap as PBM
+ */
+void jni_write_pbm(fz_context *ctx, fz_bitmap *bitmap, jni_output *out)
+{
+	unsigned char *p;
+	int h, bytestride;
+
+	jni_output_printf(out, "P4\n%d %d\n", bitmap->w, bitmap->h);
+
+	p = bitmap->samples;
+
+	h = bitmap->h;
+	bytestride = (bitmap->w + 7) >> 3;
+	while (h--)
+	{
+		jni_output_write(out, p, bytestride);
+		p += bitmap->stride;
+	}
+
+	if (jni_output_error(out))
+		fz_throw(ctx, "cannot write pbm image");
+}
+
+/**
+ * PNM and PAM band writer. Rows are written as bands arrive.
+ */
+typedef struct jni_pnm_writer_s jni_pnm_writer;
+struct jni_pnm_writer_s
+{
+	jni_band_writer super;
+	jni_output *out;
+	int w;
+	int h;
+	int y;
+	int dn;
+};
+
+static void pnm_write_band(fz_context *ctx, jni_band_writer *super, fz_pixmap *band)
+{
+	jni_pnm_writer *wri = (jni_pnm_writer*)super;
+
+	if (band->w != wri->w || band->n < wri->dn || wri->y + band->h > wri->h)
+		fz_throw(ctx, "band does not fit pnm image");
+
+	pnm_rows(ctx, band, wri->dn, wri->out);
+	wri->y += band->h;
+}
+
+static void pnm_close(fz_context *ctx, jni_band_writer *super)
+{
+	jni_pnm_writer *wri = (jni_pnm_writer*)super;
+
+	if (wri->y != wri->h)
+		fz_throw(ctx, "pnm image is missing rows");
+
+	if (jni_output_error(wri->out))
+		fz_throw(ctx, "cannot write pnm image");
+}
+
+static void pnm_drop(fz_context *ctx, jni_band_writer *super)
+{
+	fz_free(ctx, super);
+}
+
+static jni_pnm_writer *pnm_new_writer(fz_context *ctx, jni_output *out, int w, int h)
+{
+	jni_pnm_writer *wri = fz_malloc_no_throw(ctx, sizeof(jni_pnm_writer));
+
+	if (!wri)
+		fz_throw(ctx, "Could not allocate memory");
+
+	memset(wri, 0, sizeof(jni_pnm_writer));
+	wri->super.write_band = pnm_write_band;
+	wri->super.close = pnm_close;
+	wri->super.drop = pnm_drop;
+	wri->out = out;
+	wri->w = w;
+	wri->h = h;
+
+	return wri;
+}
+
+/**
+ * Create a PNM band writer. The header is written right away.
+ */
+jni_band_writer *jni_new_pnm_writer(fz_context *ctx, jni_output *out, int w, int h, int n)
+{
+	int dn = pnm_header(ctx, out, w, h, n);
+	jni_pnm_writer *wri = pnm_new_writer(ctx, out, w, h);
+	wri->dn = dn;
+	return &wri->super;
+}
+
+/**
+ * Create a PAM band writer. The header is written right away.
+ */
+jni_band_writer *jni_new_pam_writer(fz_context *ctx, jni_output *out, int w, int h, int n, fz_colorspace *colorspace, int savealpha)
+{
+	int dn = pam_header(out, w, h, n, colorspace, savealpha);
+	jni_pnm_writer *wri = pnm_new_writer(ctx, out, w, h);
+	wri->dn = dn;
+	return &wri->super;
+}
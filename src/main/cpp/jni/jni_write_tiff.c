@@ -35,15 +35,49 @@
  */
 
 /**
- * Create a new single page or multi-page TIF image
- *
+ * A TIF file kept open while pages are added to it
  */
-static int write_tif(unsigned char *pixels, const char *file, int mode,
-		     int quality, int compression, int photometric,
-		     float resolution, int bitspersample, int samplesperpixel,
-		     size_t size, int w, int h)
+struct jni_tif_session_s
+{
+	TIFF *image;
+	int err;
+};
+
+/**
+ * TIF band writer. Every band is written as one strip, or as one row
+ * of tiles when the image is tiled.
+ */
+typedef struct jni_tif_writer_s jni_tif_writer;
+struct jni_tif_writer_s
 {
+	jni_band_writer super;
+	TIFF *image;
+	jni_tif_session *session;
+	int ccitt;
+	int color;
+	int w;
+	int h;
+	int y;
+	int rows;
+	int strip;
+	int tilew;
+	size_t stride;
+	size_t pixelbits;
+	unsigned char *buffer;
+	unsigned char *tile;
+};
 
+/**
+ * Open a TIF file
+ *  Modes:
+ *   a = Open or create file for writing; append data to end of file.
+ *   w = Open file for writing; discard existing contents
+ *
+ *   When retry is set try for a few minutes, then bail out.
+ *     TODO: Should probably make this a flag user can control
+ */
+static TIFF *open_tif(const char *file, int mode, int retry)
+{
 	TIFF *image = NULL;
 	char *cmode;
 
@@ -62,29 +96,28 @@ static int write_tif(unsigned char *pixels, const char *file, int mode,
 	TIFFSetWarningHandler(NULL);
 	TIFFSetErrorHandler(NULL);
 
-	/*
-	 * Open TIF file
-	 *  Modes:
-	 *   a = Open or create file for writing; append data to end of file.
-	 *   w = Open file for writing; discard existing contents
-	 *
-	 *   Retry for a few minutes, then bail out.
-	 *     TODO: Should probably make this a flag user can control
-	 */
 	int r = 0;
 	while (r < 500)
 	{
 		image = TIFF_OPEN(file, cmode);
-		if (image) 	break;
-		else		++r;
+		if (image || !retry) 	break;
+		else					++r;
 		SLEEP(1000);
 	}
 
-	if (!image)
-	{
-		return -1;
-	}
+	return image;
+}
 
+/**
+ * Describe the next image of a single page or multi-page TIF file.
+ * The image is tiled when tilew is not zero.
+ *
+ */
+static void set_tif_fields(TIFF *image,
+		     int quality, int compression, int photometric,
+		     float resolution, int bitspersample, int samplesperpixel,
+		     int rows, int tilew, int w, int h)
+{
 	TIFFSetField(image, TIFFTAG_ORIENTATION, ORIENTATION_TOPLEFT);
 	TIFFSetField(image, TIFFTAG_PHOTOMETRIC, photometric);
 	TIFFSetField(image, TIFFTAG_PLANARCONFIG, PLANARCONFIG_CONTIG);
@@ -92,7 +125,15 @@ static int write_tif(unsigned char *pixels, const char *file, int mode,
 	TIFFSetField(image, TIFFTAG_IMAGEWIDTH, w);
 	TIFFSetField(image, TIFFTAG_IMAGELENGTH, h);
 	TIFFSetField(image, TIFFTAG_SAMPLESPERPIXEL, samplesperpixel);
-	TIFFSetField(image, TIFFTAG_ROWSPERSTRIP, h);
+	if (tilew > 0)
+	{
+		TIFFSetField(image, TIFFTAG_TILEWIDTH, tilew);
+		TIFFSetField(image, TIFFTAG_TILELENGTH, rows);
+	}
+	else
+	{
+		TIFFSetField(image, TIFFTAG_ROWSPERSTRIP, rows);
+	}
 	TIFFSetField(image, TIFFTAG_COMPRESSION, compression);
 	TIFFSetField(image, TIFFTAG_XRESOLUTION, resolution);
 	TIFFSetField(image, TIFFTAG_YRESOLUTION, resolution);
@@ -114,38 +155,184 @@ static int write_tif(unsigned char *pixels, const char *file, int mode,
 	}
 
 	TIFFSetField(image, TIFFTAG_ARTIST, "Created by JMuPdf");
+}
+
+/**
+ * Cut a band into tiles and write them
+ */
+static void tif_write_tiles(fz_context *ctx, jni_tif_writer *wri, unsigned char *pixels, int rows)
+{
+	size_t tstride = wri->tilew * wri->pixelbits / 8;
+	size_t offset, len;
+	int x, y;
+
+	for (x = 0; x < wri->w; x += wri->tilew)
+	{
+		offset = x * wri->pixelbits / 8;
+		len = fz_mini(tstride, wri->stride - offset);
+
+		if (len < tstride || rows < wri->rows)
+		{
+			memset(wri->tile, 0, tstride * wri->rows);
+		}
+
+		for (y = 0; y < rows; y++)
+		{
+			memcpy(wri->tile + y * tstride, pixels + y * wri->stride + offset, len);
+		}
+
+		if (TIFFWriteEncodedTile(wri->image, TIFFComputeTile(wri->image, x, wri->y, 0, 0), wri->tile, tstride * wri->rows) < 0)
+			fz_throw(ctx, "cannot write tif image");
+	}
+}
+
+/**
+ * Convert rows of a band and write them as the next strip or tiles
+ */
+static void tif_write_band(fz_context *ctx, jni_band_writer *super, fz_pixmap *band)
+{
+	jni_tif_writer *wri = (jni_tif_writer*)super;
+	unsigned char *pixels = band->samples;
+	unsigned char *ptrbuf = wri->buffer;
+	size_t length = (size_t)band->w * band->h;
+	size_t size = wri->stride * band->h;
+	size_t i;
+	int rc = 0;
+
+	if (band->w != wri->w || band->h > wri->rows || wri->y + band->h > wri->h)
+		fz_throw(ctx, "band does not fit tif image");
+
+	if (wri->color == COLOR_ARGB)
+	{
+		ptrbuf = pixels;
+	}
+
+	else if (wri->color == COLOR_RGB)
+	{
+		for (i=0; i<length; i++)
+		{
+			*ptrbuf++ = pixels[0];
+			*ptrbuf++ = pixels[1];
+			*ptrbuf++ = pixels[2];
+			pixels += band->n;
+		}
+		ptrbuf = wri->buffer;
+	}
+
+	else if (wri->color == COLOR_GRAY_SCALE)
+	{
+		for (i=0; i<length; i++)
+		{
+			*ptrbuf++ = pixels[0];
+			pixels += band->n;
+		}
+		ptrbuf = wri->buffer;
+	}
+
+	else if (wri->color == COLOR_BLACK_WHITE ||
+			 wri->color == COLOR_BLACK_WHITE_DITHER)
+	{
+		int dither = (wri->color == COLOR_BLACK_WHITE_DITHER);
+		if (wri->ccitt == 1)
+		{
+			rc = jni_pix_to_binary(ctx, band, dither, ptrbuf);
+		}
+		else
+		{
+			rc = jni_pix_to_black_white(ctx, band, dither, ptrbuf);
+		}
+	}
+
+	if (rc != 0)
+		fz_throw(ctx, "Could not allocate memory");
 
 	// Write the information to the file
-	tsize_t rc = TIFFWriteEncodedStrip(image, 0, pixels, size);
+	if (wri->tilew > 0)
+	{
+		tif_write_tiles(ctx, wri, ptrbuf, band->h);
+	}
+	else if (TIFFWriteEncodedStrip(wri->image, wri->strip, ptrbuf, size) < 0)
+	{
+		fz_throw(ctx, "cannot write tif image");
+	}
 
-	// Close the file
-	TIFFClose(image);
+	wri->strip++;
+	wri->y += band->h;
+}
+
+static void tif_close(fz_context *ctx, jni_band_writer *super)
+{
+	jni_tif_writer *wri = (jni_tif_writer*)super;
+	TIFF *image = wri->image;
+	int rc;
 
-	if (rc < 0)
+	if (wri->y != wri->h)
+		fz_throw(ctx, "tif image is missing rows");
+
+	wri->image = NULL;
+
+	// Finish the page of a session, or close the file
+	if (wri->session)
 	{
-		return -2;
+		rc = TIFFWriteDirectory(image);
 	}
 	else
 	{
-		return 0;
+		rc = TIFFFlush(image);
+		TIFFClose(image);
 	}
+
+	if (!rc)
+		fz_throw(ctx, "cannot write tif image");
 }
 
+static void tif_drop(fz_context *ctx, jni_band_writer *super)
+{
+	jni_tif_writer *wri = (jni_tif_writer*)super;
+
+	if (!wri)
+		return;
+
+	// An unfinished page of a session is dropped if nothing was written
+	// yet, otherwise the file is damaged and the session fails
+	if (wri->image && wri->session)
+	{
+		if (wri->strip == 0)
+		{
+			TIFFFreeDirectory(wri->image);
+			TIFFCreateDirectory(wri->image);
+		}
+		else
+		{
+			wri->session->err = 1;
+		}
+	}
+	else if (wri->image)
+	{
+		TIFFClose(wri->image);
+	}
+
+	fz_free(ctx, wri->buffer);
+	fz_free(ctx, wri->tile);
+	fz_free(ctx, wri);
+}
 
 /**
- * Create a new single page or multi-page TIF image
+ * Create a TIF band writer for a w x h image with n components per pixel.
+ * Bands must be rows high except for the last one. Tiles are tilew wide
+ * and rows high; both must be multiples of 16.
  *
  */
-int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int compression, int color, int mode, int quality)
+static jni_band_writer *tif_new_writer(fz_context *ctx, const char *file, jni_tif_session *session, int w, int h, int n, int rows, int tilew, float zoom, int compression, int color, int mode, int quality)
 {
+	jni_tif_writer *wri;
 	int ccitt = 0;
 	int samplesperpixel = 1;
 	int bitspersample = 1;
 	int photometric = 0;
-	int length = pix->w * pix->h;
 	int savealpha = (color == COLOR_ARGB);
 	float resolution = jni_resolution(zoom);
-	size_t size;
+	size_t stride;
 
  	if (compression == COMPRESSION_CCITTRLE || compression == COMPRESSION_CCITTRLEW ||
 	    compression == COMPRESSION_CCITT_T4 || compression == COMPRESSION_CCITT_T6)
@@ -153,14 +340,14 @@ int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom,
 		ccitt = 1;
 		samplesperpixel = 1;
 		photometric = PHOTOMETRIC_MINISWHITE;
-		size = ((pix->w + 7) / 8) * pix->h;
+		stride = (w + 7) / 8;
 		bitspersample = 1;
 	}
 	else
 	{
 		if (color == COLOR_RGB || color == COLOR_ARGB)
 		{
-			samplesperpixel = pix->n;
+			samplesperpixel = n;
 			photometric = PHOTOMETRIC_RGB;
 			if (!savealpha)
 			{
@@ -172,80 +359,181 @@ int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom,
 			samplesperpixel = 1;
 			photometric = PHOTOMETRIC_MINISBLACK;
 		}
-		size = length * samplesperpixel;
+		stride = (size_t)w * samplesperpixel;
 		bitspersample = 8;
 	}
 
-	//
-	// --------------
-	//
-
-	unsigned char *pixels = pix->samples;
-
-	if (color == COLOR_ARGB)
+	if (rows < 1 || (rows > h && tilew <= 0))
 	{
-		return write_tif(pixels, file, mode, quality,
-				        compression, photometric, resolution, bitspersample,
-				        samplesperpixel, size, pix->w, pix->h);
+		rows = h;
 	}
 
-	//
-	// --------------
-	//
-
-	int i = 0;
-	int rc = 0;
-	unsigned char *trgbuf = (unsigned char*)fz_malloc_no_throw(ctx, size);
+	if (tilew > 0 && (tilew % 16 != 0 || rows % 16 != 0))
+	{
+		fz_throw(ctx, "tile size must be a multiple of 16");
+	}
 
-	if (!trgbuf)
+	if (session && session->err)
 	{
-		return -3;
+		fz_throw(ctx, "tif file is damaged");
 	}
 
-	unsigned char *ptrbuf = trgbuf;
+	wri = fz_malloc_no_throw(ctx, sizeof(jni_tif_writer));
 
-	if (color == COLOR_RGB)
+	if (!wri)
+		fz_throw(ctx, "Could not allocate memory");
+
+	memset(wri, 0, sizeof(jni_tif_writer));
+	wri->super.write_band = tif_write_band;
+	wri->super.close = tif_close;
+	wri->super.drop = tif_drop;
+	wri->session = session;
+	wri->ccitt = ccitt;
+	wri->color = color;
+	wri->w = w;
+	wri->h = h;
+	wri->rows = rows;
+	wri->tilew = tilew;
+	wri->stride = stride;
+	wri->pixelbits = samplesperpixel * bitspersample;
+
+	// ARGB pixels are written as they are
+	if (color != COLOR_ARGB)
 	{
-		for (i=0; i<length; i++)
+		wri->buffer = fz_malloc_no_throw(ctx, stride * fz_mini(rows, h));
+
+		if (!wri->buffer)
 		{
-			*ptrbuf++ = pixels[0];
-			*ptrbuf++ = pixels[1];
-			*ptrbuf++ = pixels[2];
-			pixels += pix->n;
+			tif_drop(ctx, &wri->super);
+			fz_throw(ctx, "Could not allocate memory");
 		}
 	}
 
-	else if (color == COLOR_GRAY_SCALE)
+	if (tilew > 0)
 	{
-		for (i=0; i<length; i++)
+		wri->tile = fz_malloc_no_throw(ctx, tilew * wri->pixelbits / 8 * rows);
+
+		if (!wri->tile)
 		{
-			*ptrbuf++ = pixels[0];
-			pixels += pix->n;
+			tif_drop(ctx, &wri->super);
+			fz_throw(ctx, "Could not allocate memory");
 		}
 	}
 
-	else if (color == COLOR_BLACK_WHITE ||
-			 color == COLOR_BLACK_WHITE_DITHER)
+	if (session)
 	{
-		int dither = (color == COLOR_BLACK_WHITE_DITHER);
-		if (ccitt == 1)
-		{
-			rc = jni_pix_to_binary(ctx, pix, dither, ptrbuf);
-		}
-		else
-		{
-			rc = jni_pix_to_black_white(ctx, pix, dither, ptrbuf);
-		}
+		wri->image = session->image;
+	}
+	else
+	{
+		wri->image = open_tif(file, mode, 1);
 	}
 
-	if (rc == 0)
+	if (!wri->image)
 	{
-		rc = write_tif(trgbuf, file, mode, quality,
-					  compression, photometric, resolution, bitspersample,
-					  samplesperpixel, size, pix->w, pix->h);
+		tif_drop(ctx, &wri->super);
+		fz_throw(ctx, "cannot open tif file");
 	}
 
-	fz_free(ctx, trgbuf);
+	set_tif_fields(wri->image, quality,
+			     compression, photometric, resolution, bitspersample,
+			     samplesperpixel, rows, tilew, w, h);
+
+	return &wri->super;
+}
+
+/**
+ * Create a TIF band writer that opens file and closes it when done.
+ * Bands must be rows high except for the last one.
+ *
+ */
+jni_band_writer *jni_new_tif_writer(fz_context *ctx, const char *file, int w, int h, int n, int rows, float zoom, int compression, int color, int mode, int quality)
+{
+	return tif_new_writer(ctx, file, NULL, w, h, n, rows, 0, zoom, compression, color, mode, quality);
+}
+
+/**
+ * Create a TIF band writer that adds a page to a session. Bands must
+ * be rows high except for the last one. Tiles are used when tilew is
+ * not zero.
+ *
+ */
+jni_band_writer *jni_new_tif_page_writer(fz_context *ctx, jni_tif_session *session, int w, int h, int n, int rows, int tilew, float zoom, int compression, int color, int quality)
+{
+	return tif_new_writer(ctx, NULL, session, w, h, n, rows, tilew, zoom, compression, color, 1, quality);
+}
+
+/**
+ * Open a TIF file to add pages to. Mode 0 discards existing contents.
+ *
+ */
+jni_tif_session *jni_open_tif_session(const char *file, int mode)
+{
+	jni_tif_session *session = malloc(sizeof(jni_tif_session));
+
+	if (!session)
+	{
+		return NULL;
+	}
+
+	session->err = 0;
+	session->image = open_tif(file, mode, 0);
+
+	if (!session->image)
+	{
+		free(session);
+		return NULL;
+	}
+
+	return session;
+}
+
+/**
+ * Close a session. Returns 0 if every page was written.
+ *
+ */
+int jni_close_tif_session(jni_tif_session *session)
+{
+	if (!session)
+	{
+		return 0;
+	}
+
+	int rc = TIFFFlush(session->image) && !session->err;
+	TIFFClose(session->image);
+	free(session);
+
+	return rc ? 0 : -1;
+}
+
+/**
+ * Create a new single page or multi-page TIF image
+ *
+ */
+int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int compression, int color, int mode, int quality)
+{
+	jni_band_writer *wri = NULL;
+	int rc = 0;
+
+	fz_var(wri);
+
+	fz_try(ctx)
+	{
+		wri = jni_new_tif_writer(ctx, file, pix->w, pix->h, pix->n, pix->h, zoom, compression, color, mode, quality);
+		wri->write_band(ctx, wri, pix);
+		wri->close(ctx, wri);
+	}
+	fz_always(ctx)
+	{
+		if (wri)
+		{
+			wri->drop(ctx, wri);
+		}
+	}
+	fz_catch(ctx)
+	{
+		rc = -2;
+	}
 
 	return rc;
 }
@@ -8,9 +8,11 @@ package com.jmupdf;
 
 import java.nio.ByteBuffer;
 
+import com.jmupdf.document.DocumentChannel;
 import com.jmupdf.document.DocumentOutline;
 import com.jmupdf.page.PageLinks;
 import com.jmupdf.page.PageText;
+import com.jmupdf.page.RenderSpec;
 
 /**
  *
@@ -27,8 +29,16 @@ public abstract class JmuPdf {
 
 	/* PDF, XPS, CBZ common document functions (document level) */
 	protected native long open(int type, byte[] pdf, byte[] password, int maxStore);
+	protected native long openMapped(int type, byte[] pdf, byte[] password, int maxStore);
+	protected native long openDirectBuffer(int type, ByteBuffer document, int offset, int length, byte[] password, int maxStore);
+	protected native long openChannel(int type, DocumentChannel document, byte[] password, int maxStore);
 	protected native void close(long handle);
 	protected native int getVersion(long handle);
+	protected native int getPageGeometries(long handle, float[] geometry);
+	protected native void setListCacheSize(long handle, int size);
+	protected native int getListCacheStats(long handle, int[] stats);
+	protected native void setPixelPoolSize(long handle, int size);
+	protected native int getPixelPoolStats(long handle, int[] stats);
 	protected native int getPageCount(long handle);
 	protected native DocumentOutline getOutline(long handle);
 	
@@ -39,6 +49,7 @@ public abstract class JmuPdf {
 	/* PDF, XPS, CBZ common page functions (page level) */
 	protected native long newPage(long handle, int page, float[] info);
 	protected native long freePage(long handle);
+	protected native int loadPageList(long handle);
 	protected native PageText[] getPageText(long handle, float threshold, float x0, float y0, float x1, float y1);
 	protected native PageLinks[] getPageLinks(long handle);
 	
@@ -47,6 +58,21 @@ public abstract class JmuPdf {
 	protected native void freeByteBuffer(long handle, ByteBuffer buffer);
 	protected native int saveAsFile(long handle, byte[] file);
 	protected native byte[] saveAsByte(long handle);
+	protected native ByteBuffer renderPixels(long handle, RenderSpec spec, int[] bbox);
+	protected native int renderInto(long handle, RenderSpec spec, ByteBuffer target, int offset, int length, int[] bbox);
+	protected native int renderFile(long handle, RenderSpec spec, byte[] file);
+	protected native byte[] renderBytes(long handle, RenderSpec spec);
+	protected native int renderStream(long handle, RenderSpec spec, Object channel);
+	protected native long renderPixmap(long handle, RenderSpec spec, int[] bbox);
+	protected native int encodePixmap(long handle, byte[] file);
+	protected native byte[] encodePixmapBytes(long handle);
+	protected native int encodePixmapStream(long handle, Object channel);
+	protected native void freePixmap(long handle);
+	
+	/* TIF files kept open across pages */
+	protected native long openTiff(byte[] file, int mode);
+	protected native int writeTiffPage(long handle, long page, RenderSpec spec, int stripRows, int tileWidth, int tileHeight);
+	protected native int closeTiff(long handle);
 	
 	/* Get pointer to page rendering options data structure */
 	protected native ByteBuffer getPageOptionsStruct(long handle);
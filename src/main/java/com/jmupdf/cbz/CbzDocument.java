@@ -5,8 +5,12 @@
  */
 package com.jmupdf.cbz;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
 import com.jmupdf.document.DocumentImp;
 import com.jmupdf.enums.DocumentType;
+import com.jmupdf.enums.OpenMode;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 
@@ -40,6 +44,29 @@ public final class CbzDocument extends DocumentImp  {
 		this(document, 0);
 	}
 
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param maxStore
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(String document, int maxStore, OpenMode mode) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore, mode);
+	}
+	
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(String document, OpenMode mode) throws DocException, DocSecurityException {
+		this(document, 0, mode);
+	}
+
 	/**
 	 * Create a new document object
 	 * @param document
@@ -61,6 +88,50 @@ public final class CbzDocument extends DocumentImp  {
 		this(document, 0);
 	}
 
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(ByteBuffer document, int maxStore) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore);
+	}
+	
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(ByteBuffer document) throws DocException, DocSecurityException {
+		this(document, 0);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel. </br>
+	 * The channel must stay open until the document is disposed.
+	 * @param document
+	 * @param maxStore
+	 * @param readAhead : Read ahead buffer size in bytes
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(SeekableByteChannel document, int maxStore, int readAhead) throws DocException, DocSecurityException {
+		open(document, readAhead, null, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(SeekableByteChannel document) throws DocException, DocSecurityException {
+		this(document, 0, DEFAULT_READ_AHEAD);
+	}
+
 	/**
 	 * Clone current document.
 	 * This will create a new handle to document. </br>
@@ -70,7 +141,13 @@ public final class CbzDocument extends DocumentImp  {
 		CbzDocument doc = null;
 		if (getHandle() > 0) {
 			try {
-				doc = new CbzDocument(getDocumentName());
+				if (getDocumentBuffer() != null) {
+					doc = new CbzDocument(getDocumentBuffer());
+				} else if (getDocumentChannel() != null) {
+					doc = new CbzDocument(getDocumentChannel(), 0, getReadAhead());
+				} else {
+					doc = new CbzDocument(getDocumentName(), 0, getOpenMode());
+				}
 			} catch (DocException e) {
 				doc = null;
 			} catch (DocSecurityException e) {
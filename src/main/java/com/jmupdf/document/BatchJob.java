@@ -0,0 +1,98 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch Job Class
+ *
+ * A range of pages of one document queued for rendering. </br>
+ * Every worker thread renders with its own handle, cloned the first </br>
+ * time the worker touches the document.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+class BatchJob {
+	final DocumentImp document;
+	final int first;
+	final int last;
+	final AtomicInteger remaining = new AtomicInteger();
+	int offset;
+	private final ConcurrentHashMap<Thread, DocumentImp> handles = new ConcurrentHashMap<Thread, DocumentImp>();
+
+	/**
+	 * Create a batch job
+	 *
+	 * @param document
+	 * @param first : First page, 1 based
+	 * @param last : Last page, inclusive
+	 */
+	BatchJob(DocumentImp document, int first, int last) {
+		this.document = document;
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * Get number of pages
+	 * @return
+	 */
+	int getPages() {
+		return last - first + 1;
+	}
+
+	/**
+	 * Get handle owned by current worker. Cloned on first use.
+	 * @return
+	 */
+	DocumentImp getHandle() {
+		Thread worker = Thread.currentThread();
+		DocumentImp doc = handles.get(worker);
+		if (doc == null) {
+			doc = document.clone();
+			if (doc != null) {
+				handles.put(worker, doc);
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Dispose of all worker handles
+	 */
+	void dispose() {
+		for (DocumentImp doc : handles.values()) {
+			doc.dispose();
+		}
+		handles.clear();
+	}
+
+	/**
+	 * Find job a batch index belongs to. Jobs are ordered by offset.
+	 *
+	 * @param jobs
+	 * @param index
+	 * @return
+	 */
+	static BatchJob find(List<BatchJob> jobs, int index) {
+		int lo = 0;
+		int hi = jobs.size() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (jobs.get(mid).offset <= index) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return jobs.get(lo);
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.RenderSink;
+import com.jmupdf.page.RenderSpec;
+
+/**
+ * Batch Renderer Class
+ *
+ * Renders page ranges of several documents with one specification. </br>
+ * Pages are scheduled on a work stealing fork join pool, so workers </br>
+ * that finish early take pages from busy ones across documents. </br></br>
+ *
+ * Every worker renders with its own document handle, cloned the first </br>
+ * time the worker touches a document. Handles are disposed as soon as </br>
+ * all pages of their document are done. The documents added are never </br>
+ * rendered from directly and are not disposed.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class BatchRenderer {
+	private final RenderSpec spec;
+	private final RenderSink sink;
+	private final int parallelism;
+	private final List<BatchJob> jobs = new ArrayList<BatchJob>();
+
+	/**
+	 * Create a batch renderer
+	 *
+	 * @param spec
+	 * @param sink
+	 * @param parallelism : Number of workers. Defaults to available processors when <= 0.
+	 */
+	public BatchRenderer(RenderSpec spec, RenderSink sink, int parallelism) {
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		this.spec = spec;
+		this.sink = sink;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Create a batch renderer with one worker per available processor
+	 *
+	 * @param spec
+	 * @param sink
+	 */
+	public BatchRenderer(RenderSpec spec, RenderSink sink) {
+		this(spec, sink, 0);
+	}
+
+	/**
+	 * Add all pages of a document
+	 * @param document
+	 */
+	public void add(DocumentImp document) {
+		add(document, 1, document.getPageCount());
+	}
+
+	/**
+	 * Add a range of pages of a document
+	 *
+	 * @param document
+	 * @param first : First page, 1 based
+	 * @param last : Last page, inclusive
+	 */
+	public void add(DocumentImp document, int first, int last) {
+		first = Math.max(first, 1);
+		last = Math.min(last, document.getPageCount());
+		if (first <= last) {
+			jobs.add(new BatchJob(document, first, last));
+		}
+	}
+
+	/**
+	 * Get number of workers
+	 * @return
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Render all pages added and wait until they are delivered. </br>
+	 * Pages that fail are counted and the batch goes on.
+	 *
+	 * @return Batch statistics
+	 */
+	public BatchStats render() {
+		int total = 0;
+		for (BatchJob job : jobs) {
+			job.offset = total;
+			job.remaining.set(job.getPages());
+			total += job.getPages();
+		}
+
+		Batch batch = new Batch(total);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long start = System.nanoTime();
+		try {
+			pool.invoke(new PageRange(batch, 0, total));
+		} finally {
+			pool.shutdown();
+			for (BatchJob job : jobs) {
+				job.dispose();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return new BatchStats(batch.latencies, batch.failures.get(), elapsed, batch.error.get());
+	}
+
+	/**
+	 * Render one page and hand it to the sink
+	 *
+	 * @param batch
+	 * @param index : Index of page in batch
+	 */
+	private void renderPage(Batch batch, int index) {
+		BatchJob job = BatchJob.find(jobs, index);
+		int pageNumber = job.first + index - job.offset;
+		long start = System.nanoTime();
+		try {
+			if (!renderPage(job, pageNumber)) {
+				batch.failures.incrementAndGet();
+			}
+		} catch (Throwable e) {
+			batch.failures.incrementAndGet();
+			batch.error.compareAndSet(null, e);
+		} finally {
+			batch.latencies[index] = System.nanoTime() - start;
+			if (job.remaining.decrementAndGet() == 0) {
+				job.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Render one page with the handle of the current worker
+	 *
+	 * @param job
+	 * @param pageNumber
+	 * @return True when the page was delivered
+	 * @throws Exception
+	 */
+	private boolean renderPage(BatchJob job, int pageNumber) throws Exception {
+		DocumentImp doc = job.getHandle();
+		if (doc == null) {
+			return false;
+		}
+		Page page = doc.getPage(pageNumber);
+		try {
+			String file = sink.getFile(job.document, pageNumber);
+			if (file != null) {
+				return page.saveAsImage(file, spec);
+			}
+			if (spec.getImageFormat() != ImageFormat.FORMAT_PNG &&
+				spec.getImageFormat() != ImageFormat.FORMAT_JPG) {
+				return false;
+			}
+			byte[] image = page.saveAsImage(spec);
+			if (image == null) {
+				return false;
+			}
+			sink.write(job.document, pageNumber, image);
+			return true;
+		} finally {
+			page.dispose();
+		}
+	}
+
+	/**
+	 * Shared state of one render call
+	 */
+	private static class Batch {
+		private final long[] latencies;
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Batch(int pages) {
+			this.latencies = new long[pages];
+		}
+	}
+
+	/**
+	 * Range of batch indexes split in halves until one page is left
+	 */
+	private class PageRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Batch batch;
+		private final int from;
+		private final int to;
+
+		PageRange(Batch batch, int from, int to) {
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+		}
+
+		/* */
+		protected void compute() {
+			if (to - from <= 1) {
+				if (from < to) {
+					renderPage(batch, from);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new PageRange(batch, from, mid), new PageRange(batch, mid, to));
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.util.Arrays;
+
+/**
+ * Batch Statistics Class
+ *
+ * Throughput and per page latency of one batch render. </br>
+ * Latency is measured from the moment a worker picks up a page </br>
+ * until the page is delivered to the sink.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class BatchStats {
+	private final int pages;
+	private final int failures;
+	private final long elapsed;
+	private final long[] latencies;
+	private final Throwable error;
+
+	/**
+	 * Create batch statistics
+	 *
+	 * @param latencies : Latency of every page in nanoseconds
+	 * @param failures
+	 * @param elapsed : Wall time in nanoseconds
+	 * @param error : First error or null
+	 */
+	BatchStats(long[] latencies, int failures, long elapsed, Throwable error) {
+		this.latencies = latencies.clone();
+		Arrays.sort(this.latencies);
+		this.pages = latencies.length;
+		this.failures = failures;
+		this.elapsed = elapsed;
+		this.error = error;
+	}
+
+	/**
+	 * Get number of pages scheduled
+	 * @return
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * Get number of pages that could not be rendered or delivered
+	 * @return
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Get first error raised while rendering or delivering a page
+	 * @return
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Get wall time in milliseconds
+	 * @return
+	 */
+	public double getElapsed() {
+		return elapsed / 1e6;
+	}
+
+	/**
+	 * Get pages rendered per second
+	 * @return
+	 */
+	public double getPagesPerSecond() {
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return (pages - failures) / (elapsed / 1e9);
+	}
+
+	/**
+	 * Get page latency percentile in milliseconds
+	 * @param percentile : 0 to 100
+	 * @return
+	 */
+	public double getLatency(double percentile) {
+		if (latencies.length == 0) {
+			return 0;
+		}
+		if (percentile < 0) {
+			percentile = 0;
+		} else if (percentile > 100) {
+			percentile = 100;
+		}
+		int i = (int)Math.ceil(percentile / 100 * latencies.length) - 1;
+		return latencies[Math.max(i, 0)] / 1e6;
+	}
+
+	/**
+	 * Get mean page latency in milliseconds
+	 * @return
+	 */
+	public double getMeanLatency() {
+		if (latencies.length == 0) {
+			return 0;
+		}
+		long total = 0;
+		for (long l : latencies) {
+			total += l;
+		}
+		return total / 1e6 / latencies.length;
+	}
+
+	/* */
+	public String toString() {
+		return String.format("pages=%d failures=%d elapsed=%.1fms pages/s=%.2f latency p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+							 getPages(), getFailures(), getElapsed(), getPagesPerSecond(),
+							 getLatency(50), getLatency(90), getLatency(99), getLatency(100));
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Document Channel Class
+ *
+ * Feeds document data from a seekable channel to the native stream. </br>
+ * The native layer reads straight out of the direct read ahead buffer, </br>
+ * so each call back costs one positioned channel read and no copy. </br>
+ * File channels are read with positional reads; other channels are </br>
+ * shared between documents by synchronizing on the channel.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class DocumentChannel {
+	private final SeekableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final long size;
+
+	/**
+	 * Create a document channel
+	 *
+	 * @param channel
+	 * @param readAhead : Size of read ahead buffer in bytes
+	 * @throws IOException
+	 */
+	public DocumentChannel(SeekableByteChannel channel, int readAhead) throws IOException {
+		if (readAhead <= 0) {
+			readAhead = DocumentImp.DEFAULT_READ_AHEAD;
+		}
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(readAhead);
+		this.size = channel.size();
+	}
+
+	/**
+	 * Fill read ahead buffer starting at position. </br>
+	 * Called from native code.
+	 *
+	 * @param position
+	 * @return Number of bytes read, 0 at end of channel or -1 on error
+	 */
+	public int read(long position) {
+		buffer.clear();
+		try {
+			if (channel instanceof FileChannel) {
+				FileChannel file = (FileChannel)channel;
+				while (buffer.hasRemaining()) {
+					if (file.read(buffer, position + buffer.position()) < 0) {
+						break;
+					}
+				}
+			} else {
+				synchronized (channel) {
+					channel.position(position);
+					while (buffer.hasRemaining()) {
+						if (channel.read(buffer) < 0) {
+							break;
+						}
+					}
+				}
+			}
+			return buffer.position();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Get channel size captured when opened
+	 * @return
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Get direct read ahead buffer
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get underlying channel
+	 * @return
+	 */
+	public SeekableByteChannel getChannel() {
+		return channel;
+	}
+
+}
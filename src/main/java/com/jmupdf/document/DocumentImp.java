@@ -6,11 +6,13 @@
 package com.jmupdf.document;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 
 import com.jmupdf.JmuPdf;
 import com.jmupdf.enums.DocumentType;
+import com.jmupdf.enums.OpenMode;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 import com.jmupdf.exceptions.PageException;
@@ -26,16 +28,22 @@ import com.jmupdf.page.PageRect;
  *
  */
 public abstract class DocumentImp extends JmuPdf implements Document {
+	public static final int DEFAULT_READ_AHEAD = 64 << 10;
+
 	private String document;
 	private String fileName;
 	private String path;
 	private String password;
 	private DocumentType type;
+	private OpenMode mode;
 	private long handle;
 	private int pageCount;	
 	private int maxStore;
-	private boolean isCached;		
+	private ByteBuffer buffer;
+	private DocumentChannel channel;
 	private DocumentOutline outline;
+	private float[] geometries;
+	private PixelBufferPool pixelPool;
 	
 	/**
 	 * Open a document
@@ -48,13 +56,30 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 	 * @throws DocSecurityException
 	 */
 	protected void open(String document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
+		open(document, password, type, maxStore, OpenMode.OPEN_MODE_FILE);
+	}
+
+	/**
+	 * Open a document
+	 * 
+	 * @param document
+	 * @param password
+	 * @param type
+	 * @param maxStore
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	protected void open(String document, String password, DocumentType type, int maxStore, OpenMode mode) throws DocException, DocSecurityException  {
 		this.document = document;
 		this.password = password;
 		this.type = type;
+		this.mode = mode;
 		this.maxStore = maxStore << 20;
 		this.handle = 0;
 		this.pageCount = 0;
-		this.isCached = false;
+		this.buffer = null;
+		this.channel = null;
 
 		File file = new File(getDocumentName());
 
@@ -62,7 +87,11 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 			throw new DocException("Document " + document + " does not exist.");
 		} 
 
-		handle = open(getType().getIntValue(), getDocumentName().getBytes(), getPassWord().getBytes(), getMaxStore());
+		if (getOpenMode() == OpenMode.OPEN_MODE_MMAP) {
+			handle = openMapped(getType().getIntValue(), getDocumentName().getBytes(), getPassWord().getBytes(), getMaxStore());
+		} else {
+			handle = open(getType().getIntValue(), getDocumentName().getBytes(), getPassWord().getBytes(), getMaxStore());
+		}
 
 		if (getHandle() > 0) {
 			pageCount = getPageCount(getHandle());
@@ -88,32 +117,135 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 	 * @throws DocSecurityException
 	 */
 	protected void open(byte[] document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
-		try {
-			File tmp = File.createTempFile("jmupdf" + getClass().hashCode(), ".tmp");
-			tmp.deleteOnExit();
+		if (document == null) {
+			throw new DocException("Error: byte[] document could not be opened.");
+		}
+		open(ByteBuffer.wrap(document), password, type, maxStore);
+	}
+
+	/**
+	 * Open a document from memory. </br></br>
+	 * 
+	 * The bytes between the buffer position and limit are used. A direct buffer </br>
+	 * is read in place and must not be modified until the document is disposed. </br>
+	 * Any other buffer is copied once into a direct buffer that is read in </br>
+	 * place and shared with clones. The caller's buffer is not kept.
+	 * 
+	 * @param document
+	 * @param password
+	 * @param type
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	protected void open(ByteBuffer document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
+		this.document = null;
+		this.password = password;
+		this.type = type;
+		this.mode = OpenMode.OPEN_MODE_FILE;
+		this.maxStore = maxStore << 20;
+		this.handle = 0;
+		this.pageCount = 0;
+		this.buffer = null;
+		this.channel = null;
+
+		if (document == null || !document.hasRemaining()) {
+			throw new DocException("Error: ByteBuffer document could not be opened.");
+		}
+
+		// Keep our own view so later position changes by the caller do not matter
+		if (document.isDirect()) {
+			buffer = document.slice();
+		} else {
+			buffer = ByteBuffer.allocateDirect(document.remaining());
+			buffer.put(document.duplicate());
+			buffer.flip();
+		}
+
+		handle = openDirectBuffer(getType().getIntValue(), buffer, 0, buffer.remaining(), getPassWord().getBytes(), getMaxStore());
+
+		if (getHandle() > 0) {
+			pageCount = getPageCount(getHandle());
+		} else {
+			buffer = null;
+			if (getHandle() == -3) {
+				throw new DocSecurityException("Error " + getHandle() + ": Document requires authentication");
+			} else {
+				throw new DocException("Error " + getHandle() + ": In memory document could not be opened.");
+			}
+		}
+	}
+
+	/**
+	 * Open a document from a seekable channel. </br></br>
+	 * 
+	 * Document data is read on demand through a direct read ahead buffer </br>
+	 * of readAhead bytes. The channel must stay open until the document is </br>
+	 * disposed and is not closed by this class. Channels may be shared by </br>
+	 * several documents; reads are synchronized on the channel.
+	 * 
+	 * @param document
+	 * @param readAhead
+	 * @param password
+	 * @param type
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	protected void open(SeekableByteChannel document, int readAhead, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
+		this.document = null;
+		this.password = password;
+		this.type = type;
+		this.mode = OpenMode.OPEN_MODE_FILE;
+		this.maxStore = maxStore << 20;
+		this.handle = 0;
+		this.pageCount = 0;
+		this.buffer = null;
+		this.channel = null;
 
-			FileOutputStream fos = new FileOutputStream(tmp.getAbsolutePath(), true);
-            fos.write(document, 0, document.length);
-            fos.flush();
-            fos.close();
+		if (document == null || !document.isOpen()) {
+			throw new DocException("Error: SeekableByteChannel document could not be opened.");
+		}
 
-            open(tmp.getAbsolutePath(), password, type, maxStore);
-    		isCached = true;
+		try {
+			channel = new DocumentChannel(document, readAhead);
 		} catch (IOException e) {
-			throw new DocException("Error: byte[] document could not be opened.");
+			throw new DocException("Error: SeekableByteChannel document could not be opened. " + e.getMessage());
+		}
+
+		if (channel.size() <= 0 || channel.size() > Integer.MAX_VALUE) {
+			channel = null;
+			throw new DocException("Error: SeekableByteChannel document size is not supported.");
+		}
+
+		handle = openChannel(getType().getIntValue(), channel, getPassWord().getBytes(), getMaxStore());
+
+		if (getHandle() > 0) {
+			pageCount = getPageCount(getHandle());
+		} else {
+			channel = null;
+			if (getHandle() == -3) {
+				throw new DocSecurityException("Error " + getHandle() + ": Document requires authentication");
+			} else {
+				throw new DocException("Error " + getHandle() + ": Channel document could not be opened.");
+			}
 		}
 	}
 
+	/**
+	 * Clone current document.
+	 * This will create a new handle to document. </br>
+	 * If document could not be cloned a null value will be returned.
+	 */
+	public abstract DocumentImp clone();
+
 	/* */
 	public void dispose() {
 		if (getHandle() > 0) {
 			close(getHandle());
-			if (isCached) {
-				File file = new File(document);
-				if (file.exists()) {
-					file.delete();
-				}
-			}
+			buffer = null;
+			channel = null;
+			geometries = null;
 			if (outline != null) {
 				disposeOutline(outline);
 			}
@@ -131,6 +263,17 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		return type;
 	}
 	
+	/**
+	 * Get mode the document file was opened with
+	 * @return
+	 */
+	public OpenMode getOpenMode() {
+		if (mode == null) {
+			mode = OpenMode.OPEN_MODE_FILE;
+		}
+		return mode;
+	}
+
 	/* */
 	public int getMaxStore() {
 		if (maxStore <= 0) {
@@ -171,6 +314,39 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		return path;
 	}
 	
+	/**
+	 * Get the memory buffer this document was opened from. </br>
+	 * Returns null if the document was opened from a file. </br>
+	 * The buffer is always direct, so clones read it in place.
+	 * @return
+	 */
+	protected ByteBuffer getDocumentBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get the channel this document was opened from. </br>
+	 * Returns null if the document was not opened from a channel.
+	 * @return
+	 */
+	protected SeekableByteChannel getDocumentChannel() {
+		if (channel == null) {
+			return null;
+		}
+		return channel.getChannel();
+	}
+
+	/**
+	 * Get read ahead buffer size of a channel document
+	 * @return
+	 */
+	protected int getReadAhead() {
+		if (channel == null) {
+			return DEFAULT_READ_AHEAD;
+		}
+		return channel.getBuffer().capacity();
+	}
+
 	/* */
 	public String getPassWord() {
 		if (password == null) {
@@ -200,6 +376,64 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		return 0;
 	}
 
+	/* */
+	public float[] getPageGeometries() {
+		if (getHandle() > 0) {
+			synchronized (this) {
+				if (geometries == null) {
+					float[] g = new float[getPageCount() * 5];
+					int rc = getPageGeometries(getHandle(), g);
+					if (rc < 0) {
+						log("Error " + rc + ": Page geometries could not be read.");
+						return null;
+					}
+					geometries = g;
+				}
+			}
+			return geometries.clone();
+		}
+		return null;
+	}
+
+	/**
+	 * Set display list cache size in bytes. </br>
+	 * Display lists of recently used pages are kept so that new page </br>
+	 * objects for the same page share one list instead of interpreting </br>
+	 * the page again. Lists in use by a page are never dropped. </br>
+	 * The default size is 16mb; 0 disables caching of unused lists.
+	 * 
+	 * @param size
+	 */
+	public void setDisplayListCacheSize(int size) {
+		if (getHandle() > 0) {
+			setListCacheSize(getHandle(), size);
+		}
+	}
+
+	/**
+	 * Get display list cache statistics. </br>
+	 * Values are hits, misses, evictions, entries, size and max size.
+	 * @return
+	 */
+	public int[] getDisplayListCacheStats() {
+		int[] stats = new int[6];
+		if (getHandle() > 0) {
+			getListCacheStats(getHandle(), stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Get pool native pixel buffers are taken from
+	 * @return
+	 */
+	public synchronized PixelBufferPool getPixelBufferPool() {
+		if (pixelPool == null) {
+			pixelPool = new PixelBufferPool(this);
+		}
+		return pixelPool;
+	}
+
 	/* */
 	public Page getPage(int page) throws PageException {
 		if (getHandle() > 0) {
@@ -0,0 +1,216 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageTask;
+
+/**
+ * Document Pool Class
+ *
+ * Keeps several independently opened handles of one document. </br>
+ * Every handle has its own native context, locks and display list </br>
+ * cache, so pages borrowed from different handles render without </br>
+ * contending on a single document lock. </br></br>
+ *
+ * Handles are created with clone(). Documents opened from memory share </br>
+ * one direct buffer, memory mapped documents share the page cache and </br>
+ * channel documents share the channel. </br></br>
+ *
+ * Idle handles and the disposed state are guarded by the pool's </br>
+ * monitor, so a handle released while the pool is disposed is never </br>
+ * left behind undisposed.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class DocumentPool {
+	private final DocumentImp document;
+	private final List<DocumentImp> handles;
+	private final ArrayDeque<DocumentImp> idle;
+	private boolean disposed = false;
+
+	/**
+	 * Create a document pool
+	 *
+	 * @param document : Document to clone handles from. It is not part of the pool.
+	 * @param size : Number of handles. Defaults to available processors when <= 0.
+	 * @throws DocException
+	 */
+	public DocumentPool(DocumentImp document, int size) throws DocException {
+		if (document == null || document.getHandle() <= 0) {
+			throw new DocException("Error: Document pool requires an open document.");
+		}
+		if (size <= 0) {
+			size = Runtime.getRuntime().availableProcessors();
+		}
+		this.document = document;
+		this.handles = new ArrayList<DocumentImp>(size);
+		this.idle = new ArrayDeque<DocumentImp>(size);
+		for (int i = 0; i < size; i++) {
+			DocumentImp doc = document.clone();
+			if (doc == null) {
+				dispose();
+				throw new DocException("Error: Document handle " + i + " could not be created.");
+			}
+			handles.add(doc);
+			idle.add(doc);
+		}
+	}
+
+	/**
+	 * Create a document pool with one handle per available processor
+	 *
+	 * @param document
+	 * @throws DocException
+	 */
+	public DocumentPool(DocumentImp document) throws DocException {
+		this(document, 0);
+	}
+
+	/**
+	 * Borrow a document handle. Waits until one is available. </br>
+	 * Every borrowed handle must be given back with release(). </br>
+	 * Throws IllegalStateException if the pool is disposed, also while waiting.
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public synchronized DocumentImp borrow() throws InterruptedException {
+		while (!disposed && idle.isEmpty()) {
+			wait();
+		}
+		checkDisposed();
+		return idle.poll();
+	}
+
+	/**
+	 * Borrow a document handle. </br>
+	 * Returns null if no handle became available within timeout. </br>
+	 * Throws IllegalStateException if the pool is disposed, also while waiting.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public synchronized DocumentImp borrow(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long left = unit.toNanos(timeout);
+		while (!disposed && idle.isEmpty() && left > 0) {
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+			left = deadline - System.nanoTime();
+		}
+		checkDisposed();
+		return idle.poll();
+	}
+
+	/**
+	 * Give back a borrowed document handle
+	 *
+	 * @param doc
+	 */
+	public void release(DocumentImp doc) {
+		if (doc == null || !handles.contains(doc)) {
+			return;
+		}
+		synchronized (this) {
+			if (idle.contains(doc)) {
+				return;
+			}
+			if (!disposed) {
+				idle.add(doc);
+				notify();
+				return;
+			}
+		}
+		doc.dispose();
+	}
+
+	/**
+	 * Run a task against a page. </br>
+	 * A handle is borrowed, the page is created, the task is run and both </br>
+	 * page and handle are given back before returning.
+	 *
+	 * @param page
+	 * @param task
+	 * @return Task result
+	 * @throws PageException
+	 * @throws InterruptedException
+	 */
+	public <T> T withPage(int page, PageTask<T> task) throws PageException, InterruptedException {
+		DocumentImp doc = borrow();
+		try {
+			Page p = doc.getPage(page);
+			try {
+				return task.execute(p);
+			} finally {
+				p.dispose();
+			}
+		} finally {
+			release(doc);
+		}
+	}
+
+	/**
+	 * Get document handles are cloned from
+	 * @return
+	 */
+	public DocumentImp getDocument() {
+		return document;
+	}
+
+	/**
+	 * Get number of handles in pool
+	 * @return
+	 */
+	public int getSize() {
+		return handles.size();
+	}
+
+	/**
+	 * Get number of handles not borrowed
+	 * @return
+	 */
+	public synchronized int getAvailable() {
+		return idle.size();
+	}
+
+	/**
+	 * Dispose of all idle handles. Borrowed handles are disposed </br>
+	 * when released. Threads waiting to borrow are woken and fail. </br>
+	 * The source document is not disposed.
+	 */
+	public void dispose() {
+		List<DocumentImp> docs;
+		synchronized (this) {
+			disposed = true;
+			docs = new ArrayList<DocumentImp>(idle);
+			idle.clear();
+			notifyAll();
+		}
+		for (DocumentImp doc : docs) {
+			doc.dispose();
+		}
+	}
+
+	/**
+	 * Fail fast once pool is disposed
+	 */
+	private synchronized void checkDisposed() {
+		if (disposed) {
+			throw new IllegalStateException("Document pool has been disposed.");
+		}
+	}
+
+}
@@ -0,0 +1,323 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.RenderSink;
+import com.jmupdf.page.PagePixmap;
+import com.jmupdf.page.RenderSpec;
+
+/**
+ * Export Pipeline Class
+ *
+ * Exports page ranges of several documents in two stages. Render workers </br>
+ * rasterize pages to native pixmaps and hand them to encode workers </br>
+ * through a bounded queue, so the next page is rasterized while the </br>
+ * previous one is being compressed. Each stage has its own number of </br>
+ * workers. </br></br>
+ *
+ * When the queue is full render workers wait, so no more than queue size </br>
+ * plus one per worker pixmaps are held at any time. Render workers use </br>
+ * their own cloned document handles, which are disposed as soon as all </br>
+ * pages of their document are encoded. The documents added are never </br>
+ * rendered from directly and are not disposed.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class ExportPipeline {
+	private final RenderSpec spec;
+	private final RenderSink sink;
+	private final int renderThreads;
+	private final int encodeThreads;
+	private final int queueSize;
+	private final List<BatchJob> jobs = new ArrayList<BatchJob>();
+
+	/* Tells encode workers no more pixmaps follow */
+	private static final Rendered END = new Rendered(null, 0, 0, null, 0);
+
+	/**
+	 * Create an export pipeline
+	 *
+	 * @param spec
+	 * @param sink
+	 * @param renderThreads : Number of render workers. Defaults to available processors when <= 0.
+	 * @param encodeThreads : Number of encode workers. Defaults to available processors when <= 0.
+	 * @param queueSize : Number of rendered pages waiting to be encoded. Defaults to two per encode worker when <= 0.
+	 */
+	public ExportPipeline(RenderSpec spec, RenderSink sink, int renderThreads, int encodeThreads, int queueSize) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (renderThreads <= 0) {
+			renderThreads = processors;
+		}
+		if (encodeThreads <= 0) {
+			encodeThreads = processors;
+		}
+		if (queueSize <= 0) {
+			queueSize = encodeThreads * 2;
+		}
+		this.spec = spec;
+		this.sink = sink;
+		this.renderThreads = renderThreads;
+		this.encodeThreads = encodeThreads;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Create an export pipeline with one render and one encode worker </br>
+	 * per available processor
+	 *
+	 * @param spec
+	 * @param sink
+	 */
+	public ExportPipeline(RenderSpec spec, RenderSink sink) {
+		this(spec, sink, 0, 0, 0);
+	}
+
+	/**
+	 * Add all pages of a document
+	 * @param document
+	 */
+	public void add(DocumentImp document) {
+		add(document, 1, document.getPageCount());
+	}
+
+	/**
+	 * Add a range of pages of a document
+	 *
+	 * @param document
+	 * @param first : First page, 1 based
+	 * @param last : Last page, inclusive
+	 */
+	public void add(DocumentImp document, int first, int last) {
+		first = Math.max(first, 1);
+		last = Math.min(last, document.getPageCount());
+		if (first <= last) {
+			jobs.add(new BatchJob(document, first, last));
+		}
+	}
+
+	/**
+	 * Get number of render workers
+	 * @return
+	 */
+	public int getRenderThreads() {
+		return renderThreads;
+	}
+
+	/**
+	 * Get number of encode workers
+	 * @return
+	 */
+	public int getEncodeThreads() {
+		return encodeThreads;
+	}
+
+	/**
+	 * Get number of rendered pages that may wait to be encoded
+	 * @return
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Export all pages added and wait until they are delivered. </br>
+	 * Pages that fail are counted and the export goes on. Page latency </br>
+	 * is measured from start of rendering to delivery.
+	 *
+	 * @return Batch statistics
+	 * @throws InterruptedException
+	 */
+	public BatchStats export() throws InterruptedException {
+		int total = 0;
+		for (BatchJob job : jobs) {
+			job.offset = total;
+			job.remaining.set(job.getPages());
+			total += job.getPages();
+		}
+
+		final Export export = new Export(total, queueSize);
+		ExecutorService renderers = Executors.newFixedThreadPool(renderThreads);
+		ExecutorService encoders = Executors.newFixedThreadPool(encodeThreads);
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < encodeThreads; i++) {
+				encoders.execute(new Runnable() {
+					public void run() {
+						encodePages(export);
+					}
+				});
+			}
+			for (int i = 0; i < total; i++) {
+				final int index = i;
+				renderers.execute(new Runnable() {
+					public void run() {
+						renderPage(export, index);
+					}
+				});
+			}
+			renderers.shutdown();
+			renderers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			for (int i = 0; i < encodeThreads; i++) {
+				export.queue.put(END);
+			}
+			encoders.shutdown();
+			encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			renderers.shutdownNow();
+			encoders.shutdownNow();
+			Rendered rendered;
+			while ((rendered = export.queue.poll()) != null) {
+				if (rendered != END) {
+					rendered.pixmap.dispose();
+				}
+			}
+			for (BatchJob job : jobs) {
+				job.dispose();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return new BatchStats(export.latencies, export.failures.get(), elapsed, export.error.get());
+	}
+
+	/**
+	 * Render one page and queue it for encoding. Waits while queue is full.
+	 *
+	 * @param export
+	 * @param index : Index of page in export
+	 */
+	private void renderPage(Export export, int index) {
+		BatchJob job = BatchJob.find(jobs, index);
+		int pageNumber = job.first + index - job.offset;
+		long start = System.nanoTime();
+		PagePixmap pixmap = null;
+		try {
+			DocumentImp doc = job.getHandle();
+			if (doc != null) {
+				Page page = doc.getPage(pageNumber);
+				try {
+					pixmap = page.renderPixmap(spec);
+				} finally {
+					page.dispose();
+				}
+			}
+			if (pixmap != null) {
+				export.queue.put(new Rendered(job, pageNumber, index, pixmap, start));
+				return;
+			}
+		} catch (Throwable e) {
+			if (pixmap != null) {
+				pixmap.dispose();
+			}
+			export.error.compareAndSet(null, e);
+		}
+		export.done(job, index, start, false);
+	}
+
+	/**
+	 * Encode queued pages until the end marker is taken
+	 * @param export
+	 */
+	private void encodePages(Export export) {
+		Rendered rendered;
+		try {
+			while ((rendered = export.queue.take()) != END) {
+				boolean delivered = false;
+				try {
+					delivered = encodePage(rendered);
+				} catch (Throwable e) {
+					export.error.compareAndSet(null, e);
+				} finally {
+					rendered.pixmap.dispose();
+				}
+				export.done(rendered.job, rendered.index, rendered.start, delivered);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Encode one rendered page and hand it to the sink
+	 *
+	 * @param rendered
+	 * @return True when the page was delivered
+	 * @throws Exception
+	 */
+	private boolean encodePage(Rendered rendered) throws Exception {
+		String file = sink.getFile(rendered.job.document, rendered.pageNumber);
+		if (file != null) {
+			return rendered.pixmap.encode(file);
+		}
+		byte[] image = rendered.pixmap.encode();
+		if (image == null) {
+			return false;
+		}
+		sink.write(rendered.job.document, rendered.pageNumber, image);
+		return true;
+	}
+
+	/**
+	 * A rendered page waiting to be encoded
+	 */
+	private static class Rendered {
+		private final BatchJob job;
+		private final int pageNumber;
+		private final int index;
+		private final PagePixmap pixmap;
+		private final long start;
+
+		Rendered(BatchJob job, int pageNumber, int index, PagePixmap pixmap, long start) {
+			this.job = job;
+			this.pageNumber = pageNumber;
+			this.index = index;
+			this.pixmap = pixmap;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * Shared state of one export call
+	 */
+	private static class Export {
+		private final BlockingQueue<Rendered> queue;
+		private final long[] latencies;
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Export(int pages, int queueSize) {
+			this.latencies = new long[pages];
+			this.queue = new ArrayBlockingQueue<Rendered>(queueSize);
+		}
+
+		/**
+		 * Record a finished page. Handles of a document are disposed </br>
+		 * once all its pages are finished.
+		 */
+		void done(BatchJob job, int index, long start, boolean delivered) {
+			latencies[index] = System.nanoTime() - start;
+			if (!delivered) {
+				failures.incrementAndGet();
+			}
+			if (job.remaining.decrementAndGet() == 0) {
+				job.dispose();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.RenderSink;
+
+/**
+ * File Render Sink Class
+ *
+ * Renders every page to its own file. The file name is built with </br>
+ * String.format() from a pattern given the document file name without </br>
+ * extension and the page number, e.g. "out/%1$s-%2$04d.png". </br></br>
+ *
+ * Every document gets a name of its own, so documents never write to </br>
+ * the same files. Documents opened from memory or a channel are named </br>
+ * "document-1", "document-2" and so on. A document whose file name is </br>
+ * already taken by another document gets "-2", "-3" and so on appended. </br>
+ * Names are not handed out again once their document is gone.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class FileRenderSink implements RenderSink {
+	private final String pattern;
+	private final Map<Document, String> names = new WeakHashMap<Document, String>();
+	private final Set<String> used = new HashSet<String>();
+
+	/**
+	 * Create a file render sink
+	 * @param pattern
+	 */
+	public FileRenderSink(String pattern) {
+		this.pattern = pattern;
+	}
+
+	/* */
+	public String getFile(Document document, int page) {
+		return String.format(pattern, getName(document), page);
+	}
+
+	/**
+	 * Get name of a document, unique within this sink
+	 * @param document
+	 * @return
+	 */
+	private synchronized String getName(Document document) {
+		String name = names.get(document);
+		if (name != null) {
+			return name;
+		}
+		name = document.getFileName();
+		boolean unnamed = name == null || name.length() == 0;
+		if (unnamed) {
+			name = "document";
+		} else if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		String unique = unnamed ? name + "-1" : name;
+		for (int i = 2; !used.add(unique); i++) {
+			unique = name + "-" + i;
+		}
+		names.put(document, unique);
+		return unique;
+	}
+
+	/* */
+	public void write(Document document, int page, byte[] image) throws IOException {
+		throw new IOException("Error: File render sink does not receive image bytes.");
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * LRU Cache Class
+ *
+ * Keeps values bounded by a byte budget. The least recently used </br>
+ * values are evicted first. Subclasses tell how many bytes a value </br>
+ * holds. </br></br>
+ *
+ * The cache may be used from several threads at once. A value that is </br>
+ * being loaded is loaded once; other threads asking for it wait for </br>
+ * that value. Values handed out are shared and must not be changed. </br>
+ * Null values are never cached. Removing a key also drops its load, </br>
+ * so a value still loading is handed to its waiters but not cached.
+ *
+ * @author Pedro J Rivera
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public abstract class LruCache<K, V> {
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(64, 0.75f, true);
+	private final ConcurrentHashMap<K, Loader<V>> loading = new ConcurrentHashMap<K, Loader<V>>();
+	private long maxSize;
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create a cache
+	 * @param maxSize : Byte budget for values
+	 */
+	public LruCache(long maxSize) {
+		this.maxSize = Math.max(maxSize, 0);
+	}
+
+	/**
+	 * Get number of bytes a value holds
+	 * @param value
+	 * @return
+	 */
+	protected abstract long getSize(V value);
+
+	/**
+	 * Get a cached value. Counts as a hit or a miss.
+	 * @param key
+	 * @return Value or null if not cached
+	 */
+	public synchronized V get(K key) {
+		V value = entries.get(key);
+		if (value != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return value;
+	}
+
+	/**
+	 * Get a cached value or load and cache it. </br>
+	 * Loader runs on the calling thread. When another thread is already </br>
+	 * loading the same key this waits for its value instead.
+	 * @param key
+	 * @param loader : Loads the value, may return null
+	 * @return Value or null if loader returned null
+	 * @throws ExecutionException if the loader failed. Failures are not cached.
+	 * @throws InterruptedException
+	 */
+	public V get(K key, Callable<V> loader) throws ExecutionException, InterruptedException {
+		synchronized (this) {
+			V value = entries.get(key);
+			if (value != null) {
+				hits++;
+				return value;
+			}
+		}
+
+		Loader<V> task = new Loader<V>(loader);
+		Loader<V> running = loading.putIfAbsent(key, task);
+
+		if (running != null) {
+			synchronized (this) {
+				hits++;
+			}
+			return running.get();
+		}
+
+		try {
+			// Another loader may have put the value and left since the first look
+			synchronized (this) {
+				V value = entries.get(key);
+				if (value != null) {
+					hits++;
+					task.set(value);
+					return value;
+				}
+				misses++;
+			}
+			task.run();
+			V value = task.get();
+			synchronized (this) {
+				if (loading.remove(key, task) && value != null) {
+					put(key, value);
+				}
+			}
+			return value;
+		} finally {
+			loading.remove(key, task);
+		}
+	}
+
+	/**
+	 * Determine if a value is cached. Does not count as a hit or a miss.
+	 * @param key
+	 * @return
+	 */
+	public synchronized boolean contains(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Add a value. Values larger than the budget are not kept.
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void put(K key, V value) {
+		drop(key);
+		if (value == null) {
+			return;
+		}
+		long bytes = getSize(value);
+		if (bytes > maxSize) {
+			return;
+		}
+		entries.put(key, value);
+		size += bytes;
+		trim();
+	}
+
+	/**
+	 * Remove a value and drop its load
+	 * @param key
+	 */
+	public synchronized void remove(K key) {
+		drop(key);
+		loading.remove(key);
+	}
+
+	/**
+	 * Remove all values and drop all loads whose key is accepted by a filter
+	 * @param filter
+	 */
+	public synchronized void removeAll(KeyFilter<? super K> filter) {
+		Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<K, V> e = it.next();
+			if (filter.accept(e.getKey())) {
+				size -= getSize(e.getValue());
+				it.remove();
+			}
+		}
+		Iterator<K> keys = loading.keySet().iterator();
+		while (keys.hasNext()) {
+			if (filter.accept(keys.next())) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all values and drop all loads. Statistics are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		loading.clear();
+		size = 0;
+	}
+
+	/**
+	 * Set byte budget. Values over the budget are evicted.
+	 * @param maxSize
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = Math.max(maxSize, 0);
+		trim();
+	}
+
+	/**
+	 * Get byte budget
+	 * @return
+	 */
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get bytes held
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Get number of values held
+	 * @return
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Get number of requests served from memory
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of requests that had to load
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get number of values evicted to stay within the budget
+	 * @return
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Get share of requests served from memory, 0 to 1
+	 * @return
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double)hits / total;
+	}
+
+	/**
+	 * Reset hit, miss and eviction counters
+	 */
+	public synchronized void resetStats() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Remove a value without touching its load
+	 * @param key
+	 */
+	private void drop(K key) {
+		V old = entries.remove(key);
+		if (old != null) {
+			size -= getSize(old);
+		}
+	}
+
+	/**
+	 * Evict least recently used values until the budget is met
+	 */
+	private void trim() {
+		Iterator<V> it = entries.values().iterator();
+		while (size > maxSize && it.hasNext()) {
+			size -= getSize(it.next());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/* */
+	public synchronized String toString() {
+		return String.format("entries=%d size=%d/%d hits=%d misses=%d evictions=%d hitrate=%.3f",
+							 entries.size(), size, maxSize, hits, misses, evictions, getHitRate());
+	}
+
+	/**
+	 * Selects keys to remove
+	 *
+	 * @param <K> Key type
+	 */
+	public interface KeyFilter<K> {
+		boolean accept(K key);
+	}
+
+	/**
+	 * Load of one key. May be completed with a value found in the cache.
+	 *
+	 * @param <V> Value type
+	 */
+	private static class Loader<V> extends FutureTask<V> {
+		Loader(Callable<V> callable) {
+			super(callable);
+		}
+
+		/* */
+		protected void set(V value) {
+			super.set(value);
+		}
+	}
+
+}
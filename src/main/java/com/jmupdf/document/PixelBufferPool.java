@@ -0,0 +1,133 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.document;
+
+import com.jmupdf.JmuPdf;
+
+/**
+ * Pixel Buffer Pool Class
+ *
+ * View of the native pool a document renders pixel data into. </br>
+ * Pixmap samples and packed pixel buffers are taken from the pool </br>
+ * and given back once rendering or PagePixels.dispose() is done with </br>
+ * them, so steady rendering at fixed page sizes stops going to the </br>
+ * allocator for every page. </br></br>
+ *
+ * Buffers are bucketed by size class. Idle buffers are bounded by a </br>
+ * byte budget; a buffer given back that does not fit is freed.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class PixelBufferPool extends JmuPdf {
+	private final DocumentImp document;
+
+	private static final int IDX_HITS = 0;
+	private static final int IDX_MISSES = 1;
+	private static final int IDX_DISCARDS = 2;
+	private static final int IDX_BUFFERS = 3;
+	private static final int IDX_SIZE = 4;
+	private static final int IDX_MAX_SIZE = 5;
+
+	/**
+	 * Create a pool view for a document
+	 * @param document
+	 */
+	PixelBufferPool(DocumentImp document) {
+		this.document = document;
+	}
+
+	/**
+	 * Set byte budget for idle buffers. </br>
+	 * The default size is 32mb; 0 disables pooling.
+	 * @param size
+	 */
+	public void setMaxSize(int size) {
+		if (document.getHandle() > 0) {
+			setPixelPoolSize(document.getHandle(), size);
+		}
+	}
+
+	/**
+	 * Get byte budget for idle buffers
+	 * @return
+	 */
+	public int getMaxSize() {
+		return getStats()[IDX_MAX_SIZE];
+	}
+
+	/**
+	 * Get number of requests served from the pool
+	 * @return
+	 */
+	public int getHits() {
+		return getStats()[IDX_HITS];
+	}
+
+	/**
+	 * Get number of requests that had to allocate
+	 * @return
+	 */
+	public int getMisses() {
+		return getStats()[IDX_MISSES];
+	}
+
+	/**
+	 * Get number of buffers freed because they did not fit the budget
+	 * @return
+	 */
+	public int getDiscards() {
+		return getStats()[IDX_DISCARDS];
+	}
+
+	/**
+	 * Get number of idle buffers retained
+	 * @return
+	 */
+	public int getRetainedBuffers() {
+		return getStats()[IDX_BUFFERS];
+	}
+
+	/**
+	 * Get bytes held by idle buffers
+	 * @return
+	 */
+	public int getRetainedSize() {
+		return getStats()[IDX_SIZE];
+	}
+
+	/**
+	 * Get share of requests served from the pool, 0 to 1
+	 * @return
+	 */
+	public double getHitRate() {
+		int[] stats = getStats();
+		int total = stats[IDX_HITS] + stats[IDX_MISSES];
+		return total == 0 ? 0 : (double)stats[IDX_HITS] / total;
+	}
+
+	/**
+	 * Get pool statistics. </br>
+	 * Values are hits, misses, discards, idle buffers, idle size and max size.
+	 * @return
+	 */
+	public int[] getStats() {
+		int[] stats = new int[6];
+		if (document.getHandle() > 0) {
+			getPixelPoolStats(document.getHandle(), stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Get document pool belongs to
+	 * @return
+	 */
+	public DocumentImp getDocument() {
+		return document;
+	}
+
+}
@@ -17,6 +17,10 @@ public enum ImageType {
 	IMAGE_TYPE_ARGB(2),
 	IMAGE_TYPE_ARGB_PRE(3),
 	IMAGE_TYPE_BGR(4),
+	IMAGE_TYPE_3BYTE_BGR(5),
+	IMAGE_TYPE_4BYTE_ABGR(6),
+	IMAGE_TYPE_BYTE_RGBA(7),
+	IMAGE_TYPE_BYTE_BGRA_PRE(8),
 	IMAGE_TYPE_GRAY(10), 
 	IMAGE_TYPE_BINARY(12), 
 	IMAGE_TYPE_BINARY_DITHER(121);
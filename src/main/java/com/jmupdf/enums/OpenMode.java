@@ -0,0 +1,34 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.enums;
+
+/**
+ * OpenMode enum </br></br>
+ * 
+ * Determines how a document file is read. </br>
+ * OPEN_MODE_MMAP maps the whole file into memory. This is best suited for </br>
+ * large documents where object lookups would otherwise seek and read the file </br>
+ * in small chunks.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public enum OpenMode {
+
+	OPEN_MODE_FILE(0),
+	OPEN_MODE_MMAP(1);
+	
+	private int mode;
+	
+	private OpenMode(int mode) {
+		this.mode = mode;
+	}
+	
+	public int getIntValue() {
+		return mode;
+	}
+	
+}
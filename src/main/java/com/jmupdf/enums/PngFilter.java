@@ -0,0 +1,36 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.enums;
+
+/**
+ * PngFilter enum
+ * 
+ * Row filter applied before PNG image data is compressed. </br>
+ * PNG_FILTER_ADAPTIVE picks the filter that looks best for each row.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public enum PngFilter {
+
+	PNG_FILTER_NONE(0),
+	PNG_FILTER_SUB(1),
+	PNG_FILTER_UP(2),
+	PNG_FILTER_AVERAGE(3),
+	PNG_FILTER_PAETH(4),
+	PNG_FILTER_ADAPTIVE(5);
+	
+	private int filter;
+	
+	private PngFilter(int filter) {
+		this.filter = filter;
+	}
+	
+	public int getIntValue() {
+		return filter;
+	}
+	
+}
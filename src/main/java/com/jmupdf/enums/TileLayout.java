@@ -0,0 +1,33 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.enums;
+
+/**
+ * TileLayout enum
+ * 
+ * Directory layout of a tile pyramid. </br>
+ * DZI writes name_files/level/x_y tiles and a name.dzi descriptor. </br>
+ * XYZ writes z/x/y tiles with zoom 0 fitting in one tile.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public enum TileLayout {
+
+	TILE_LAYOUT_DZI(0),
+	TILE_LAYOUT_XYZ(1);
+	
+	private int layout;
+	
+	private TileLayout(int layout) {
+		this.layout = layout;
+	}
+	
+	public int getIntValue() {
+		return layout;
+	}
+	
+}
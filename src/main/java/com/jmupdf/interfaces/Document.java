@@ -78,6 +78,15 @@ public interface Document {
 	 */
 	int getPageCount();
 
+	/**
+	 * Get bounds and rotation of all pages in one call. </br>
+	 * Five values are returned per page, first page first: </br>
+	 * x0, y0, x1, y1, rotation. </br>
+	 * Values match Page.getBoundBox() and Page.getRotation().
+	 * @return
+	 */
+	float[] getPageGeometries();
+
 	/**
 	 * Create a new page object.   
 	 * @param page
@@ -5,9 +5,16 @@
  */
 package com.jmupdf.interfaces;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
 import com.jmupdf.page.PageLinks;
+import com.jmupdf.page.PagePixmap;
 import com.jmupdf.page.PageRect;
 import com.jmupdf.page.PageText;
+import com.jmupdf.page.RenderSpec;
 
 /**
  * Page Interface
@@ -119,6 +126,76 @@ public interface Page {
 	 */
 	byte[] saveAsImage(PageRendererOptions options);
 
+	/**
+	 * Save page as an image file. </br>
+	 * May be called from several threads at once with different specs.
+	 * @param file the file to save to
+	 * @param spec the complete description of the image to generate
+	 * @return true upon success, false otherwise
+	 */
+	boolean saveAsImage(String file, RenderSpec spec);
+
+	/**
+	 * Save page as a byte array. Only PNG and JPEG are supported. </br>
+	 * May be called from several threads at once with different specs.
+	 * @param spec
+	 * @return
+	 */
+	byte[] saveAsImage(RenderSpec spec);
+
+	/**
+	 * Write page image to a channel as it is encoded. </br>
+	 * PNG, JPEG and the PNM family are passed on in small blocks, so the encoded </br>
+	 * image is never held whole. With a band height set, the rendered image is not </br>
+	 * either. Other formats go through a temporary file. </br>
+	 * May be called from several threads at once with different specs.
+	 * @param spec
+	 * @param channel
+	 * @return true upon success, false if the page could not be rendered
+	 * @throws IOException if the channel could not be written
+	 */
+	boolean writeImage(RenderSpec spec, WritableByteChannel channel) throws IOException;
+
+	/**
+	 * Render page to a buffered image. The image format of the spec is ignored. </br>
+	 * May be called from several threads at once with different specs.
+	 * @param spec
+	 * @return
+	 */
+	BufferedImage getImage(RenderSpec spec);
+
+	/**
+	 * Render packed pixels straight into a direct buffer at its position. </br>
+	 * Gray image types use 1 byte per pixel, binary types 1 bit per pixel with </br>
+	 * 1 for black and rows padded to whole bytes, all other types use </br>
+	 * one 4 byte int per pixel in native byte order. </br></br>
+	 * 
+	 * Returns the number of bytes the image needs. If target is null, not direct </br>
+	 * or has fewer bytes remaining nothing is rendered, so the call can be repeated </br>
+	 * with a large enough buffer. On success the target position is advanced. </br>
+	 * Returns -1 on error. May be called from several threads at once.
+	 * @param spec
+	 * @param target
+	 * @return
+	 */
+	int renderInto(RenderSpec spec, ByteBuffer target);
+
+	/**
+	 * Get pixel bounds of the image a spec renders. Nothing is rendered.
+	 * @param spec
+	 * @return
+	 */
+	PageRect getImageBounds(RenderSpec spec);
+
+	/**
+	 * Render page to a native pixmap that is encoded later, possibly on </br>
+	 * another thread. The page may be disposed before the pixmap. </br>
+	 * May be called from several threads at once with different specs.
+	 * @param spec
+	 * @return
+	 */
+	PagePixmap renderPixmap(RenderSpec spec);
+
 	/**
 	 * Get a page rendering object
 	 * @return
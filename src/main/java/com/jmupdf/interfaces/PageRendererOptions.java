@@ -7,6 +7,7 @@ package com.jmupdf.interfaces;
 
 import com.jmupdf.enums.ImageFormat;
 import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.PngFilter;
 import com.jmupdf.enums.TifCompression;
 import com.jmupdf.enums.TifMode;
 import com.jmupdf.page.PageRect;
@@ -182,6 +183,80 @@ public interface PageRendererOptions {
      */
     public void setAntiAlias(int antiAlias);
 
+    /**
+     * Determine if pixel data is packed with the fused pass
+     * @return
+     */
+    public boolean isFusedPass();
+
+    /**
+     * Set fused pass </br>
+     * When true, gamma correction, unmultiply and packing of pixel data </br>
+     * are done in one pass over the rendered samples instead of three. </br>
+     * Only pixel data is affected; image files are not. Default value is false.
+     * @param fusedPass
+     */
+    public void setFusedPass(boolean fusedPass);
+
+    /**
+     * Get PNG compression level
+     * @return
+     */
+    public int getPngCompression();
+
+    /**
+     * Set PNG compression level </br>
+     * Levels are in the range 0-9 with larger numbers yielding better </br>
+     * compression at the cost of more computation. Default value is -1, </br>
+     * the zlib default level.
+     * @param pngCompression
+     */
+    public void setPngCompression(int pngCompression);
+
+    /**
+     * Get PNG row filter
+     * @return
+     */
+    public PngFilter getPngFilter();
+
+    /**
+     * Set PNG row filter </br>
+     * PNG_FILTER_ADAPTIVE picks the best filter for every row. </br>
+     * Default value is PNG_FILTER_SUB.
+     * @param pngFilter
+     */
+    public void setPngFilter(PngFilter pngFilter);
+
+    /**
+     * Get number of encode threads
+     * @return
+     */
+    public int getEncodeThreads();
+
+    /**
+     * Set number of encode threads </br>
+     * Large PNG images are filtered and compressed in row chunks on up to </br>
+     * this many threads. Other formats are encoded on one thread. </br>
+     * Default value is 1.
+     * @param encodeThreads
+     */
+    public void setEncodeThreads(int encodeThreads);
+
+    /**
+     * Get band height
+     * @return
+     */
+    public int getBandHeight();
+
+    /**
+     * Set band height </br>
+     * When greater than zero PNG, JPEG, PNM, PAM and TIF images are rendered </br>
+     * and encoded this many rows at a time to bound memory use. </br>
+     * Default value is 0, the whole image at once.
+     * @param bandHeight
+     */
+    public void setBandHeight(int bandHeight);
+
     /**
      * Validate rendering options
      * @return
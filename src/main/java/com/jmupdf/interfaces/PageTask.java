@@ -0,0 +1,27 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.interfaces;
+
+/**
+ * Page Task Interface
+ *
+ * Work to run against a page borrowed from a document pool. </br>
+ * The page is disposed once the task returns and must not be kept.
+ *
+ * @author Pedro J Rivera
+ *
+ * @param <T>
+ */
+public interface PageTask<T> {
+
+	/**
+	 * Run task
+	 * @param page
+	 * @return
+	 */
+	T execute(Page page);
+
+}
@@ -0,0 +1,40 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.interfaces;
+
+import java.io.IOException;
+
+/**
+ * Render Sink Interface
+ *
+ * Receives pages rendered by a batch renderer. Methods are called </br>
+ * from several worker threads at once and must be thread safe.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public interface RenderSink {
+
+	/**
+	 * Get file a page is rendered to. </br>
+	 * Return null to receive the encoded image through write() instead. </br>
+	 * Only PNG and JPEG images can be received as bytes.
+	 * @param document : Document pages were added from
+	 * @param page
+	 * @return
+	 */
+	String getFile(Document document, int page);
+
+	/**
+	 * Receive an encoded page image
+	 * @param document : Document pages were added from
+	 * @param page
+	 * @param image
+	 * @throws IOException
+	 */
+	void write(Document document, int page, byte[] image) throws IOException;
+
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.page;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+
+import com.jmupdf.enums.ImageFormat;
+
+/**
+ * Image Channel Class
+ *
+ * Passes encoded image data from native code on to a channel. </br>
+ * Native encoders fill the direct buffer and call write() each time it </br>
+ * is full, so no more than one buffer of encoded data is held at once. </br>
+ * Buffers are kept per thread and reused between images.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+class ImageChannel {
+	private static final int BUFFER_SIZE = 64 << 10;
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private IOException error;
+	private long written;
+
+	/**
+	 * Create an image channel. Must be used on the creating thread only.
+	 * @param channel
+	 */
+	ImageChannel(WritableByteChannel channel) {
+		this.channel = channel;
+		this.buffer = buffers.get();
+	}
+
+	/**
+	 * Get buffer native code fills. </br>
+	 * Called from native code.
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Write the first length bytes of the buffer to the channel. </br>
+	 * Called from native code.
+	 *
+	 * @param length
+	 * @return 0 on success or -1 on error
+	 */
+	public int write(int length) {
+		buffer.clear();
+		buffer.limit(length);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			written += length;
+			return 0;
+		} catch (IOException e) {
+			error = e;
+			return -1;
+		}
+	}
+
+	/**
+	 * Get number of bytes written
+	 * @return
+	 */
+	long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Throw the error a write ran into, if any
+	 * @throws IOException
+	 */
+	void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Determine if an image format is encoded straight to a channel. </br>
+	 * Other formats are written to a temporary file first.
+	 *
+	 * @param format
+	 * @return
+	 */
+	static boolean isStreamable(ImageFormat format) {
+		return format == ImageFormat.FORMAT_PNG ||
+			   format == ImageFormat.FORMAT_JPG ||
+			   format == ImageFormat.FORMAT_PNM ||
+			   format == ImageFormat.FORMAT_PAM ||
+			   format == ImageFormat.FORMAT_PBM;
+	}
+
+	/**
+	 * Create an empty temporary file for formats that cannot be streamed. </br>
+	 * Only the owner may read it. The file is kept so no other file can </br>
+	 * take its name; encoders write over it and the caller deletes it.
+	 * @return
+	 * @throws IOException
+	 */
+	static File createTempFile() throws IOException {
+		return Files.createTempFile("jmupdf", ".img").toFile();
+	}
+
+	/**
+	 * Copy a file to a channel
+	 *
+	 * @param file
+	 * @param channel
+	 * @return Number of bytes copied
+	 * @throws IOException
+	 */
+	static long transfer(File file, WritableByteChannel channel) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel source = in.getChannel();
+			long size = source.size();
+			long position = 0;
+			while (position < size) {
+				position += source.transferTo(position, size - position, channel);
+			}
+			return size;
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -5,7 +5,12 @@
  */
 package com.jmupdf.page;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 
 import com.jmupdf.JmuPdf;
 import com.jmupdf.enums.ImageFormat;
@@ -28,6 +33,7 @@ public abstract class PageImp extends JmuPdf implements Page {
 	protected int pageNumber = 0;
 	protected int rotation = 0;
 	protected PageRendererOptions options = null;
+	private volatile boolean listLoaded = false;
 	
 	/* */
 	public long getHandle() {
@@ -74,9 +80,38 @@ public abstract class PageImp extends JmuPdf implements Page {
 		return document;
 	}
 
+	/**
+	 * Build the page display list if not already done. </br>
+	 * Pages are created without one so that opening a page only costs </br>
+	 * loading the page object and its bounds. The list is built once, </br>
+	 * under the document lock, the first time rendering or text </br>
+	 * extraction needs it.
+	 * 
+	 * @return true if display list is available
+	 */
+	protected boolean loadDisplayList() {
+		if (getHandle() <= 0) {
+			return false;
+		}
+		if (listLoaded) {
+			return true;
+		}
+		synchronized (document) {
+			if (!listLoaded) {
+				int rc = loadPageList(getHandle());
+				if (rc == 0) {
+					listLoaded = true;
+				} else {
+					log("Error " + rc + ": Page display list could not be created.");
+				}
+			}
+		}
+		return listLoaded;
+	}
+
 	/* */
 	public PageText[] getTextSpan(PageRect rect) {
-		if (getHandle() > 0) {
+		if (loadDisplayList()) {
 			return getPageText(getHandle(), 0.45f, rect.getX0(), rect.getY0(), rect.getX1(), rect.getY1());			
 		}
 		return null;
@@ -128,7 +163,7 @@ public abstract class PageImp extends JmuPdf implements Page {
 
     /* */
     public boolean saveAsImage(String file, PageRendererOptions options) {
-        if (getHandle() > 0) {
+        if (loadDisplayList()) {
         	if (options.isValid()) {
         		return saveAsFile(getHandle(), file.getBytes()) == 0;
         	}
@@ -138,7 +173,7 @@ public abstract class PageImp extends JmuPdf implements Page {
 
     /* */
     public byte[] saveAsImage(PageRendererOptions options) {
-        if (getHandle() > 0) {
+        if (loadDisplayList()) {
             if (options.getImageFormat() == ImageFormat.FORMAT_PNG ||
             	options.getImageFormat() == ImageFormat.FORMAT_JPG) {
             	if (options.isValid()) {
@@ -151,6 +186,114 @@ public abstract class PageImp extends JmuPdf implements Page {
         return null;
     }
 
+    /* */
+    public boolean saveAsImage(String file, RenderSpec spec) {
+        if (loadDisplayList()) {
+        	if (spec.isValid()) {
+        		return renderFile(getHandle(), spec, file.getBytes()) == 0;
+        	}
+        }
+        return false;
+    }
+
+    /* */
+    public byte[] saveAsImage(RenderSpec spec) {
+        if (loadDisplayList()) {
+            if (spec.getImageFormat() == ImageFormat.FORMAT_PNG ||
+            	spec.getImageFormat() == ImageFormat.FORMAT_JPG) {
+            	if (spec.isValid()) {
+            		return renderBytes(getHandle(), spec);
+            	}
+            } else {
+            	log("Currently only PNG and JPEG file formats are supported when creating a byte array.");
+            }
+        }
+        return null;
+    }
+
+    /* */
+    public boolean writeImage(RenderSpec spec, WritableByteChannel channel) throws IOException {
+        if (loadDisplayList()) {
+        	if (spec.isValid()) {
+        		if (ImageChannel.isStreamable(spec.getImageFormat())) {
+        			ImageChannel out = new ImageChannel(channel);
+        			int rc = renderStream(getHandle(), spec, out);
+        			out.checkError();
+        			return rc == 0;
+        		}
+        		File file = ImageChannel.createTempFile();
+        		try {
+        			if (renderFile(getHandle(), spec, file.getPath().getBytes()) == 0) {
+        				ImageChannel.transfer(file, channel);
+        				return true;
+        			}
+        		} finally {
+        			file.delete();
+        		}
+        	}
+        }
+        return false;
+    }
+
+    /* */
+    public BufferedImage getImage(RenderSpec spec) {
+    	if (loadDisplayList()) {
+    		int[] bbox = new int[4];
+    		ByteBuffer buffer = renderPixels(getHandle(), spec, bbox);
+    		if (buffer != null) {
+    			Object pixels = PagePixelsImp.copyPixels(buffer, spec.getImageType());
+    			freeByteBuffer(getHandle(), buffer);
+    			return PagePixelsImp.createImage(pixels, bbox[2], bbox[3], spec.getImageType());
+    		}
+    	}
+    	return null;
+    }
+
+    /* */
+    public int renderInto(RenderSpec spec, ByteBuffer target) {
+    	if (!loadDisplayList()) {
+    		return -1;
+    	}
+    	int[] bbox = new int[4];
+    	if (target == null || !target.isDirect() || target.isReadOnly()) {
+    		return renderInto(getHandle(), spec, null, 0, 0, bbox);
+    	}
+    	int rc = renderInto(getHandle(), spec, target, target.position(), target.remaining(), bbox);
+    	if (rc > 0 && rc <= target.remaining()) {
+    		target.position(target.position() + rc);
+    	} else if (rc < 0) {
+    		rc = -1;
+    	}
+    	return rc;
+    }
+
+    /* */
+    public PageRect getImageBounds(RenderSpec spec) {
+    	// Only the page bounds are needed, the display list is not loaded
+    	if (getHandle() > 0) {
+    		int[] bbox = new int[4];
+    		if (renderInto(getHandle(), spec, null, 0, 0, bbox) >= 0) {
+    			return new PageRect(bbox[0], bbox[1], bbox[2], bbox[3]);
+    		}
+    	}
+    	return null;
+    }
+
+    /* */
+    public PagePixmap renderPixmap(RenderSpec spec) {
+    	if (loadDisplayList()) {
+    		if (spec.isValid()) {
+    			int[] bbox = new int[4];
+    			long pixmap = renderPixmap(getHandle(), spec, bbox);
+    			if (pixmap > 0) {
+    				return new PagePixmap(document, spec, pageNumber, pixmap, bbox[2], bbox[3]);
+    			}
+    			log("Error " + pixmap + ": Page " + pageNumber + " could not be rendered.");
+    		}
+    	}
+    	return null;
+    }
+
     /* */
     public PagePixels getPagePixels() {
     	if (getHandle() > 0) {
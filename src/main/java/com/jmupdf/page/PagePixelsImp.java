@@ -1,6 +1,20 @@
 package com.jmupdf.page;
 
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -71,13 +85,7 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 		buffer = getByteBuffer(bbox);
 
 		if (buffer != null) {
-			if (isByteData()) {
-				pixels = new byte[buffer.order(ByteOrder.nativeOrder()).capacity()];
-				buffer.order(ByteOrder.nativeOrder()).get((byte[])pixels);
-			} else {
-				pixels = new int[buffer.order(ByteOrder.nativeOrder()).asIntBuffer().capacity()];
-				buffer.order(ByteOrder.nativeOrder()).asIntBuffer().get((int[])pixels);
-			}
+			pixels = copyPixels(buffer, getOptions().getImageType());
 			freeByteBuffer();
 			getOptions().getBoundBox().setRect(bbox[0], bbox[1], bbox[2], bbox[3]);
 		} else {
@@ -90,16 +98,35 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 	 * @param pixels
 	 */
 	private void createBufferedImage() {
-		Object p;
+		PageRect bb = getOptions().getBoundBox();
+		image = createImage(getPixels(), bb.getWidth(), bb.getHeight(), getOptions().getImageType());
+	}
+
+	/**
+	 * Create a buffered image from packed pixel data. </br>
+	 * The image raster is built around the pixel array, so pixels </br>
+	 * are not copied and changes to the image show up in the array. </br>
+	 * Binary pixels are packed 8 to a byte with 1 for black.
+	 * 
+	 * @param p
+	 * @param w
+	 * @param h
+	 * @param imageType
+	 * @return
+	 */
+	static BufferedImage createImage(Object p, int w, int h, ImageType imageType) {
+		BufferedImage image = null;
 		try {
-			p = getPixels();
-			PageRect bb = getOptions().getBoundBox();
 			if (p != null) {
-				image = new BufferedImage(bb.getWidth(), bb.getHeight(), getBufferedImageType());
-			    if (image != null) {
-			    	WritableRaster raster = image.getRaster();
-			    	raster.setDataElements(bb.getX(), bb.getY(), bb.getWidth(), bb.getHeight(), p);
-			    }			    
+				ColorModel cm = getColorModel(imageType);
+				DataBuffer db;
+				if (isByteData(imageType)) {
+					db = new DataBufferByte((byte[])p, ((byte[])p).length);
+				} else {
+					db = new DataBufferInt((int[])p, ((int[])p).length);
+				}
+				WritableRaster raster = Raster.createWritableRaster(getSampleModel(imageType, cm, w, h), db, null);
+				image = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -110,49 +137,132 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 			}
     		System.gc();
 		}
+		return image;
 	}
 
 	/**
-	 * Get buffered image type
+	 * Copy packed pixels out of a native buffer
+	 * 
+	 * @param buffer
+	 * @param imageType
+	 * @return
+	 */
+	static Object copyPixels(ByteBuffer buffer, ImageType imageType) {
+		Object pixels;
+		if (isByteData(imageType)) {
+			pixels = new byte[buffer.order(ByteOrder.nativeOrder()).capacity()];
+			buffer.order(ByteOrder.nativeOrder()).get((byte[])pixels);
+		} else {
+			pixels = new int[buffer.order(ByteOrder.nativeOrder()).asIntBuffer().capacity()];
+			buffer.order(ByteOrder.nativeOrder()).asIntBuffer().get((int[])pixels);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Get color model matching packed pixel layout. </br>
+	 * Models match the ones java uses for the standard image types </br>
+	 * so the buffered image reports the standard type. Byte RGBA and </br>
+	 * BGRA types keep the native pixmap layout and are custom images. </br>
+	 * Binary images have white at index 0, as in fax and PBM images.
+	 * 
+	 * @param imageType
 	 * @return
 	 */
-	private int getBufferedImageType() {
-		int type;
-		switch (getOptions().getImageType()) {
+	private static ColorModel getColorModel(ImageType imageType) {
+		ColorSpace srgb = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+		ColorModel cm;
+		switch (imageType) {
 			case IMAGE_TYPE_BINARY:
 			case IMAGE_TYPE_BINARY_DITHER:
-				type = BufferedImage.TYPE_BYTE_BINARY;
+				byte[] bw = {(byte)0xff, 0};
+				cm = new IndexColorModel(1, 2, bw, bw, bw);
 				break;
 			case IMAGE_TYPE_GRAY:
-				type = BufferedImage.TYPE_BYTE_GRAY;
+				cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] {8}, 
+											 false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
 				break;
-			case IMAGE_TYPE_RGB:
-				type = BufferedImage.TYPE_INT_RGB;
+			case IMAGE_TYPE_3BYTE_BGR:
+				cm = new ComponentColorModel(srgb, new int[] {8, 8, 8}, 
+											 false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+				break;
+			case IMAGE_TYPE_4BYTE_ABGR:
+			case IMAGE_TYPE_BYTE_RGBA:
+				cm = new ComponentColorModel(srgb, new int[] {8, 8, 8, 8}, 
+											 true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+				break;
+			case IMAGE_TYPE_BYTE_BGRA_PRE:
+				cm = new ComponentColorModel(srgb, new int[] {8, 8, 8, 8}, 
+											 true, true, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
 				break;
 			case IMAGE_TYPE_ARGB:
-				type = BufferedImage.TYPE_INT_ARGB;
+				cm = new DirectColorModel(32, 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000);
 				break;
 			case IMAGE_TYPE_ARGB_PRE:
-				type = BufferedImage.TYPE_INT_ARGB_PRE;
+				cm = new DirectColorModel(srgb, 32, 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000, 
+										  true, DataBuffer.TYPE_INT);
 				break;
 			case IMAGE_TYPE_BGR:
-				type = BufferedImage.TYPE_INT_BGR;
+				cm = new DirectColorModel(24, 0x000000ff, 0x0000ff00, 0x00ff0000);
+				break;
+			case IMAGE_TYPE_RGB:
+			default:
+				cm = new DirectColorModel(24, 0x00ff0000, 0x0000ff00, 0x000000ff);
+				break;
+		}
+		return cm;
+	}
+
+	/**
+	 * Get sample model matching packed pixel layout
+	 * 
+	 * @param imageType
+	 * @param cm
+	 * @param w
+	 * @param h
+	 * @return
+	 */
+	private static SampleModel getSampleModel(ImageType imageType, ColorModel cm, int w, int h) {
+		SampleModel sm;
+		switch (imageType) {
+			case IMAGE_TYPE_BINARY:
+			case IMAGE_TYPE_BINARY_DITHER:
+				sm = new MultiPixelPackedSampleModel(DataBuffer.TYPE_BYTE, w, h, 1);
+				break;
+			case IMAGE_TYPE_GRAY:
+				sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 1, w, new int[] {0});
+				break;
+			case IMAGE_TYPE_3BYTE_BGR:
+				sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 3, w * 3, new int[] {2, 1, 0});
+				break;
+			case IMAGE_TYPE_4BYTE_ABGR:
+				sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 4, w * 4, new int[] {3, 2, 1, 0});
+				break;
+			case IMAGE_TYPE_BYTE_RGBA:
+				sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 4, w * 4, new int[] {0, 1, 2, 3});
+				break;
+			case IMAGE_TYPE_BYTE_BGRA_PRE:
+				sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 4, w * 4, new int[] {2, 1, 0, 3});
 				break;
 			default:
-				type = BufferedImage.TYPE_INT_RGB;
+				sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, w, h, ((DirectColorModel)cm).getMasks());
 				break;
 		}
-		return type;
+		return sm;
 	}
 
 	/**
 	 * Determine if color type is a byte type.
 	 * @return
 	 */
-	private boolean isByteData() {
-		return (getOptions().getImageType() == ImageType.IMAGE_TYPE_BINARY        || 
-				getOptions().getImageType() == ImageType.IMAGE_TYPE_BINARY_DITHER ||
-				getOptions().getImageType() == ImageType.IMAGE_TYPE_GRAY);
+	private static boolean isByteData(ImageType imageType) {
+		return (imageType == ImageType.IMAGE_TYPE_BINARY        || 
+				imageType == ImageType.IMAGE_TYPE_BINARY_DITHER ||
+				imageType == ImageType.IMAGE_TYPE_GRAY          ||
+				imageType == ImageType.IMAGE_TYPE_3BYTE_BGR     ||
+				imageType == ImageType.IMAGE_TYPE_4BYTE_ABGR    ||
+				imageType == ImageType.IMAGE_TYPE_BYTE_RGBA     ||
+				imageType == ImageType.IMAGE_TYPE_BYTE_BGRA_PRE);
 	}
 
 	/**
@@ -164,7 +274,7 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 	private ByteBuffer getByteBuffer(int[] bbox) {
 		if (getPage().getHandle() > 0) {
 			if (buffer == null) {
-				if (getOptions().isValid()) {
+				if (getOptions().isValid() && ((PageImp)getPage()).loadDisplayList()) {
 					return getByteBuffer(getPage().getHandle(), bbox);
 				}
 			} else {
@@ -209,12 +319,14 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 	}
 
 	/**
-	 * Dispose of resources
+	 * Dispose of resources. </br>
+	 * A native buffer still held is given back to the pixel buffer pool.
 	 */
 	public void dispose() {
 		if (image != null) {
 			image.flush();
 		}
+		freeByteBuffer();
 		pixels = null;
 		buffer = null;
 	}
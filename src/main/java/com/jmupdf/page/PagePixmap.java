@@ -0,0 +1,160 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.page;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.interfaces.Document;
+
+/**
+ * Page Pixmap Class
+ *
+ * A rendered page held in native memory and not yet encoded. </br>
+ * Rendering and encoding can be done on different threads, so one </br>
+ * page can be rasterized while another is being compressed. </br></br>
+ *
+ * The page it was rendered from may be disposed before encoding. </br>
+ * A pixmap must be disposed before its document.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class PagePixmap extends JmuPdf {
+	private final Document document;
+	private final RenderSpec spec;
+	private final int pageNumber;
+	private final int width;
+	private final int height;
+	private long handle;
+
+	/**
+	 * Create a page pixmap
+	 *
+	 * @param document
+	 * @param spec
+	 * @param pageNumber
+	 * @param handle
+	 * @param width
+	 * @param height
+	 */
+	PagePixmap(Document document, RenderSpec spec, int pageNumber, long handle, int width, int height) {
+		this.document = document;
+		this.spec = spec;
+		this.pageNumber = pageNumber;
+		this.handle = handle;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Get specification pixmap was rendered with
+	 * @return
+	 */
+	public RenderSpec getSpec() {
+		return spec;
+	}
+
+	/**
+	 * Get page number pixmap was rendered from
+	 * @return
+	 */
+	public int getPageNumber() {
+		return pageNumber;
+	}
+
+	/**
+	 * Get image width
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get image height
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Encode pixmap to an image file in the format of its spec. </br>
+	 * May be called from any thread.
+	 * @param file
+	 * @return true upon success, false otherwise
+	 */
+	public synchronized boolean encode(String file) {
+		if (handle > 0) {
+			return encodePixmap(handle, file.getBytes()) == 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Encode pixmap to a byte array. Only PNG and JPEG are supported. </br>
+	 * May be called from any thread.
+	 * @return
+	 */
+	public synchronized byte[] encode() {
+		if (handle > 0) {
+			if (spec.getImageFormat() == ImageFormat.FORMAT_PNG ||
+				spec.getImageFormat() == ImageFormat.FORMAT_JPG) {
+				return encodePixmapBytes(handle);
+			}
+			log("Currently only PNG and JPEG file formats are supported when creating a byte array.");
+		}
+		return null;
+	}
+
+	/**
+	 * Write pixmap to a channel as it is encoded. </br>
+	 * PNG, JPEG and the PNM family are passed on in small blocks. </br>
+	 * Other formats go through a temporary file. May be called from any thread.
+	 * @param channel
+	 * @return true upon success, false otherwise
+	 * @throws IOException if the channel could not be written
+	 */
+	public synchronized boolean encode(WritableByteChannel channel) throws IOException {
+		if (handle > 0) {
+			if (ImageChannel.isStreamable(spec.getImageFormat())) {
+				ImageChannel out = new ImageChannel(channel);
+				int rc = encodePixmapStream(handle, out);
+				out.checkError();
+				return rc == 0;
+			}
+			File file = ImageChannel.createTempFile();
+			try {
+				if (encodePixmap(handle, file.getPath().getBytes()) == 0) {
+					ImageChannel.transfer(file, channel);
+					return true;
+				}
+			} finally {
+				file.delete();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Dispose of native pixmap
+	 */
+	public synchronized void dispose() {
+		if (handle > 0) {
+			if (document.getHandle() > 0) {
+				freePixmap(handle);
+			} else {
+				log("Pixmap of page " + pageNumber + " was disposed after its document.");
+			}
+			handle = 0;
+		}
+	}
+
+}
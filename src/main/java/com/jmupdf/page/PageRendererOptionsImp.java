@@ -9,6 +9,7 @@ import java.nio.ByteBuffer;
 
 import com.jmupdf.enums.ImageFormat;
 import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.PngFilter;
 import com.jmupdf.enums.TifCompression;
 import com.jmupdf.enums.TifMode;
 import com.jmupdf.interfaces.Page;
@@ -27,6 +28,11 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 	protected ImageType imageType;
 	protected int rotation;
 	protected int antiAlias;
+	protected boolean fusedPass;
+	protected int pngCompression;
+	protected PngFilter pngFilter;
+	protected int encodeThreads;
+	protected int bandHeight;
 	protected float gamma;
 	protected float zoom;
 	protected int quality;
@@ -49,6 +55,11 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
     protected static final int IDX_Y0 = 40;
     protected static final int IDX_X1 = 44;
     protected static final int IDX_Y1 = 48;
+    protected static final int IDX_FUSED_PASS = 52;
+    protected static final int IDX_PNG_COMPRESSION = 56;
+    protected static final int IDX_PNG_FILTER = 60;
+    protected static final int IDX_ENCODE_THREADS = 64;
+    protected static final int IDX_BAND_HEIGHT = 68;
 
 	protected static final int DEFAULT_RESOLUTION = 72;
 	
@@ -66,6 +77,11 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
     	setCompression(TifCompression.TIF_COMPRESSION_ZLIB);
     	setMode(TifMode.TIF_DATA_APPEND);
     	setBoundBox(new PageRect());
+    	setFusedPass(false);
+    	setPngCompression(-1);
+    	setPngFilter(PngFilter.PNG_FILTER_SUB);
+    	setEncodeThreads(1);
+    	setBandHeight(0);
     	isDisposed = false;
     }
     
@@ -241,124 +257,89 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
         getOptionsStruct().putInt(IDX_ANTIALIAS, antiAlias);
     }
 
+    /* */
+    public boolean isFusedPass() {
+        return fusedPass;
+    }
+
+    /* */
+    public void setFusedPass(boolean fusedPass) {
+    	if (isDisposed) {
+    		return;
+    	}
+        this.fusedPass = fusedPass;
+        getOptionsStruct().putInt(IDX_FUSED_PASS, fusedPass ? 1 : 0);
+    }
+
+    /* */
+    public int getPngCompression() {
+        return pngCompression;
+    }
+
+    /* */
+    public void setPngCompression(int pngCompression) {
+    	if (isDisposed) {
+    		return;
+    	}
+        this.pngCompression = RenderSpec.normalizePngCompression(pngCompression);
+        getOptionsStruct().putInt(IDX_PNG_COMPRESSION, this.pngCompression);
+    }
+
+    /* */
+    public PngFilter getPngFilter() {
+        return pngFilter;
+    }
+
+    /* */
+    public void setPngFilter(PngFilter pngFilter) {
+    	if (isDisposed) {
+    		return;
+    	}
+        this.pngFilter = pngFilter;
+        getOptionsStruct().putInt(IDX_PNG_FILTER, pngFilter.getIntValue());
+    }
+
+    /* */
+    public int getEncodeThreads() {
+        return encodeThreads;
+    }
+
+    /* */
+    public void setEncodeThreads(int encodeThreads) {
+    	if (isDisposed) {
+    		return;
+    	}
+    	if (encodeThreads < 1) {
+    		encodeThreads = 1;
+    	}
+        this.encodeThreads = encodeThreads;
+        getOptionsStruct().putInt(IDX_ENCODE_THREADS, encodeThreads);
+    }
+
+    /* */
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    /* */
+    public void setBandHeight(int bandHeight) {
+    	if (isDisposed) {
+    		return;
+    	}
+    	if (bandHeight < 0) {
+    		bandHeight = 0;
+    	}
+        this.bandHeight = bandHeight;
+        getOptionsStruct().putInt(IDX_BAND_HEIGHT, bandHeight);
+    }
+
     /* */
     public boolean isValid() {
-    	boolean retval = true;
-        ImageType imageType = getImageType();
-        
-        switch (getImageFormat()) {
-        	case FORMAT_BUFFERED_IMAGE:
-        		break;
-        		
-	        case FORMAT_PNG:
-	            if (!(imageType == ImageType.IMAGE_TYPE_RGB      || 
-	                  imageType == ImageType.IMAGE_TYPE_ARGB     ||
-	                  imageType == ImageType.IMAGE_TYPE_ARGB_PRE || 
-	                  imageType == ImageType.IMAGE_TYPE_GRAY)) {
-	            	log("Invalid ImageType=" + imageType); 
-	            	retval = false;
-	            }
-	            break;
-	        
-	        case FORMAT_PNM:
-	            if (!(imageType == ImageType.IMAGE_TYPE_RGB || 
-	                  imageType == ImageType.IMAGE_TYPE_GRAY)) {
-	            	log("Invalid ImageType=" + imageType);
-	            	retval = false;
-	            }
-	            break;
-	        
-	        case FORMAT_PBM:
-	            if (!(imageType == ImageType.IMAGE_TYPE_GRAY)) {
-	                log("Invalid ImageType=" + imageType);
-	                retval = false;
-	            }
-	            break;
-	            
-	        case FORMAT_JPG:
-	            if (!(imageType == ImageType.IMAGE_TYPE_RGB ||
-	                  imageType == ImageType.IMAGE_TYPE_GRAY)) {
-	            	log("Invalid ImageType=" + imageType);
-	            	retval = false;
-	            }
-	            if (!(getQuality() >= 0 && 
-	            	  getQuality() <= 100)) {
-	                setQuality(75);
-	            }
-	            break;
-	        
-	        case FORMAT_BMP:
-	            if (!(imageType == ImageType.IMAGE_TYPE_RGB    || 
-	                  imageType == ImageType.IMAGE_TYPE_GRAY   || 
-	                  imageType == ImageType.IMAGE_TYPE_BINARY || 
-	                  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
-	            	log("Invalid ImageType=" + imageType);
-	            	retval = false;
-	            }
-	            break;
-	            
-	        case FORMAT_PAM:
-	            if (!(imageType == ImageType.IMAGE_TYPE_RGB      || 
-	                  imageType == ImageType.IMAGE_TYPE_ARGB     || 
-	                  imageType == ImageType.IMAGE_TYPE_ARGB_PRE || 
-	                  imageType == ImageType.IMAGE_TYPE_GRAY)) {
-	            	log("Invalid ImageType=" + imageType);
-	            	retval = false;
-	            }
-	            break;
-	        
-	        case FORMAT_TIF:
-	            if (!(imageType == ImageType.IMAGE_TYPE_RGB      || 
-	                  imageType == ImageType.IMAGE_TYPE_ARGB     || 
-	                  imageType == ImageType.IMAGE_TYPE_ARGB_PRE || 
-	                  imageType == ImageType.IMAGE_TYPE_GRAY     || 
-	                  imageType == ImageType.IMAGE_TYPE_BINARY   || 
-	                  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
-	                log("Invalid color type specified.");
-	                retval = false;
-	            }
-	
-	            if (!(getMode() == TifMode.TIF_DATA_APPEND || 
-	            	  getMode() == TifMode.TIF_DATA_DISCARD)) {
-	            	log("Invalid mode value specified.");
-	            	retval = false;
-	            }
-	
-	            if (getCompression() == TifCompression.TIF_COMPRESSION_CCITT_RLE  || 
-	            	getCompression() == TifCompression.TIF_COMPRESSION_CCITT_T_4  || 
-	            	getCompression() == TifCompression.TIF_COMPRESSION_CCITT_T_6) {
-	                if (!(imageType == ImageType.IMAGE_TYPE_BINARY || 
-	                	  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
-	                	log("When using CCITT compression, color must be type binary.");
-	                	retval = false;
-	                }
-	                if (imageType == ImageType.IMAGE_TYPE_ARGB || 
-	                	imageType == ImageType.IMAGE_TYPE_ARGB_PRE) {
-	                	log("When using CCITT compression, color cannot be type of ARGB.");
-	                	retval = false;
-	                }
-	            }
-	
-	            if (getCompression() == TifCompression.TIF_COMPRESSION_JPEG) {
-	                if (!(getQuality() >= 1 && 
-	                	  getQuality() <= 100)) {
-	                    setQuality(75);
-	                }
-	            }
-
-	            if (getCompression() == TifCompression.TIF_COMPRESSION_ZLIB) {
-	                if (!(getQuality() >= 1 && 
-	                	  getQuality() <= 9)) {
-	                    setQuality(6);
-	                }
-	            }
-	            break;
-	            
-	        default:
-	        	log("Unsupported image type requested.");
-	        	retval = false;
-        }
-        return retval;
+    	int q = RenderSpec.normalizeQuality(getImageFormat(), getCompression(), getQuality());
+    	if (q != getQuality()) {
+    		setQuality(q);
+    	}
+    	return RenderSpec.isValid(getImageFormat(), getImageType(), getCompression(), getMode());
     }
 
     /**
@@ -0,0 +1,630 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.page;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.PngFilter;
+import com.jmupdf.enums.TifCompression;
+import com.jmupdf.enums.TifMode;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * Render Specification Class
+ *
+ * Immutable description of one render call. Unlike PageRendererOptions </br>
+ * nothing is shared with the page, so a page can be rendered from several </br>
+ * threads at once with different specifications. Every with method </br>
+ * returns a new object. </br></br>
+ *
+ * The bound box is in page coordinates, i.e. 1f zoom and 0 rotation. </br>
+ * An empty bound box renders the whole page.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public final class RenderSpec {
+	/* Field names and types are read by native code */
+	private final int imageFormat;
+	private final int imageType;
+	private final int rotate;
+	private final int quality;
+	private final int compression;
+	private final int mode;
+	private final int antiAlias;
+	private final float zoom;
+	private final float gamma;
+	private final float x0;
+	private final float y0;
+	private final float x1;
+	private final float y1;
+	private final boolean fusedPass;
+	private final int pngCompression;
+	private final int pngFilter;
+	private final int encodeThreads;
+	private final int bandHeight;
+	private final RenderTicket ticket;
+
+	/**
+	 * Create a render specification with default values. </br>
+	 * PNG, RGB, no rotation, zoom 1, anti alias 8, gamma 1, whole page, no fused pass, </br>
+	 * default PNG compression, sub PNG filter, one encode thread, no bands.
+	 */
+	public RenderSpec() {
+		this(ImageFormat.FORMAT_PNG.getIntValue(), ImageType.IMAGE_TYPE_RGB.getIntValue(),
+			 Page.PAGE_ROTATE_NONE, 0, TifCompression.TIF_COMPRESSION_ZLIB.getIntValue(),
+			 TifMode.TIF_DATA_APPEND.getIntValue(), 8, 1f, 1f, 0, 0, 0, 0, false,
+			 -1, PngFilter.PNG_FILTER_SUB.getIntValue(), 1, 0, null);
+	}
+
+	/**
+	 * Create a render specification from current rendering options
+	 * @param options
+	 */
+	public RenderSpec(PageRendererOptions options) {
+		this(options.getImageFormat().getIntValue(), options.getImageType().getIntValue(),
+			 options.getRotate(), options.getQuality(), options.getCompression().getIntValue(),
+			 options.getMode().getIntValue(), options.getAntiAlias(), options.getZoom(), options.getGamma(),
+			 options.getBoundBox().getX0(), options.getBoundBox().getY0(),
+			 options.getBoundBox().getX1(), options.getBoundBox().getY1(), options.isFusedPass(),
+			 options.getPngCompression(), options.getPngFilter().getIntValue(), options.getEncodeThreads(),
+			 options.getBandHeight(), null);
+	}
+
+	/**
+	 * Create a render specification. Values are normalized the same way </br>
+	 * PageRendererOptions normalizes them.
+	 */
+	private RenderSpec(int imageFormat, int imageType, int rotate, int quality, int compression, int mode,
+					   int antiAlias, float zoom, float gamma, float x0, float y0, float x1, float y1, boolean fusedPass,
+					   int pngCompression, int pngFilter, int encodeThreads, int bandHeight, RenderTicket ticket) {
+		if (rotate == Page.PAGE_ROTATE_AUTO) {
+			rotate = Page.PAGE_ROTATE_NONE;
+		}
+		if (zoom <= 0) {
+			zoom = 1f;
+		}
+		if (gamma <= 0) {
+			gamma = 1f;
+		} else if (gamma > 2) {
+			gamma = 2f;
+		}
+		if (antiAlias < 0) {
+			antiAlias = 0;
+		} else if (antiAlias > 8) {
+			antiAlias = 8;
+		}
+		this.imageFormat = imageFormat;
+		this.imageType = imageType;
+		this.rotate = PageRect.rotate360(rotate);
+		this.compression = compression;
+		this.mode = mode;
+		this.antiAlias = antiAlias;
+		this.zoom = zoom;
+		this.gamma = gamma;
+		this.x0 = x0;
+		this.y0 = y0;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.fusedPass = fusedPass;
+		this.pngCompression = normalizePngCompression(pngCompression);
+		this.pngFilter = pngFilter;
+		this.encodeThreads = Math.max(encodeThreads, 1);
+		this.bandHeight = Math.max(bandHeight, 0);
+		this.ticket = ticket;
+		this.quality = normalizeQuality(getImageFormat(), getCompression(), quality);
+	}
+
+	/**
+	 * Copy with new image format
+	 * @param imageFormat
+	 * @return
+	 */
+	public RenderSpec withImageFormat(ImageFormat imageFormat) {
+		return new RenderSpec(imageFormat.getIntValue(), imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new image type
+	 * @param imageType
+	 * @return
+	 */
+	public RenderSpec withImageType(ImageType imageType) {
+		return new RenderSpec(imageFormat, imageType.getIntValue(), rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new rotation
+	 * @param rotate
+	 * @return
+	 */
+	public RenderSpec withRotate(int rotate) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new quality
+	 * @param quality
+	 * @return
+	 */
+	public RenderSpec withQuality(int quality) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new TIF compression
+	 * @param compression
+	 * @return
+	 */
+	public RenderSpec withCompression(TifCompression compression) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression.getIntValue(), mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new TIF mode
+	 * @param mode
+	 * @return
+	 */
+	public RenderSpec withMode(TifMode mode) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode.getIntValue(), antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new anti alias level
+	 * @param antiAlias
+	 * @return
+	 */
+	public RenderSpec withAntiAlias(int antiAlias) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new zoom factor
+	 * @param zoom
+	 * @return
+	 */
+	public RenderSpec withZoom(float zoom) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with zoom factor for a resolution in DPI
+	 * @param dpi
+	 * @return
+	 */
+	public RenderSpec withResolution(float dpi) {
+		return withZoom(dpi / PageRendererOptionsImp.DEFAULT_RESOLUTION);
+	}
+
+	/**
+	 * Copy with new gamma
+	 * @param gamma
+	 * @return
+	 */
+	public RenderSpec withGamma(float gamma) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new bound box. Coordinates are in 1f zoom and 0 rotation.
+	 * @param bbox
+	 * @return
+	 */
+	public RenderSpec withBoundBox(PageRect bbox) {
+		return withBoundBox(bbox.getX0(), bbox.getY0(), bbox.getX1(), bbox.getY1());
+	}
+
+	/**
+	 * Copy with new bound box. Coordinates are in 1f zoom and 0 rotation.
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @return
+	 */
+	public RenderSpec withBoundBox(float x0, float y0, float x1, float y1) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with fused pass on or off. </br>
+	 * When on, gamma correction, unmultiply and packing of pixel data are </br>
+	 * done in one pass over the rendered samples instead of three. </br>
+	 * Only renders to pixel data use it; image files are not affected.
+	 * @param fusedPass
+	 * @return
+	 */
+	public RenderSpec withFusedPass(boolean fusedPass) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new PNG compression level. </br>
+	 * Levels are in the range 0-9 with larger numbers yielding better </br>
+	 * compression at the cost of more computation. -1 selects the zlib default.
+	 * @param pngCompression
+	 * @return
+	 */
+	public RenderSpec withPngCompression(int pngCompression) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new PNG row filter
+	 * @param pngFilter
+	 * @return
+	 */
+	public RenderSpec withPngFilter(PngFilter pngFilter) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter.getIntValue(), encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new number of encode threads. </br>
+	 * Large PNG images are filtered and compressed in row chunks on up to </br>
+	 * this many threads. Other formats are encoded on one thread.
+	 * @param encodeThreads
+	 * @return
+	 */
+	public RenderSpec withEncodeThreads(int encodeThreads) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with new band height. Zero renders the whole image at once. </br>
+	 * Otherwise PNG, JPEG, PNM, PAM and TIF images are rendered and encoded </br>
+	 * this many rows at a time, so only one band of pixels is held in memory. </br>
+	 * Banded PNG images are compressed on one thread.
+	 * @param bandHeight
+	 * @return
+	 */
+	public RenderSpec withBandHeight(int bandHeight) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Copy with a ticket that can cancel renders of this specification, </br>
+	 * or report their progress. Null renders without a ticket.
+	 * @param ticket
+	 * @return
+	 */
+	public RenderSpec withTicket(RenderTicket ticket) {
+		return new RenderSpec(imageFormat, imageType, rotate, quality, compression, mode, antiAlias, zoom, gamma, x0, y0, x1, y1, fusedPass, pngCompression, pngFilter, encodeThreads, bandHeight, ticket);
+	}
+
+	/**
+	 * Get image format
+	 * @return
+	 */
+	public ImageFormat getImageFormat() {
+		for (ImageFormat f : ImageFormat.values()) {
+			if (f.getIntValue() == imageFormat) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get image type
+	 * @return
+	 */
+	public ImageType getImageType() {
+		for (ImageType t : ImageType.values()) {
+			if (t.getIntValue() == imageType) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get rotation
+	 * @return
+	 */
+	public int getRotate() {
+		return rotate;
+	}
+
+	/**
+	 * Get quality
+	 * @return
+	 */
+	public int getQuality() {
+		return quality;
+	}
+
+	/**
+	 * Get TIF compression
+	 * @return
+	 */
+	public TifCompression getCompression() {
+		for (TifCompression c : TifCompression.values()) {
+			if (c.getIntValue() == compression) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get TIF mode
+	 * @return
+	 */
+	public TifMode getMode() {
+		for (TifMode m : TifMode.values()) {
+			if (m.getIntValue() == mode) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get anti alias level
+	 * @return
+	 */
+	public int getAntiAlias() {
+		return antiAlias;
+	}
+
+	/**
+	 * Get zoom factor
+	 * @return
+	 */
+	public float getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Get resolution in DPI
+	 * @return
+	 */
+	public float getResolution() {
+		return zoom * PageRendererOptionsImp.DEFAULT_RESOLUTION;
+	}
+
+	/**
+	 * Get gamma
+	 * @return
+	 */
+	public float getGamma() {
+		return gamma;
+	}
+
+	/**
+	 * Get bound box. Coordinates are in 1f zoom and 0 rotation.
+	 * @return
+	 */
+	public PageRect getBoundBox() {
+		return new PageRect(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Determine if pixel data is packed with the fused pass
+	 * @return
+	 */
+	public boolean isFusedPass() {
+		return fusedPass;
+	}
+
+	/**
+	 * Get PNG compression level
+	 * @return
+	 */
+	public int getPngCompression() {
+		return pngCompression;
+	}
+
+	/**
+	 * Get PNG row filter
+	 * @return
+	 */
+	public PngFilter getPngFilter() {
+		for (PngFilter f : PngFilter.values()) {
+			if (f.getIntValue() == pngFilter) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get number of encode threads
+	 * @return
+	 */
+	public int getEncodeThreads() {
+		return encodeThreads;
+	}
+
+	/**
+	 * Get band height, 0 when the whole image is rendered at once
+	 * @return
+	 */
+	public int getBandHeight() {
+		return bandHeight;
+	}
+
+	/**
+	 * Get render ticket, or null if there is none
+	 * @return
+	 */
+	public RenderTicket getTicket() {
+		return ticket;
+	}
+
+	/**
+	 * Determine if image format and image type can be rendered together
+	 * @return
+	 */
+	public boolean isValid() {
+		return isValid(getImageFormat(), getImageType(), getCompression(), getMode());
+	}
+
+	/**
+	 * Normalize quality for a given image format and TIF compression
+	 *
+	 * @param format
+	 * @param compression
+	 * @param quality
+	 * @return
+	 */
+	static int normalizeQuality(ImageFormat format, TifCompression compression, int quality) {
+		if (format == ImageFormat.FORMAT_JPG) {
+			if (!(quality >= 0 && quality <= 100)) {
+				quality = 75;
+			}
+		} else if (format == ImageFormat.FORMAT_TIF) {
+			if (compression == TifCompression.TIF_COMPRESSION_JPEG) {
+				if (!(quality >= 1 && quality <= 100)) {
+					quality = 75;
+				}
+			}
+			if (compression == TifCompression.TIF_COMPRESSION_ZLIB) {
+				if (!(quality >= 1 && quality <= 9)) {
+					quality = 6;
+				}
+			}
+		}
+		return quality;
+	}
+
+	/**
+	 * Normalize PNG compression level to -1 (zlib default) or 0-9
+	 *
+	 * @param level
+	 * @return
+	 */
+	static int normalizePngCompression(int level) {
+		if (!(level >= 0 && level <= 9)) {
+			level = -1;
+		}
+		return level;
+	}
+
+	/**
+	 * Determine if options can be rendered together. Errors are logged.
+	 *
+	 * @param format
+	 * @param imageType
+	 * @param compression
+	 * @param mode
+	 * @return
+	 */
+	static boolean isValid(ImageFormat format, ImageType imageType, TifCompression compression, TifMode mode) {
+		boolean retval = true;
+
+		if (format == null || imageType == null) {
+			log("Unsupported image type requested.");
+			return false;
+		}
+
+		switch (format) {
+			case FORMAT_BUFFERED_IMAGE:
+				break;
+
+			case FORMAT_PNG:
+				if (!(imageType == ImageType.IMAGE_TYPE_RGB      ||
+					  imageType == ImageType.IMAGE_TYPE_ARGB     ||
+					  imageType == ImageType.IMAGE_TYPE_ARGB_PRE ||
+					  imageType == ImageType.IMAGE_TYPE_GRAY)) {
+					log("Invalid ImageType=" + imageType);
+					retval = false;
+				}
+				break;
+
+			case FORMAT_PNM:
+				if (!(imageType == ImageType.IMAGE_TYPE_RGB ||
+					  imageType == ImageType.IMAGE_TYPE_GRAY)) {
+					log("Invalid ImageType=" + imageType);
+					retval = false;
+				}
+				break;
+
+			case FORMAT_PBM:
+				if (!(imageType == ImageType.IMAGE_TYPE_GRAY)) {
+					log("Invalid ImageType=" + imageType);
+					retval = false;
+				}
+				break;
+
+			case FORMAT_JPG:
+				if (!(imageType == ImageType.IMAGE_TYPE_RGB ||
+					  imageType == ImageType.IMAGE_TYPE_GRAY)) {
+					log("Invalid ImageType=" + imageType);
+					retval = false;
+				}
+				break;
+
+			case FORMAT_BMP:
+				if (!(imageType == ImageType.IMAGE_TYPE_RGB    ||
+					  imageType == ImageType.IMAGE_TYPE_GRAY   ||
+					  imageType == ImageType.IMAGE_TYPE_BINARY ||
+					  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
+					log("Invalid ImageType=" + imageType);
+					retval = false;
+				}
+				break;
+
+			case FORMAT_PAM:
+				if (!(imageType == ImageType.IMAGE_TYPE_RGB      ||
+					  imageType == ImageType.IMAGE_TYPE_ARGB     ||
+					  imageType == ImageType.IMAGE_TYPE_ARGB_PRE ||
+					  imageType == ImageType.IMAGE_TYPE_GRAY)) {
+					log("Invalid ImageType=" + imageType);
+					retval = false;
+				}
+				break;
+
+			case FORMAT_TIF:
+				if (!(imageType == ImageType.IMAGE_TYPE_RGB      ||
+					  imageType == ImageType.IMAGE_TYPE_ARGB     ||
+					  imageType == ImageType.IMAGE_TYPE_ARGB_PRE ||
+					  imageType == ImageType.IMAGE_TYPE_GRAY     ||
+					  imageType == ImageType.IMAGE_TYPE_BINARY   ||
+					  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
+					log("Invalid color type specified.");
+					retval = false;
+				}
+
+				if (!(mode == TifMode.TIF_DATA_APPEND ||
+					  mode == TifMode.TIF_DATA_DISCARD)) {
+					log("Invalid mode value specified.");
+					retval = false;
+				}
+
+				if (compression == TifCompression.TIF_COMPRESSION_CCITT_RLE  ||
+					compression == TifCompression.TIF_COMPRESSION_CCITT_T_4  ||
+					compression == TifCompression.TIF_COMPRESSION_CCITT_T_6) {
+					if (!(imageType == ImageType.IMAGE_TYPE_BINARY ||
+						  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
+						log("When using CCITT compression, color must be type binary.");
+						retval = false;
+					}
+					if (imageType == ImageType.IMAGE_TYPE_ARGB ||
+						imageType == ImageType.IMAGE_TYPE_ARGB_PRE) {
+						log("When using CCITT compression, color cannot be type of ARGB.");
+						retval = false;
+					}
+				}
+				break;
+
+			default:
+				log("Unsupported image type requested.");
+				retval = false;
+		}
+		return retval;
+	}
+
+	/**
+	 * Print error messages
+	 * @param text
+	 */
+	private static void log(String text) {
+		System.err.println(text);
+	}
+
+}
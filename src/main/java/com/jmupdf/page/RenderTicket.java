@@ -0,0 +1,182 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.page;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render Ticket Class
+ *
+ * Cancels renders and reports their progress while they run. Give the </br>
+ * ticket to a render with RenderSpec.withTicket() and call cancel() from </br>
+ * any thread, e.g. when the user scrolled away or a client disconnected. </br>
+ * The render stops within a few drawing operations and returns what </br>
+ * the call returns on error: null, false or -1. </br></br>
+ *
+ * The ticket is shared with native code as a mupdf cookie. Reads and </br>
+ * writes are not synchronized, so progress is a close estimate. </br>
+ * Progress counts display list operations and starts over for every </br>
+ * band of a banded render. One ticket may cancel several renders at </br>
+ * once, but then progress is that of whichever render updated it last. </br></br>
+ *
+ * A ticket with a deadline cancels itself when the deadline passes. </br>
+ * Once cancelled a ticket stays cancelled.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public final class RenderTicket {
+	private static final int ABORT = 0;
+	private static final int PROGRESS = 4;
+	private static final int PROGRESS_MAX = 8;
+	private static final int ERRORS = 12;
+	private static ScheduledThreadPoolExecutor timer;
+
+	/* Field name and type are read by native code */
+	private final ByteBuffer cookie;
+	private final long deadline;
+	private ScheduledFuture<?> expiry;
+
+	/**
+	 * Create a render ticket without a deadline
+	 */
+	public RenderTicket() {
+		this.cookie = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder());
+		this.deadline = 0;
+	}
+
+	/**
+	 * Create a render ticket that cancels itself after timeout
+	 * @param timeout
+	 * @param unit
+	 */
+	public RenderTicket(long timeout, TimeUnit unit) {
+		this.cookie = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder());
+		this.deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (timeout <= 0) {
+			cookie.putInt(ABORT, 1);
+		} else {
+			this.expiry = getTimer().schedule(new Runnable() {
+				public void run() {
+					cookie.putInt(ABORT, 1);
+				}
+			}, timeout, unit);
+		}
+	}
+
+	/**
+	 * Cancel all renders using this ticket, now and later
+	 */
+	public synchronized void cancel() {
+		cookie.putInt(ABORT, 1);
+		dispose();
+	}
+
+	/**
+	 * Determine if ticket was cancelled or its deadline passed
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cookie.getInt(ABORT) != 0;
+	}
+
+	/**
+	 * Determine if deadline passed
+	 * @return
+	 */
+	public boolean isExpired() {
+		return deadline != 0 && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * Get time left until the deadline
+	 * @param unit
+	 * @return Time left, 0 once passed, or Long.MAX_VALUE without a deadline
+	 */
+	public long getRemaining(TimeUnit unit) {
+		if (deadline == 0) {
+			return Long.MAX_VALUE;
+		}
+		return unit.convert(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get number of display list operations drawn
+	 * @return
+	 */
+	public int getProgress() {
+		return cookie.getInt(PROGRESS);
+	}
+
+	/**
+	 * Get number of display list operations to draw, 0 before drawing starts
+	 * @return
+	 */
+	public int getProgressMax() {
+		return cookie.getInt(PROGRESS_MAX);
+	}
+
+	/**
+	 * Get share of operations drawn, 0 to 1
+	 * @return
+	 */
+	public float getFraction() {
+		int max = getProgressMax();
+		if (max <= 0) {
+			return 0;
+		}
+		return Math.min(getProgress() / (float)max, 1f);
+	}
+
+	/**
+	 * Get number of errors found while drawing
+	 * @return
+	 */
+	public int getErrors() {
+		return cookie.getInt(ERRORS);
+	}
+
+	/**
+	 * Stop waiting for the deadline. Call once renders are done so the </br>
+	 * ticket is not held until then. The ticket is not cancelled.
+	 */
+	public synchronized void dispose() {
+		if (expiry != null) {
+			expiry.cancel(false);
+			expiry = null;
+		}
+	}
+
+	/* */
+	public String toString() {
+		return "RenderTicket[cancelled=" + isCancelled() + ", progress=" + getProgress() + "/" + getProgressMax() +
+			   ", errors=" + getErrors() + "]";
+	}
+
+	/**
+	 * Get shared timer thread that cancels tickets at their deadline
+	 * @return
+	 */
+	private static synchronized ScheduledThreadPoolExecutor getTimer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RenderTicket");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		return timer;
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.page;
+
+import java.io.IOException;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.TifMode;
+import com.jmupdf.interfaces.Page;
+
+/**
+ * TIF Writer Class
+ *
+ * Keeps one TIF file open while pages are added to it, so a multi-page </br>
+ * export does not reopen and rescan the file for every page. </br>
+ * Each page is rendered in bands and written as strips or tiles straight </br>
+ * from them, so only one band of pixels is held in memory at a time. </br></br>
+ *
+ * The file is complete once close() has been called. Pages may come </br>
+ * from different documents; a writer is safe to share between threads </br>
+ * but pages are written one at a time.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class TiffWriter extends JmuPdf {
+	private final String file;
+	private long handle;
+	private int stripRows;
+	private int tileWidth;
+	private int tileHeight;
+	private int pageCount;
+
+	/**
+	 * Open a TIF file for writing
+	 *
+	 * @param file
+	 * @param mode TIF_DATA_APPEND adds pages to an existing file, </br>
+	 *             TIF_DATA_DISCARD replaces it
+	 * @throws IOException if the file could not be opened
+	 */
+	public TiffWriter(String file, TifMode mode) throws IOException {
+		this.file = file;
+		this.handle = openTiff(file.getBytes(), mode.getIntValue());
+		if (handle <= 0) {
+			throw new IOException("Error " + handle + ": TIF file " + file + " could not be opened.");
+		}
+	}
+
+	/**
+	 * Get file name
+	 * @return
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * Set number of rows per strip for following pages. </br>
+	 * Zero uses the band height of the spec a page is written with, </br>
+	 * or one strip for the whole page when that is zero too. </br>
+	 * Strips compressed with JPEG are rounded up to a multiple of 16 rows.
+	 * @param stripRows
+	 */
+	public synchronized void setStripRows(int stripRows) {
+		this.stripRows = Math.max(stripRows, 0);
+	}
+
+	/**
+	 * Get number of rows per strip
+	 * @return
+	 */
+	public synchronized int getStripRows() {
+		return stripRows;
+	}
+
+	/**
+	 * Write following pages as tiles instead of strips. </br>
+	 * Sizes are rounded up to a multiple of 16. Zero turns tiles off.
+	 * @param tileWidth
+	 * @param tileHeight
+	 */
+	public synchronized void setTileSize(int tileWidth, int tileHeight) {
+		if (tileWidth <= 0 || tileHeight <= 0) {
+			this.tileWidth = 0;
+			this.tileHeight = 0;
+		} else {
+			this.tileWidth = (tileWidth + 15) & ~15;
+			this.tileHeight = (tileHeight + 15) & ~15;
+		}
+	}
+
+	/**
+	 * Get tile width, 0 when pages are written as strips
+	 * @return
+	 */
+	public synchronized int getTileWidth() {
+		return tileWidth;
+	}
+
+	/**
+	 * Get tile height, 0 when pages are written as strips
+	 * @return
+	 */
+	public synchronized int getTileHeight() {
+		return tileHeight;
+	}
+
+	/**
+	 * Get number of pages written
+	 * @return
+	 */
+	public synchronized int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Add a page to the file. </br>
+	 * Image type, TIF compression, quality, zoom, rotation and bound box </br>
+	 * are taken from spec. Its image format and mode are ignored.
+	 *
+	 * @param page
+	 * @param spec
+	 * @return true upon success, false otherwise
+	 */
+	public synchronized boolean writePage(Page page, RenderSpec spec) {
+		if (handle <= 0) {
+			log("TIF file " + file + " is closed.");
+			return false;
+		}
+		spec = spec.withImageFormat(ImageFormat.FORMAT_TIF);
+		if (spec.isValid() && ((PageImp)page).loadDisplayList()) {
+			int rc = writeTiffPage(handle, page.getHandle(), spec, stripRows, tileWidth, tileHeight);
+			if (rc == 0) {
+				pageCount++;
+				return true;
+			}
+			log("Error " + rc + ": Page " + page.getPageNumber() + " could not be written to " + file + ".");
+		}
+		return false;
+	}
+
+	/**
+	 * Finish and close the file
+	 * @return true if every page was written, false otherwise
+	 */
+	public synchronized boolean close() {
+		if (handle > 0) {
+			int rc = closeTiff(handle);
+			handle = 0;
+			return rc == 0;
+		}
+		return false;
+	}
+
+}
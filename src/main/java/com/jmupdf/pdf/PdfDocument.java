@@ -5,10 +5,14 @@
  */
 package com.jmupdf.pdf;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
 import com.jmupdf.document.DocumentImp;
 import com.jmupdf.enums.DictionaryType;
 import com.jmupdf.enums.DocumentType;
 import com.jmupdf.enums.EncryptType;
+import com.jmupdf.enums.OpenMode;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 
@@ -67,6 +71,30 @@ public final class PdfDocument extends DocumentImp {
 		this(document, null, 0);
 	}
 
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param password
+	 * @param maxStore
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(String document, String password, int maxStore, OpenMode mode) throws DocException, DocSecurityException {
+		open(document, password, DOC_TYPE, maxStore, mode);
+	}
+
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(String document, OpenMode mode) throws DocException, DocSecurityException {
+		this(document, null, 0, mode);
+	}
+
 	/**
 	 * Create a new document object
 	 * @param document
@@ -111,6 +139,85 @@ public final class PdfDocument extends DocumentImp {
 		this(document, null, 0);
 	}
 
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @param password
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document, String password, int maxStore) throws DocException, DocSecurityException {
+		open(document, password, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @param password
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document, String password) throws DocException, DocSecurityException {
+		this(document, password, 0);
+	}
+
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document, int maxStore) throws DocException, DocSecurityException {
+		this(document, null, maxStore);
+	}
+
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document) throws DocException, DocSecurityException {
+		this(document, null, 0);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel. </br>
+	 * The channel must stay open until the document is disposed.
+	 * @param document
+	 * @param password
+	 * @param maxStore
+	 * @param readAhead : Read ahead buffer size in bytes
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(SeekableByteChannel document, String password, int maxStore, int readAhead) throws DocException, DocSecurityException {
+		open(document, readAhead, password, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel
+	 * @param document
+	 * @param password
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(SeekableByteChannel document, String password) throws DocException, DocSecurityException {
+		this(document, password, 0, DEFAULT_READ_AHEAD);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(SeekableByteChannel document) throws DocException, DocSecurityException {
+		this(document, null, 0, DEFAULT_READ_AHEAD);
+	}
+
 	/**
 	 * Get document information from info dictionary
 	 * @param key
@@ -411,7 +518,13 @@ public final class PdfDocument extends DocumentImp {
 		PdfDocument doc = null;
 		if (getHandle() > 0) {
 			try {
-				doc = new PdfDocument(getDocumentName(), getPassWord());
+				if (getDocumentBuffer() != null) {
+					doc = new PdfDocument(getDocumentBuffer(), getPassWord());
+				} else if (getDocumentChannel() != null) {
+					doc = new PdfDocument(getDocumentChannel(), getPassWord(), 0, getReadAhead());
+				} else {
+					doc = new PdfDocument(getDocumentName(), getPassWord(), 0, getOpenMode());
+				}
 			} catch (DocException e) {
 				doc = null;
 			} catch (DocSecurityException e) {
@@ -12,6 +12,7 @@ import java.awt.print.PageFormat;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
 import java.awt.print.PrinterJob;
+import java.util.List;
 import java.util.Locale;
 
 import javax.print.CancelablePrintJob;
@@ -422,17 +423,21 @@ public class PrintServices implements Printable, PrintJobListener, Runnable {
 			}
 		}
 		
-		/* Render all tiles and send to printer */
-		for (TiledImage tile : tc.getTiles()) {
-			tile.render();
-			if (totalTiles-1 == tile.getTileY()) {
-				if ((tile.getHeight()/zoomFactor) < gh) {
-					gh = (int)(tile.getHeight()/zoomFactor);
+		/* Render tiles in parallel, one per processor at a time, and send to printer */
+		int group = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < totalTiles; i += group) {
+			List<TiledImage> tiles = tc.getTiles().subList(i, Math.min(i + group, totalTiles));
+			tc.render(tiles);
+			for (TiledImage tile : tiles) {
+				if (totalTiles-1 == tile.getTileY()) {
+					if ((tile.getHeight()/zoomFactor) < gh) {
+						gh = (int)(tile.getHeight()/zoomFactor);
+					}
 				}
+		        g2.drawImage(tile.getImage(), gx, gy, gw, gh, null);
+		        gy += gh;
+		        tile.dispose();
 			}
-	        g2.drawImage(tile.getImage(), gx, gy, gw, gh, null);
-	        gy += gh;
-	        tile.dispose();
 		}
 		
 		tc.dispose();
@@ -0,0 +1,158 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.server;
+
+import java.util.Arrays;
+
+/**
+ * Endpoint Metrics Class
+ *
+ * Request counts and latency of one RenderServer endpoint. </br>
+ * Latency is measured from the moment a request is handled until its </br>
+ * response is written. Percentiles are taken over the most recent </br>
+ * requests only, so they follow the current load.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class EndpointMetrics {
+	private static final int WINDOW = 1024;
+
+	private final String name;
+	private final long[] window = new long[WINDOW];
+	private long requests;
+	private long notModified;
+	private long clientErrors;
+	private long serverErrors;
+	private long rejected;
+	private long total;
+	private long max;
+
+	/**
+	 * Create endpoint metrics
+	 * @param name
+	 */
+	EndpointMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record a request
+	 * @param status : HTTP status sent
+	 * @param latency : Latency in nanoseconds
+	 */
+	synchronized void record(int status, long latency) {
+		window[(int)(requests % WINDOW)] = latency;
+		requests++;
+		total += latency;
+		max = Math.max(max, latency);
+		if (status == 304) {
+			notModified++;
+		} else if (status == 503) {
+			rejected++;
+		} else if (status >= 500) {
+			serverErrors++;
+		} else if (status >= 400) {
+			clientErrors++;
+		}
+	}
+
+	/**
+	 * Get endpoint name
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get number of requests
+	 * @return
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Get number of requests answered with 304 Not Modified
+	 * @return
+	 */
+	public synchronized long getNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Get number of requests answered with a 4xx status
+	 * @return
+	 */
+	public synchronized long getClientErrors() {
+		return clientErrors;
+	}
+
+	/**
+	 * Get number of requests answered with a 5xx status other than 503
+	 * @return
+	 */
+	public synchronized long getServerErrors() {
+		return serverErrors;
+	}
+
+	/**
+	 * Get number of requests answered with 503 because the queue was full or the render timed out
+	 * @return
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Get mean latency of all requests in milliseconds
+	 * @return
+	 */
+	public synchronized double getMeanLatency() {
+		if (requests == 0) {
+			return 0;
+		}
+		return total / 1e6 / requests;
+	}
+
+	/**
+	 * Get highest latency of all requests in milliseconds
+	 * @return
+	 */
+	public synchronized double getMaxLatency() {
+		return max / 1e6;
+	}
+
+	/**
+	 * Get latency percentile of recent requests in milliseconds
+	 * @param percentile : 0 to 100
+	 * @return
+	 */
+	public synchronized double getLatency(double percentile) {
+		int n = (int)Math.min(requests, WINDOW);
+		if (n == 0) {
+			return 0;
+		}
+		if (percentile < 0) {
+			percentile = 0;
+		} else if (percentile > 100) {
+			percentile = 100;
+		}
+		long[] sorted = Arrays.copyOf(window, n);
+		Arrays.sort(sorted);
+		int i = (int)Math.ceil(percentile / 100 * n) - 1;
+		return sorted[Math.max(i, 0)] / 1e6;
+	}
+
+	/* */
+	public synchronized String toString() {
+		return String.format("%s requests=%d not_modified=%d client_errors=%d server_errors=%d rejected=%d latency mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+							 name, requests, notModified, clientErrors, serverErrors, rejected,
+							 getMeanLatency(), getLatency(50), getLatency(90), getLatency(99), getMaxLatency());
+	}
+
+}
@@ -0,0 +1,961 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.jmupdf.document.DocumentPool;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageTask;
+import com.jmupdf.page.PageRect;
+import com.jmupdf.page.RenderSpec;
+import com.jmupdf.page.RenderTicket;
+import com.jmupdf.tiles.TiledImage;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Render Server Class
+ *
+ * Serves page and tile images of registered documents over HTTP, </br>
+ * using the HTTP server of the JDK. Endpoints are: </br></br>
+ *
+ * /doc/{id}/page/{n}.png?dpi=&rotate=&type= </br>
+ * /doc/{id}/tile/{n}/{x}_{y}.png?dpi=&rotate=&type=&size= </br>
+ * /metrics </br></br>
+ *
+ * Images may also be requested as .jpg with an optional quality. Type is </br>
+ * one of rgb, argb or gray. Tiles are size pixels square at the </br>
+ * requested dpi, numbered from the top left corner of the page image. </br></br>
+ *
+ * Every document is rendered through a DocumentPool, so requests for </br>
+ * different pages render in parallel. Encoded images are kept in a </br>
+ * ResponseCache and carry an ETag, so clients revalidate with </br>
+ * If-None-Match without anything being rendered. Renders run on a </br>
+ * fixed number of workers behind a bounded queue; when the queue is </br>
+ * full requests are answered at once with 503 and Retry-After. </br>
+ * Requests for the same image share one render. With a render timeout, </br>
+ * a request still waiting when its own timeout passes is answered with </br>
+ * 503; the render is cancelled once no request waits for it any more. </br></br>
+ *
+ * Pools are not disposed by the server. Remove a document before </br>
+ * disposing its pool.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class RenderServer {
+	private static final Pattern PAGE_PATH = Pattern.compile("/doc/([^/]+)/page/(\\d+)\\.(png|jpg)");
+	private static final Pattern TILE_PATH = Pattern.compile("/doc/([^/]+)/tile/(\\d+)/(\\d+)_(\\d+)\\.(png|jpg)");
+	private static final AtomicLong generations = new AtomicLong(System.currentTimeMillis());
+
+	private final HttpServer server;
+	private final ConcurrentHashMap<String, Registration> documents = new ConcurrentHashMap<String, Registration>();
+	private final ResponseCache cache = new ResponseCache(64L << 20);
+	private final EndpointMetrics pageMetrics = new EndpointMetrics("page");
+	private final EndpointMetrics tileMetrics = new EndpointMetrics("tile");
+	private final HashMap<String, SharedRender> rendering = new HashMap<String, SharedRender>();
+	private ExecutorService httpExecutor;
+	private ThreadPoolExecutor renderExecutor;
+	private ScheduledThreadPoolExecutor timer;
+	private int workers;
+	private int queueSize;
+	private int maxDpi = 600;
+	private int defaultDpi = 72;
+	private int defaultTileSize = 256;
+	private long renderTimeout = 0;
+
+	/**
+	 * Create a render server on a port of the loopback interface
+	 * @param port : Port, or 0 for any free port
+	 * @throws IOException
+	 */
+	public RenderServer(int port) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * Create a render server
+	 * @param address
+	 * @throws IOException if the address could not be bound
+	 */
+	public RenderServer(InetSocketAddress address) throws IOException {
+		this.server = HttpServer.create(address, 0);
+		this.workers = Runtime.getRuntime().availableProcessors();
+		this.queueSize = workers * 8;
+		this.server.createContext("/doc/", new DocumentHandler());
+		this.server.createContext("/metrics", new MetricsHandler());
+	}
+
+	/**
+	 * Register a document
+	 * @param id : Name used in request paths. It may not contain '/'.
+	 * @param pool : Handles pages are rendered with
+	 */
+	public void addDocument(String id, DocumentPool pool) {
+		if (id == null || id.length() == 0 || id.indexOf('/') >= 0) {
+			throw new IllegalArgumentException("Invalid document id " + id);
+		}
+		Registration old = documents.put(id, new Registration(pool, generations.incrementAndGet()));
+		if (old != null) {
+			cache.removeAll(id + "/");
+		}
+	}
+
+	/**
+	 * Remove a document and drop its cached images. </br>
+	 * Requests already rendering still use its pool.
+	 * @param id
+	 */
+	public void removeDocument(String id) {
+		if (documents.remove(id) != null) {
+			cache.removeAll(id + "/");
+		}
+	}
+
+	/**
+	 * Set number of render workers. Defaults to available processors when <= 0. </br>
+	 * Takes effect on start().
+	 * @param workers
+	 */
+	public void setWorkers(int workers) {
+		if (workers <= 0) {
+			workers = Runtime.getRuntime().availableProcessors();
+		}
+		this.workers = workers;
+	}
+
+	/**
+	 * Get number of render workers
+	 * @return
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Set number of requests that may wait for a render worker. </br>
+	 * Further requests get 503. The default is 8 per worker. Takes effect on start().
+	 * @param queueSize
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = Math.max(queueSize, 1);
+	}
+
+	/**
+	 * Get number of requests that may wait for a render worker
+	 * @return
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Set highest dpi a request may ask for. The default is 600.
+	 * @param maxDpi
+	 */
+	public void setMaxDpi(int maxDpi) {
+		this.maxDpi = maxDpi;
+	}
+
+	/**
+	 * Get highest dpi a request may ask for
+	 * @return
+	 */
+	public int getMaxDpi() {
+		return maxDpi;
+	}
+
+	/**
+	 * Set dpi of requests without one. The default is 72.
+	 * @param defaultDpi
+	 */
+	public void setDefaultDpi(int defaultDpi) {
+		this.defaultDpi = defaultDpi;
+	}
+
+	/**
+	 * Get dpi of requests without one
+	 * @return
+	 */
+	public int getDefaultDpi() {
+		return defaultDpi;
+	}
+
+	/**
+	 * Set size of tiles requested without one. The default is 256.
+	 * @param defaultTileSize
+	 */
+	public void setDefaultTileSize(int defaultTileSize) {
+		this.defaultTileSize = defaultTileSize;
+	}
+
+	/**
+	 * Get size of tiles requested without one
+	 * @return
+	 */
+	public int getDefaultTileSize() {
+		return defaultTileSize;
+	}
+
+	/**
+	 * Set time a request may take from arrival until its image is </br>
+	 * rendered. Requests waiting longer get 503, and a render no request </br>
+	 * waits for any more is cancelled. The default is 0, no limit.
+	 * @param millis
+	 */
+	public void setRenderTimeout(long millis) {
+		this.renderTimeout = Math.max(millis, 0);
+	}
+
+	/**
+	 * Get time a request may take until its image is rendered
+	 * @return
+	 */
+	public long getRenderTimeout() {
+		return renderTimeout;
+	}
+
+	/**
+	 * Get cache of encoded images
+	 * @return
+	 */
+	public ResponseCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Get metrics of the page endpoint
+	 * @return
+	 */
+	public EndpointMetrics getPageMetrics() {
+		return pageMetrics;
+	}
+
+	/**
+	 * Get metrics of the tile endpoint
+	 * @return
+	 */
+	public EndpointMetrics getTileMetrics() {
+		return tileMetrics;
+	}
+
+	/**
+	 * Get address the server listens on
+	 * @return
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Get port the server listens on
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Start serving requests
+	 */
+	public synchronized void start() {
+		renderExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+												new ArrayBlockingQueue<Runnable>(queueSize),
+												new DaemonThreadFactory("RenderServer-render"));
+		httpExecutor = Executors.newFixedThreadPool(Math.max(workers, 2), new DaemonThreadFactory("RenderServer-http"));
+		timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("RenderServer-timer"));
+		timer.setRemoveOnCancelPolicy(true);
+		server.setExecutor(httpExecutor);
+		server.start();
+	}
+
+	/**
+	 * Stop serving requests. Renders still running after delay are </br>
+	 * cancelled and their requests answered with 503.
+	 * @param delay : Seconds to wait for open exchanges to finish
+	 */
+	public synchronized void stop(int delay) {
+		server.stop(delay);
+		List<SharedRender> running;
+		synchronized (rendering) {
+			running = new ArrayList<SharedRender>(rendering.values());
+			rendering.clear();
+		}
+		for (SharedRender render : running) {
+			render.abort();
+		}
+		if (renderExecutor != null) {
+			renderExecutor.shutdownNow();
+			httpExecutor.shutdownNow();
+			timer.shutdownNow();
+			renderExecutor = null;
+			httpExecutor = null;
+			timer = null;
+		}
+	}
+
+	/**
+	 * Parse a request. Returns null after sending an error response.
+	 * @param ex
+	 * @param path
+	 * @param start
+	 * @return
+	 * @throws IOException
+	 */
+	private RenderRequest parse(HttpExchange ex, String path, long start) throws IOException {
+		Matcher page = PAGE_PATH.matcher(path);
+		Matcher tile = TILE_PATH.matcher(path);
+		boolean isTile;
+		if (page.matches()) {
+			isTile = false;
+		} else if (tile.matches()) {
+			isTile = true;
+		} else {
+			sendError(ex, null, start, 404, "Not found");
+			return null;
+		}
+
+		Matcher m = isTile ? tile : page;
+		EndpointMetrics metrics = isTile ? tileMetrics : pageMetrics;
+
+		if (!ex.getRequestMethod().equals("GET") && !ex.getRequestMethod().equals("HEAD")) {
+			ex.getResponseHeaders().set("Allow", "GET, HEAD");
+			sendError(ex, metrics, start, 405, "Method not allowed");
+			return null;
+		}
+
+		String id = m.group(1);
+		Registration reg = documents.get(id);
+		if (reg == null) {
+			sendError(ex, metrics, start, 404, "Unknown document " + id);
+			return null;
+		}
+
+		RenderRequest req = new RenderRequest();
+		req.id = id;
+		req.registration = reg;
+		req.metrics = metrics;
+		req.tile = isTile;
+		try {
+			req.pageNumber = Integer.parseInt(m.group(2));
+			if (isTile) {
+				req.tilex = Integer.parseInt(m.group(3));
+				req.tiley = Integer.parseInt(m.group(4));
+			}
+		} catch (NumberFormatException e) {
+			sendError(ex, metrics, start, 404, "Not found");
+			return null;
+		}
+		if (req.pageNumber < 1 || req.pageNumber > reg.pool.getDocument().getPageCount()) {
+			sendError(ex, metrics, start, 404, "Unknown page " + m.group(2));
+			return null;
+		}
+
+		String ext = m.group(isTile ? 5 : 3);
+		ImageFormat format = ext.equals("png") ? ImageFormat.FORMAT_PNG : ImageFormat.FORMAT_JPG;
+
+		Map<String, String> query = parseQuery(ex.getRequestURI().getRawQuery());
+		int dpi, rotate, quality, size;
+		ImageType type;
+		try {
+			dpi = getInt(query, "dpi", defaultDpi);
+			rotate = getInt(query, "rotate", 0);
+			quality = getInt(query, "quality", 85);
+			size = getInt(query, "size", defaultTileSize);
+			type = getType(query.get("type"));
+		} catch (IllegalArgumentException e) {
+			sendError(ex, metrics, start, 400, e.getMessage());
+			return null;
+		}
+
+		if (dpi < 1 || dpi > maxDpi) {
+			sendError(ex, metrics, start, 400, "dpi must be 1 to " + maxDpi);
+			return null;
+		}
+		if (rotate != 0 && rotate != 90 && rotate != 180 && rotate != 270) {
+			sendError(ex, metrics, start, 400, "rotate must be 0, 90, 180 or 270");
+			return null;
+		}
+		if (quality < 1 || quality > 100) {
+			sendError(ex, metrics, start, 400, "quality must be 1 to 100");
+			return null;
+		}
+		if (size < 16 || size > 4096) {
+			sendError(ex, metrics, start, 400, "size must be 16 to 4096");
+			return null;
+		}
+		if (type == ImageType.IMAGE_TYPE_ARGB && format == ImageFormat.FORMAT_JPG) {
+			sendError(ex, metrics, start, 400, "argb is only supported for png");
+			return null;
+		}
+
+		req.format = format;
+		req.size = size;
+		req.spec = new RenderSpec().withImageFormat(format).withImageType(type)
+								   .withRotate(rotate).withZoom(dpi / 72f).withQuality(quality);
+
+		StringBuilder sb = new StringBuilder();
+		if (isTile) {
+			sb.append("tile/").append(req.pageNumber).append('/').append(req.tilex).append('_').append(req.tiley);
+		} else {
+			sb.append("page/").append(req.pageNumber);
+		}
+		sb.append('.').append(ext).append("?dpi=").append(dpi).append("&rotate=").append(rotate);
+		sb.append("&type=").append(query.containsKey("type") ? query.get("type") : "rgb");
+		if (isTile) {
+			sb.append("&size=").append(size);
+		}
+		if (format == ImageFormat.FORMAT_JPG) {
+			sb.append("&quality=").append(quality);
+		}
+		req.key = id + "/" + reg.generation + "/" + sb;
+		req.etag = "\"" + Long.toString(reg.generation, 36) + "-" + sb + "\"";
+
+		return req;
+	}
+
+	/**
+	 * Join the render of a request, starting it when no other request </br>
+	 * is rendering the same image. The response is sent once the render </br>
+	 * is done or the request's own timeout passes.
+	 * @param ex
+	 * @param req
+	 * @param start
+	 */
+	private void join(HttpExchange ex, final RenderRequest req, long start) {
+		Waiter waiter = new Waiter(ex, req, start);
+		long left = 0;
+
+		// Deadline counts from arrival, so requests that waited too long are not rendered
+		if (renderTimeout > 0) {
+			left = renderTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (left <= 0) {
+				ex.getResponseHeaders().set("Retry-After", "1");
+				sendError(ex, req.metrics, start, 503, "Render timed out");
+				return;
+			}
+		}
+
+		SharedRender render;
+		synchronized (rendering) {
+			render = rendering.get(req.key);
+			if (render == null) {
+				final RenderTicket ticket = new RenderTicket();
+				render = new SharedRender(req.key, ticket, new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						return load(req, ticket);
+					}
+				});
+				try {
+					ThreadPoolExecutor exec = renderExecutor;
+					if (exec == null) {
+						throw new RejectedExecutionException();
+					}
+					exec.execute(render);
+				} catch (RejectedExecutionException e) {
+					ex.getResponseHeaders().set("Retry-After", "1");
+					sendError(ex, req.metrics, start, 503, "Server is busy");
+					return;
+				}
+				rendering.put(req.key, render);
+			}
+			render.waiters.add(waiter);
+		}
+
+		ScheduledThreadPoolExecutor t = timer;
+		if (left > 0 && t != null) {
+			final SharedRender shared = render;
+			final Waiter w = waiter;
+			try {
+				waiter.timeout = t.schedule(new Runnable() {
+					public void run() {
+						expire(shared, w);
+					}
+				}, left, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Server is stopping, the render is cancelled
+			}
+		}
+	}
+
+	/**
+	 * Answer a request whose timeout passed. Cancels the render when </br>
+	 * it was the last request waiting for it.
+	 * @param render
+	 * @param waiter
+	 */
+	private void expire(SharedRender render, Waiter waiter) {
+		if (!waiter.answer()) {
+			return;
+		}
+		boolean last;
+		synchronized (rendering) {
+			render.waiters.remove(waiter);
+			last = render.waiters.isEmpty() && !render.isDone();
+			if (last && rendering.get(render.key) == render) {
+				rendering.remove(render.key);
+			}
+		}
+		if (last) {
+			render.abort();
+		}
+		waiter.ex.getResponseHeaders().set("Retry-After", "1");
+		sendError(waiter.ex, waiter.req.metrics, waiter.start, 503, "Render timed out");
+	}
+
+	/**
+	 * Send the result of a finished render to a request
+	 * @param render
+	 * @param waiter
+	 */
+	private void respond(SharedRender render, Waiter waiter) {
+		if (!waiter.answer()) {
+			return;
+		}
+		HttpExchange ex = waiter.ex;
+		RenderRequest req = waiter.req;
+		try {
+			byte[] bytes = render.get();
+			ex.getResponseHeaders().set("ETag", req.etag);
+			ex.getResponseHeaders().set("Content-Type", req.format == ImageFormat.FORMAT_PNG ? "image/png" : "image/jpeg");
+			send(ex, req.metrics, waiter.start, 200, bytes);
+		} catch (CancellationException e) {
+			ex.getResponseHeaders().set("Retry-After", "1");
+			sendError(ex, req.metrics, waiter.start, 503, "Render was cancelled");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NotFoundException) {
+				sendError(ex, req.metrics, waiter.start, 404, e.getCause().getMessage());
+			} else if (e.getCause() instanceof CancellationException) {
+				ex.getResponseHeaders().set("Retry-After", "1");
+				sendError(ex, req.metrics, waiter.start, 503, "Render was cancelled");
+			} else {
+				log("Error: " + req.key + " could not be rendered. " + e.getCause());
+				sendError(ex, req.metrics, waiter.start, 500, "Image could not be rendered");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			sendError(ex, req.metrics, waiter.start, 503, "Server is stopping");
+		}
+	}
+
+	/**
+	 * Render encoded image of a request and cache it
+	 * @param req
+	 * @param ticket : Ticket the render is cancelled with
+	 * @return
+	 * @throws Exception
+	 */
+	private byte[] load(RenderRequest req, RenderTicket ticket) throws Exception {
+		byte[] bytes = render(req, req.spec.withTicket(ticket));
+		// Images of a removed or replaced document are not kept
+		if (documents.get(req.id) == req.registration) {
+			cache.put(req.key, bytes);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Render encoded image of a request
+	 * @param req
+	 * @param spec : Spec of the request with its ticket
+	 * @return
+	 * @throws Exception
+	 */
+	private static byte[] render(final RenderRequest req, final RenderSpec spec) throws Exception {
+		RenderTicket ticket = spec.getTicket();
+		if (ticket.isCancelled()) {
+			throw new CancellationException();
+		}
+		byte[] bytes = req.registration.pool.withPage(req.pageNumber, new PageTask<byte[]>() {
+			public byte[] execute(Page page) {
+				if (!req.tile) {
+					return page.saveAsImage(spec);
+				}
+				PageRect m = page.getBoundBox().scale(spec.getZoom());
+				m = m.rotate(m, spec.getRotate());
+				if ((long)req.tilex * req.size >= m.getWidth() || (long)req.tiley * req.size >= m.getHeight()) {
+					throw new NotFoundException("Tile " + req.tilex + "_" + req.tiley + " is outside the page");
+				}
+				TiledImage tile = new TiledImage(page, spec, req.tilex, req.tiley, req.size, req.size);
+				return page.saveAsImage(tile.getRenderSpec());
+			}
+		});
+		if (bytes == null) {
+			if (ticket.isCancelled()) {
+				throw new CancellationException();
+			}
+			throw new IOException("Page " + req.pageNumber + " could not be rendered.");
+		}
+		return bytes;
+	}
+
+	/**
+	 * Determine if an If-None-Match header matches an ETag
+	 * @param ex
+	 * @param etag
+	 * @return
+	 */
+	private static boolean isNotModified(HttpExchange ex, String etag) {
+		List<String> headers = ex.getRequestHeaders().get("If-None-Match");
+		if (headers == null) {
+			return false;
+		}
+		for (String header : headers) {
+			for (String tag : header.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(etag)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Send a response and close the exchange
+	 * @param ex
+	 * @param metrics : Metrics to record request in, may be null
+	 * @param start
+	 * @param status
+	 * @param body : Body or null for none
+	 */
+	private static void send(HttpExchange ex, EndpointMetrics metrics, long start, int status, byte[] body) {
+		try {
+			if (body == null || status == 304 || ex.getRequestMethod().equals("HEAD")) {
+				ex.sendResponseHeaders(status, -1);
+			} else {
+				ex.sendResponseHeaders(status, body.length);
+				OutputStream out = ex.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		} catch (IOException e) {
+			// Client went away
+		} finally {
+			ex.close();
+			if (metrics != null) {
+				metrics.record(status, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Send a plain text error and close the exchange
+	 * @param ex
+	 * @param metrics
+	 * @param start
+	 * @param status
+	 * @param message
+	 */
+	private static void sendError(HttpExchange ex, EndpointMetrics metrics, long start, int status, String message) {
+		ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		send(ex, metrics, start, status, getBytes(message + "\n"));
+	}
+
+	/**
+	 * Parse a raw query string
+	 * @param query
+	 * @return
+	 */
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> map = new HashMap<String, String>();
+		if (query == null) {
+			return map;
+		}
+		for (String pair : query.split("&")) {
+			int i = pair.indexOf('=');
+			if (i > 0) {
+				try {
+					map.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				} catch (IllegalArgumentException e) {
+					// Ignore malformed escapes
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Get an int query parameter
+	 * @param query
+	 * @param name
+	 * @param def
+	 * @return
+	 */
+	private static int getInt(Map<String, String> query, String name, int def) {
+		String value = query.get(name);
+		if (value == null || value.length() == 0) {
+			return def;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number");
+		}
+	}
+
+	/**
+	 * Get image type of a type query parameter
+	 * @param type
+	 * @return
+	 */
+	private static ImageType getType(String type) {
+		if (type == null || type.equals("rgb")) {
+			return ImageType.IMAGE_TYPE_RGB;
+		}
+		if (type.equals("argb")) {
+			return ImageType.IMAGE_TYPE_ARGB;
+		}
+		if (type.equals("gray")) {
+			return ImageType.IMAGE_TYPE_GRAY;
+		}
+		throw new IllegalArgumentException("type must be rgb, argb or gray");
+	}
+
+	/**
+	 * Get UTF-8 bytes of a string
+	 * @param s
+	 * @return
+	 */
+	private static byte[] getBytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected void log(String text) {
+    	System.out.println(text);
+    }
+
+	/**
+	 * Handles /doc/ requests
+	 */
+	private class DocumentHandler implements HttpHandler {
+		/* */
+		public void handle(final HttpExchange ex) throws IOException {
+			final long start = System.nanoTime();
+			final RenderRequest req = parse(ex, ex.getRequestURI().getPath(), start);
+			if (req == null) {
+				return;
+			}
+
+			if (isNotModified(ex, req.etag)) {
+				ex.getResponseHeaders().set("ETag", req.etag);
+				send(ex, req.metrics, start, 304, null);
+				return;
+			}
+
+			// Cached images are sent right away, everything else waits for a render
+			byte[] bytes = cache.get(req.key);
+			if (bytes != null) {
+				ex.getResponseHeaders().set("ETag", req.etag);
+				ex.getResponseHeaders().set("Content-Type", req.format == ImageFormat.FORMAT_PNG ? "image/png" : "image/jpeg");
+				send(ex, req.metrics, start, 200, bytes);
+				return;
+			}
+
+			join(ex, req, start);
+		}
+	}
+
+	/**
+	 * Handles /metrics requests
+	 */
+	private class MetricsHandler implements HttpHandler {
+		/* */
+		public void handle(HttpExchange ex) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			sb.append(pageMetrics).append('\n');
+			sb.append(tileMetrics).append('\n');
+			sb.append("cache ").append(cache).append('\n');
+			ThreadPoolExecutor exec = renderExecutor;
+			if (exec != null) {
+				sb.append(String.format("queue workers=%d active=%d queued=%d capacity=%d completed=%d%n",
+										exec.getPoolSize(), exec.getActiveCount(), exec.getQueue().size(),
+										queueSize, exec.getCompletedTaskCount()));
+			}
+			Headers h = ex.getResponseHeaders();
+			h.set("Content-Type", "text/plain; charset=utf-8");
+			h.set("Cache-Control", "no-store");
+			send(ex, null, 0, 200, getBytes(sb.toString()));
+		}
+	}
+
+	/**
+	 * Registered document
+	 */
+	private static class Registration {
+		final DocumentPool pool;
+		final long generation;
+
+		Registration(DocumentPool pool, long generation) {
+			this.pool = pool;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Parsed image request
+	 */
+	private static class RenderRequest {
+		String id;
+		Registration registration;
+		EndpointMetrics metrics;
+		boolean tile;
+		int pageNumber;
+		int tilex;
+		int tiley;
+		int size;
+		ImageFormat format;
+		RenderSpec spec;
+		String key;
+		String etag;
+	}
+
+	/**
+	 * Render shared by all requests for the same image. Every request </br>
+	 * waiting for it is answered when it is done.
+	 */
+	private class SharedRender extends FutureTask<byte[]> {
+		final String key;
+		final RenderTicket ticket;
+		final List<Waiter> waiters = new ArrayList<Waiter>();
+
+		SharedRender(String key, RenderTicket ticket, Callable<byte[]> callable) {
+			super(callable);
+			this.key = key;
+			this.ticket = ticket;
+		}
+
+		/**
+		 * Stop the render, also while native code draws it
+		 */
+		void abort() {
+			ticket.cancel();
+			cancel(false);
+		}
+
+		/* */
+		protected void done() {
+			List<Waiter> list;
+			synchronized (rendering) {
+				if (rendering.get(key) == this) {
+					rendering.remove(key);
+				}
+				list = new ArrayList<Waiter>(waiters);
+				waiters.clear();
+			}
+			for (Waiter waiter : list) {
+				respond(this, waiter);
+			}
+		}
+	}
+
+	/**
+	 * Request waiting for a render. Answered once, by the render or by its timeout.
+	 */
+	private static class Waiter {
+		final HttpExchange ex;
+		final RenderRequest req;
+		final long start;
+		final AtomicBoolean answered = new AtomicBoolean();
+		volatile ScheduledFuture<?> timeout;
+
+		Waiter(HttpExchange ex, RenderRequest req, long start) {
+			this.ex = ex;
+			this.req = req;
+			this.start = start;
+		}
+
+		/**
+		 * Claim the right to answer
+		 * @return false if already answered
+		 */
+		boolean answer() {
+			if (!answered.compareAndSet(false, true)) {
+				return false;
+			}
+			ScheduledFuture<?> t = timeout;
+			if (t != null) {
+				t.cancel(false);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Raised by a render for a tile outside the page
+	 */
+	private static class NotFoundException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		NotFoundException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Creates named daemon threads
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String name;
+
+		DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		/* */
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
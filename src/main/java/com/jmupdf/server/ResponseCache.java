@@ -0,0 +1,50 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.server;
+
+import com.jmupdf.document.LruCache;
+
+/**
+ * Response Cache Class
+ *
+ * Keeps encoded images served by a RenderServer. Entries are bounded </br>
+ * by a byte budget and the least recently used ones are evicted first. </br></br>
+ *
+ * A response that is being rendered is rendered once; other requests </br>
+ * for it wait for those bytes. Bytes handed out are shared and must </br>
+ * not be changed.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class ResponseCache extends LruCache<String, byte[]> {
+
+	/**
+	 * Create a response cache
+	 * @param maxSize : Byte budget for responses
+	 */
+	public ResponseCache(long maxSize) {
+		super(maxSize);
+	}
+
+	/**
+	 * Remove all entries whose key starts with prefix
+	 * @param prefix
+	 */
+	public void removeAll(final String prefix) {
+		removeAll(new KeyFilter<String>() {
+			public boolean accept(String key) {
+				return key.startsWith(prefix);
+			}
+		});
+	}
+
+	/* */
+	protected long getSize(byte[] bytes) {
+		return bytes.length;
+	}
+
+}
@@ -6,27 +6,47 @@
 package com.jmupdf.tiles;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.jmupdf.enums.ImageType;
 import com.jmupdf.interfaces.Page;
-import com.jmupdf.interfaces.PagePixels;
 import com.jmupdf.page.PageRect;
+import com.jmupdf.page.RenderSpec;
 
 /**
  * TileCache Class
  * 
- * Maintains a list of TiledImage objects to be rendered later.
+ * Maintains a list of TiledImage objects to be rendered later. </br></br>
+ *
+ * All tiles render from the display list of one page, each on a </br>
+ * context cloned for the rendering thread, so tiles can be rendered </br>
+ * in parallel on an executor. The page must not be disposed while </br>
+ * tiles are rendering. </br></br>
+ *
+ * With a TileImageCache, tiles rendered before by any TileCache of </br>
+ * the same page, zoom bucket, rotation, image type and tile size are </br>
+ * taken from memory.
  * 
  * @author Pedro J Rivera
  * 
  */
 public class TileCache {
+	private static ExecutorService defaultExecutor;
 	private int tilew;
 	private int tileh;
+	private Executor executor;
+	private TileImageCache imageCache;
 	private ArrayList<TiledImage> tiles = new ArrayList<TiledImage>();
 	
 	/**
-	 * TileCache Class
+	 * TileCache Class </br>
+	 * Anti alias level and gamma are taken from the rendering options of the page.
 	 * @param page
 	 * @param color
 	 * @param rotate
@@ -35,17 +55,43 @@ public class TileCache {
 	 * @param tileh
 	 */
 	public TileCache(Page page, ImageType color, int rotate, float zoom, int tilew, int tileh) {
+		this(page, new RenderSpec(page.getRenderingOptions()).withImageType(color).withRotate(rotate).withZoom(zoom), tilew, tileh);
+	}
+
+	/**
+	 * TileCache Class </br>
+	 * The bound box and image format of spec are ignored.
+	 * @param page
+	 * @param spec
+	 * @param tilew
+	 * @param tileh
+	 */
+	public TileCache(Page page, RenderSpec spec, int tilew, int tileh) {
+		this(page, spec, tilew, tileh, null);
+	}
+
+	/**
+	 * TileCache Class </br>
+	 * The bound box and image format of spec are ignored. When an image </br>
+	 * cache is given, tiles are rendered at the bucket zoom of spec.
+	 * @param page
+	 * @param spec
+	 * @param tilew
+	 * @param tileh
+	 * @param imageCache : Cache of tile images, may be null
+	 */
+	public TileCache(Page page, RenderSpec spec, int tilew, int tileh, TileImageCache imageCache) {
 		this.tilew = tilew;
 		this.tileh = tileh;
-		
-		PagePixels pagePixels = page.getPagePixels();
-		pagePixels.getOptions().setZoom(zoom);
-		pagePixels.getOptions().setRotate(rotate);
-		pagePixels.getOptions().setImageType(color);
+		this.imageCache = imageCache;
+
+		if (imageCache != null) {
+			spec = spec.withZoom(TileKey.getBucketZoom(spec.getZoom()));
+		}
 		
 		// Rotate page as we want to display it
-		PageRect m = page.getBoundBox().scale(zoom);
-		m = m.rotate(m, rotate);
+		PageRect m = page.getBoundBox().scale(spec.getZoom());
+		m = m.rotate(m, spec.getRotate());
 
 		// Calculate tiles based on rotation
 		int w = m.getWidth();
@@ -65,11 +111,9 @@ public class TileCache {
 		// Images are not rendered here. I am just establishing tile data.
 		for (int y=0; y<tilesy; y++) {
 			for (int x=0; x<tilesx; x++) {
-				tiles.add(new TiledImage(pagePixels, x, y, tilew, tileh));				
+				tiles.add(new TiledImage(page, spec, x, y, tilew, tileh));
 			}
 		}
-		
-		pagePixels.dispose();
 	}
 
 	/**
@@ -96,6 +140,79 @@ public class TileCache {
 		return tileh;
 	}
 
+	/**
+	 * Set executor tiles are rendered on. </br>
+	 * When null a shared pool with one thread per available processor is used.
+	 * @param executor
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Get executor tiles are rendered on
+	 * @return
+	 */
+	public synchronized Executor getExecutor() {
+		if (executor == null) {
+			return getDefaultExecutor();
+		}
+		return executor;
+	}
+
+	/**
+	 * Get cache of tile images
+	 * @return
+	 */
+	public TileImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * Render all tiles in parallel and wait until they are done
+	 * @return true if every tile was rendered, false otherwise
+	 */
+	public boolean render() {
+		return render(tiles);
+	}
+
+	/**
+	 * Render some tiles in parallel and wait until they are done. </br>
+	 * Rendering a few tiles at a time bounds the memory images take.
+	 * @param list : Tiles of this cache
+	 * @return true if every tile was rendered, false otherwise
+	 */
+	public boolean render(List<TiledImage> list) {
+		final CountDownLatch done = new CountDownLatch(list.size());
+		final AtomicInteger failures = new AtomicInteger();
+		Executor exec = getExecutor();
+
+		for (final TiledImage tile : list) {
+			exec.execute(new Runnable() {
+				public void run() {
+					boolean ok = false;
+					try {
+						ok = tile.render(imageCache);
+					} finally {
+						if (!ok) {
+							failures.incrementAndGet();
+						}
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		return failures.get() == 0;
+	}
+
 	/**
 	 * Dispose of tiled images
 	 */
@@ -107,6 +224,23 @@ public class TileCache {
 		tiles = null;
 	}
 
+	/**
+	 * Get shared pool of daemon threads, one per available processor
+	 * @return
+	 */
+	private static synchronized Executor getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TileCache");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
+
     /**
      * Print test messages
      * @param text
@@ -0,0 +1,117 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.tiles;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.jmupdf.document.LruCache;
+import com.jmupdf.interfaces.Document;
+
+/**
+ * Tile Image Cache Class
+ *
+ * Keeps rendered tile images so panning and repeated requests are </br>
+ * served from memory. Images are bounded by a byte budget and the </br>
+ * least recently used ones are evicted first. </br></br>
+ *
+ * The cache may be used from several threads at once. A tile that is </br>
+ * being rendered is rendered once; other threads asking for it wait </br>
+ * for that image. Images handed out are shared and must not be changed. </br></br>
+ *
+ * Documents are not tracked. Call remove(Document) before disposing </br>
+ * a document so its tiles do not hold memory. Tiles of the document </br>
+ * still rendering then are not cached once done.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class TileImageCache extends LruCache<TileKey, BufferedImage> {
+
+	/**
+	 * Create a tile image cache
+	 * @param maxSize : Byte budget for images
+	 */
+	public TileImageCache(long maxSize) {
+		super(maxSize);
+	}
+
+	/**
+	 * Create a tile image cache with a 64mb budget
+	 */
+	public TileImageCache() {
+		this(64L << 20);
+	}
+
+	/**
+	 * Get a cached image or load and cache it. </br>
+	 * Loader runs on the calling thread. When another thread is already </br>
+	 * loading the same tile this waits for its image instead.
+	 * @param key
+	 * @param loader : Renders the tile image, may return null
+	 * @return Image or null if it could not be loaded
+	 */
+	public BufferedImage get(TileKey key, Callable<BufferedImage> loader) {
+		try {
+			return super.get(key, loader);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log("Tile " + key + " could not be rendered: " + e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Remove all images of a document
+	 * @param document
+	 */
+	public void remove(Document document) {
+		remove(document, 0);
+	}
+
+	/**
+	 * Remove all images of a page
+	 * @param document
+	 * @param pageNumber : Page number, or 0 for all pages
+	 */
+	public void remove(final Document document, final int pageNumber) {
+		removeAll(new KeyFilter<TileKey>() {
+			public boolean accept(TileKey key) {
+				return key.getDocument() == document && (pageNumber == 0 || key.getPageNumber() == pageNumber);
+			}
+		});
+	}
+
+	/**
+	 * Get number of images held
+	 * @return
+	 */
+	public int getTileCount() {
+		return getCount();
+	}
+
+	/**
+	 * Get number of bytes an image holds
+	 * @param image
+	 * @return
+	 */
+	protected long getSize(BufferedImage image) {
+		DataBuffer db = image.getRaster().getDataBuffer();
+		return (long)db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+	}
+
+	/**
+	 * Log messages
+	 * @param text
+	 */
+	private static void log(String text) {
+		System.err.println(text);
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.tiles;
+
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.page.RenderSpec;
+
+/**
+ * TileKey Class
+ *
+ * Identifies a tile image in a TileImageCache. </br>
+ * Documents are compared by identity. Zoom factors are bucketed to </br>
+ * 1/100 steps so factors that differ by rounding noise share tiles; </br>
+ * tiles kept in a cache are rendered at the bucket zoom.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public final class TileKey {
+	public static final int ZOOM_STEPS = 100;
+
+	private final Document document;
+	private final int pageNumber;
+	private final int zoom;
+	private final int rotate;
+	private final ImageType imageType;
+	private final int antiAlias;
+	private final float gamma;
+	private final int tilex;
+	private final int tiley;
+	private final int tilew;
+	private final int tileh;
+	private final int hash;
+
+	/**
+	 * Create a tile key
+	 * @param page
+	 * @param spec : Zoom, rotation, image type, anti alias level and gamma of the page image
+	 * @param tilex
+	 * @param tiley
+	 * @param tilew
+	 * @param tileh
+	 */
+	public TileKey(Page page, RenderSpec spec, int tilex, int tiley, int tilew, int tileh) {
+		this.document = page.getDocument();
+		this.pageNumber = page.getPageNumber();
+		this.zoom = Math.round(spec.getZoom() * ZOOM_STEPS);
+		this.rotate = spec.getRotate();
+		this.imageType = spec.getImageType();
+		this.antiAlias = spec.getAntiAlias();
+		this.gamma = spec.getGamma();
+		this.tilex = tilex;
+		this.tiley = tiley;
+		this.tilew = tilew;
+		this.tileh = tileh;
+
+		int h = System.identityHashCode(document);
+		h = h * 31 + pageNumber;
+		h = h * 31 + zoom;
+		h = h * 31 + rotate;
+		h = h * 31 + imageType.hashCode();
+		h = h * 31 + antiAlias;
+		h = h * 31 + Float.floatToIntBits(gamma);
+		h = h * 31 + tilex;
+		h = h * 31 + tiley;
+		h = h * 31 + tilew;
+		h = h * 31 + tileh;
+		this.hash = h;
+	}
+
+	/**
+	 * Get zoom factor of the bucket a zoom factor falls in
+	 * @param zoom
+	 * @return
+	 */
+	public static float getBucketZoom(float zoom) {
+		return Math.round(zoom * ZOOM_STEPS) / (float)ZOOM_STEPS;
+	}
+
+	/**
+	 * Get document
+	 * @return
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * Get page number
+	 * @return
+	 */
+	public int getPageNumber() {
+		return pageNumber;
+	}
+
+	/**
+	 * Get bucket zoom factor
+	 * @return
+	 */
+	public float getZoom() {
+		return zoom / (float)ZOOM_STEPS;
+	}
+
+	/**
+	 * Get rotation
+	 * @return
+	 */
+	public int getRotate() {
+		return rotate;
+	}
+
+	/**
+	 * Get image type
+	 * @return
+	 */
+	public ImageType getImageType() {
+		return imageType;
+	}
+
+	/**
+	 * Get tile x position
+	 * @return
+	 */
+	public int getTileX() {
+		return tilex;
+	}
+
+	/**
+	 * Get tile y position
+	 * @return
+	 */
+	public int getTileY() {
+		return tiley;
+	}
+
+	/* */
+	public int hashCode() {
+		return hash;
+	}
+
+	/* */
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TileKey)) {
+			return false;
+		}
+		TileKey k = (TileKey)obj;
+		return hash == k.hash &&
+			   document == k.document &&
+			   pageNumber == k.pageNumber &&
+			   zoom == k.zoom &&
+			   rotate == k.rotate &&
+			   imageType == k.imageType &&
+			   antiAlias == k.antiAlias &&
+			   Float.floatToIntBits(gamma) == Float.floatToIntBits(k.gamma) &&
+			   tilex == k.tilex &&
+			   tiley == k.tiley &&
+			   tilew == k.tilew &&
+			   tileh == k.tileh;
+	}
+
+	/* */
+	public String toString() {
+		return "TileKey[page=" + pageNumber + ", zoom=" + getZoom() + ", rotate=" + rotate +
+			   ", type=" + imageType + ", tile=" + tilex + "," + tiley + " " + tilew + "x" + tileh + "]";
+	}
+
+}
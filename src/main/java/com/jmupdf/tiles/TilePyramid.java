@@ -0,0 +1,578 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.tiles;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.TileLayout;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.page.PageRect;
+import com.jmupdf.page.RenderSpec;
+
+/**
+ * Tile Pyramid Class
+ *
+ * Exports a page as a multi-resolution tile pyramid for deep zoom </br>
+ * viewers, in DZI or z/x/y layout. The top level is the page image at </br>
+ * the zoom of the spec; every level below it is half the size. </br></br>
+ *
+ * Top level tiles are rendered in parallel from the display list of </br>
+ * the page. Lower levels are made by averaging 2x2 pixels of the four </br>
+ * tiles under each tile, which costs far less than rendering them. </br>
+ * Tiles that overlap their neighbors are rendered at every level instead. </br></br>
+ *
+ * The pyramid is walked depth first, so only a few tiles per level </br>
+ * and worker are held in memory. Tiles are written to a temporary file </br>
+ * and renamed, and a tile is written after the tiles under it, so an </br>
+ * interrupted export is resumed by exporting again with the same </br>
+ * settings: tiles already on disk are not rendered again.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class TilePyramid {
+	private final Page page;
+	private final RenderSpec spec;
+	private final File dir;
+	private final TileLayout layout;
+	private final int width;
+	private final int height;
+	private final AtomicInteger written = new AtomicInteger();
+	private int tileSize = 256;
+	private int overlap = 0;
+	private int parallelism;
+	private boolean downscale = true;
+	private String name = "page";
+	private volatile boolean cancelled;
+
+	/**
+	 * Create a tile pyramid
+	 *
+	 * @param page
+	 * @param spec : Zoom of the top level, rotation, PNG or JPEG format and RGB, ARGB or gray image type
+	 * @param dir : Directory tiles are written to
+	 * @param layout
+	 */
+	public TilePyramid(Page page, RenderSpec spec, File dir, TileLayout layout) {
+		if (spec.getImageFormat() != ImageFormat.FORMAT_PNG &&
+			spec.getImageFormat() != ImageFormat.FORMAT_JPG) {
+			throw new IllegalArgumentException("Tile pyramids must be PNG or JPEG.");
+		}
+		if (spec.getImageType() != ImageType.IMAGE_TYPE_RGB &&
+			spec.getImageType() != ImageType.IMAGE_TYPE_GRAY &&
+			!(spec.getImageType() == ImageType.IMAGE_TYPE_ARGB && spec.getImageFormat() == ImageFormat.FORMAT_PNG)) {
+			throw new IllegalArgumentException("Tile pyramids must be RGB, gray or ARGB PNG images.");
+		}
+
+		this.page = page;
+		this.spec = spec.withBoundBox(0, 0, 0, 0);
+		this.dir = dir;
+		this.layout = layout;
+		this.parallelism = Runtime.getRuntime().availableProcessors();
+
+		// Rotate page as we want to display it
+		PageRect m = page.getBoundBox().scale(spec.getZoom());
+		m = m.rotate(m, spec.getRotate());
+		this.width = m.getWidth();
+		this.height = m.getHeight();
+	}
+
+	/**
+	 * Set tile size. It is rounded up to an even number. </br>
+	 * The default is 256.
+	 * @param tileSize
+	 */
+	public void setTileSize(int tileSize) {
+		this.tileSize = Math.max((tileSize + 1) & ~1, 2);
+	}
+
+	/**
+	 * Get tile size
+	 * @return
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Set number of pixels DZI tiles overlap their neighbors on each side. </br>
+	 * The default is 0. Ignored by the z/x/y layout.
+	 * @param overlap
+	 */
+	public void setOverlap(int overlap) {
+		this.overlap = Math.max(overlap, 0);
+	}
+
+	/**
+	 * Get number of pixels tiles overlap their neighbors
+	 * @return
+	 */
+	public int getOverlap() {
+		return layout == TileLayout.TILE_LAYOUT_DZI ? overlap : 0;
+	}
+
+	/**
+	 * Make lower levels by downscaling, or render every level. </br>
+	 * The default is to downscale.
+	 * @param downscale
+	 */
+	public void setDownscale(boolean downscale) {
+		this.downscale = downscale;
+	}
+
+	/**
+	 * Determine if lower levels are made by downscaling
+	 * @return
+	 */
+	public boolean isDownscale() {
+		return downscale && getOverlap() == 0;
+	}
+
+	/**
+	 * Set number of workers. Defaults to available processors when <= 0.
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Get number of workers
+	 * @return
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set DZI base name. Tiles go to name_files and the descriptor </br>
+	 * to name.dzi. The default is "page".
+	 * @param name
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Get DZI base name
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get width of top level image
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get height of top level image
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get number of the top level. </br>
+	 * DZI levels go down to a 1x1 image, z/x/y levels down to one tile.
+	 * @return
+	 */
+	public int getTopLevel() {
+		int size = Math.max(Math.max(width, height), 1);
+		int top = 0;
+		if (layout == TileLayout.TILE_LAYOUT_DZI) {
+			while ((1L << top) < size) {
+				top++;
+			}
+		} else {
+			while (((long)tileSize << top) < size) {
+				top++;
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Get image width of a level
+	 * @param level
+	 * @return
+	 */
+	public int getLevelWidth(int level) {
+		return scale(width, getTopLevel() - level);
+	}
+
+	/**
+	 * Get image height of a level
+	 * @param level
+	 * @return
+	 */
+	public int getLevelHeight(int level) {
+		return scale(height, getTopLevel() - level);
+	}
+
+	/**
+	 * Get file of a tile
+	 * @param level
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public File getTileFile(int level, int x, int y) {
+		String ext = spec.getImageFormat() == ImageFormat.FORMAT_PNG ? "png" : "jpg";
+		if (layout == TileLayout.TILE_LAYOUT_DZI) {
+			return new File(dir, name + "_files" + File.separator + level + File.separator + x + "_" + y + "." + ext);
+		}
+		return new File(dir, level + File.separator + x + File.separator + y + "." + ext);
+	}
+
+	/**
+	 * Get number of tiles written by the last export
+	 * @return
+	 */
+	public int getTilesWritten() {
+		return written.get();
+	}
+
+	/**
+	 * Stop a running export. Tiles written so far are kept.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Export all tiles not written yet and wait until they are done. </br>
+	 * The DZI descriptor is written last.
+	 *
+	 * @return true if the pyramid is complete, false if it was cancelled
+	 * @throws IOException if a tile could not be rendered or written
+	 */
+	public boolean export() throws IOException {
+		cancelled = false;
+		written.set(0);
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new TileTask(getTopLevel(), 0, 0, 0));
+		} catch (CancellationException e) {
+			return false;
+		} catch (RuntimeException e) {
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof IOException) {
+					throw (IOException)t;
+				}
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+
+		if (layout == TileLayout.TILE_LAYOUT_DZI) {
+			writeDescriptor();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write DZI descriptor
+	 * @throws IOException
+	 */
+	private void writeDescriptor() throws IOException {
+		File file = new File(dir, name + ".dzi");
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" Format=\"" +
+					  (spec.getImageFormat() == ImageFormat.FORMAT_PNG ? "png" : "jpg") +
+					  "\" Overlap=\"" + getOverlap() + "\" TileSize=\"" + tileSize + "\">\n");
+			out.write("  <Size Width=\"" + width + "\" Height=\"" + height + "\"/>\n");
+			out.write("</Image>\n");
+		} finally {
+			out.close();
+		}
+		rename(tmp, file);
+	}
+
+	/**
+	 * Render a tile from the display list
+	 * @param top
+	 * @param level
+	 * @param x
+	 * @param y
+	 * @return
+	 * @throws IOException
+	 */
+	private BufferedImage render(int top, int level, int x, int y) throws IOException {
+		int ovl = getOverlap();
+		int x0 = x * tileSize - (x > 0 ? ovl : 0);
+		int y0 = y * tileSize - (y > 0 ? ovl : 0);
+		int x1 = (x + 1) * tileSize + ovl;
+		int y1 = (y + 1) * tileSize + ovl;
+		RenderSpec s = spec.withZoom(spec.getZoom() / (1L << (top - level)));
+		TiledImage tile = new TiledImage(page, s, x, y, x0, y0, x1 - x0, y1 - y0);
+		if (!tile.render()) {
+			throw new IOException("Tile " + level + "/" + x + "/" + y + " could not be rendered.");
+		}
+		return tile.getImage();
+	}
+
+	/**
+	 * Write a tile through a temporary file
+	 * @param image
+	 * @param file
+	 * @throws IOException
+	 */
+	private void write(BufferedImage image, File file) throws IOException {
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		tmp.delete();
+
+		if (spec.getImageFormat() == ImageFormat.FORMAT_PNG) {
+			if (!ImageIO.write(image, "png", tmp)) {
+				throw new IOException("No PNG writer for tile " + file);
+			}
+		} else {
+			Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("jpeg");
+			if (!it.hasNext()) {
+				throw new IOException("No JPEG writer for tile " + file);
+			}
+			ImageWriter writer = it.next();
+			ImageOutputStream out = ImageIO.createImageOutputStream(tmp);
+			try {
+				ImageWriteParam param = writer.getDefaultWriteParam();
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(spec.getQuality() / 100f);
+				writer.setOutput(out);
+				writer.write(null, new IIOImage(image, null, null), param);
+			} finally {
+				writer.dispose();
+				out.close();
+			}
+		}
+
+		rename(tmp, file);
+	}
+
+	/**
+	 * Rename a file, replacing the target
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	private static void rename(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			to.delete();
+			if (!from.renameTo(to)) {
+				throw new IOException("Cannot rename " + from + " to " + to);
+			}
+		}
+	}
+
+	/**
+	 * Read a tile written before
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static BufferedImage read(File file) throws IOException {
+		BufferedImage image = ImageIO.read(file);
+		if (image == null) {
+			throw new IOException("Cannot read tile " + file);
+		}
+		return image;
+	}
+
+	/**
+	 * Get size of a dimension halved n times, rounded up
+	 * @param size
+	 * @param n
+	 * @return
+	 */
+	private static int scale(int size, int n) {
+		return (int)((size + (1L << n) - 1) >> n);
+	}
+
+	/**
+	 * Halve an image by averaging 2x2 pixels. </br>
+	 * Odd last rows and columns are averaged with themselves.
+	 * @param image
+	 * @return
+	 */
+	private static BufferedImage halve(BufferedImage image) {
+		Raster src = image.getRaster();
+		ColorModel cm = image.getColorModel();
+		int w = src.getWidth();
+		int h = src.getHeight();
+		int n = src.getNumBands();
+		int hw = (w + 1) / 2;
+		int hh = (h + 1) / 2;
+		WritableRaster dst = cm.createCompatibleWritableRaster(hw, hh);
+		int[] a = new int[w * n];
+		int[] b = new int[w * n];
+		int[] d = new int[hw * n];
+
+		for (int y = 0; y < hh; y++) {
+			src.getPixels(0, 2 * y, w, 1, a);
+			src.getPixels(0, Math.min(2 * y + 1, h - 1), w, 1, b);
+			for (int x = 0; x < hw; x++) {
+				int p = 2 * x * n;
+				int q = Math.min(2 * x + 1, w - 1) * n;
+				for (int k = 0; k < n; k++) {
+					d[x * n + k] = (a[p + k] + a[q + k] + b[p + k] + b[q + k] + 2) >> 2;
+				}
+			}
+			dst.setPixels(0, y, hw, 1, d);
+		}
+
+		return new BufferedImage(cm, dst, cm.isAlphaPremultiplied(), null);
+	}
+
+	/**
+	 * One tile of the pyramid. Computes the tiles under it first </br>
+	 * and returns its own image halved when the level above is downscaled.
+	 */
+	private class TileTask extends RecursiveTask<BufferedImage> {
+		private static final long serialVersionUID = 1L;
+		private final int top;
+		private final int level;
+		private final int x;
+		private final int y;
+
+		TileTask(int top, int level, int x, int y) {
+			this.top = top;
+			this.level = level;
+			this.x = x;
+			this.y = y;
+		}
+
+		/* */
+		protected BufferedImage compute() {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			try {
+				return computeTile();
+			} catch (IOException e) {
+				throw new TileException(e);
+			}
+		}
+
+		/**
+		 * Compute tile
+		 * @return Tile image halved, or null when not needed
+		 * @throws IOException
+		 */
+		private BufferedImage computeTile() throws IOException {
+			File file = getTileFile(level, x, y);
+			boolean exists = file.exists();
+			boolean derive = level < top && isDownscale();
+			boolean half = level > 0 && isDownscale();
+			BufferedImage image = null;
+
+			// Tiles on disk were written after the tiles under them when downscaling
+			if (level < top && !(derive && exists)) {
+				List<TileTask> tasks = new ArrayList<TileTask>(4);
+				int lw = getLevelWidth(level + 1);
+				int lh = getLevelHeight(level + 1);
+				for (int ty = 2 * y; ty <= 2 * y + 1 && ty * tileSize < lh; ty++) {
+					for (int tx = 2 * x; tx <= 2 * x + 1 && tx * tileSize < lw; tx++) {
+						tasks.add(new TileTask(top, level + 1, tx, ty));
+					}
+				}
+				invokeAll(tasks);
+				if (derive) {
+					image = compose(tasks);
+				}
+			}
+
+			if (exists) {
+				if (half) {
+					image = read(file);
+				}
+			} else {
+				if (!derive) {
+					image = render(top, level, x, y);
+				}
+				write(image, file);
+				written.incrementAndGet();
+			}
+
+			return half ? halve(image) : null;
+		}
+
+		/**
+		 * Put halved images of the tiles under this one together
+		 * @param tasks
+		 * @return
+		 */
+		private BufferedImage compose(List<TileTask> tasks) {
+			int w = Math.min(tileSize, getLevelWidth(level) - x * tileSize);
+			int h = Math.min(tileSize, getLevelHeight(level) - y * tileSize);
+			WritableRaster raster = null;
+			ColorModel cm = null;
+			for (TileTask task : tasks) {
+				BufferedImage quarter = task.join();
+				if (raster == null) {
+					cm = quarter.getColorModel();
+					raster = cm.createCompatibleWritableRaster(w, h);
+				}
+				Raster r = quarter.getRaster().createTranslatedChild((task.x - 2 * x) * tileSize / 2,
+																	 (task.y - 2 * y) * tileSize / 2);
+				raster.setRect(r);
+			}
+			return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+		}
+	}
+
+	/**
+	 * Carries an IOException out of a tile task
+	 */
+	private static class TileException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		TileException(IOException e) {
+			super(e);
+		}
+	}
+
+}
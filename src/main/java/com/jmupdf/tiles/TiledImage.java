@@ -6,61 +6,133 @@
 package com.jmupdf.tiles;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
 
 import com.jmupdf.interfaces.Page;
-import com.jmupdf.interfaces.PagePixels;
 import com.jmupdf.page.PageRect;
+import com.jmupdf.page.RenderSpec;
 
 /**
  * TiledImage Class
  * 
- * Represents a single tiled image
+ * Represents a single tiled image. </br>
+ * Tiles of a page render from the display list of that page, </br>
+ * so the page is only interpreted once for all of its tiles.
  * 
  * @author Pedro J Rivera
  *
  */
 public class TiledImage {
-	private PagePixels pagePixels;
-	private PageRect tileRect;
-	private PageRect pixRect;
-	private int tilex;
-	private int tiley;
+	private final Page page;
+	private final PageRect tileRect;
+	private final RenderSpec spec;
+	private final TileKey key;
+	private final int tilex;
+	private final int tiley;
+	private BufferedImage image;
+	private boolean shared;
 	
 	/**
 	 * TiledImage Class
+	 * @param page : Page the tile is rendered from. It is not disposed with the tile.
+	 * @param spec : Zoom, rotation and image type of the whole page image
 	 * @param tilex
 	 * @param tiley
 	 * @param tilew
 	 * @param tileh
-	 * @param pagePixels
 	 */
-	public TiledImage(PagePixels pagePixels, int tilex, int tiley, int tilew, int tileh) {
+	public TiledImage(Page page, RenderSpec spec, int tilex, int tiley, int tilew, int tileh) {
+		this.page = page;
 		this.tilex = tilex;
 		this.tiley = tiley;
 		this.tileRect = new PageRect(tilex * tilew, tiley * tileh, tilew, tileh);
-		this.pixRect = new PageRect();		
-		this.pagePixels = pagePixels.clone();
-		normalize();
+		this.key = new TileKey(page, spec, tilex, tiley, tilew, tileh);
+		this.spec = normalize(spec);
 	}
 
 	/**
-	 * Get image
+	 * Create a tile covering any rectangle of the page image. </br>
+	 * Used for tiles that overlap their neighbors. These tiles have no </br>
+	 * key and are never taken from a cache.
+	 * @param page
+	 * @param spec
+	 * @param tilex
+	 * @param tiley
+	 * @param x : Left edge in page image pixels
+	 * @param y : Top edge in page image pixels
+	 * @param w
+	 * @param h
+	 */
+	TiledImage(Page page, RenderSpec spec, int tilex, int tiley, int x, int y, int w, int h) {
+		this.page = page;
+		this.tilex = tilex;
+		this.tiley = tiley;
+		this.tileRect = new PageRect(x, y, w, h);
+		this.key = null;
+		this.spec = normalize(spec);
+	}
+
+	/**
+	 * Get image. Null until the tile is rendered.
 	 * @return
 	 */
-	public BufferedImage getImage() {
-		return getPagePixels().getImage();
+	public synchronized BufferedImage getImage() {
+		return image;
 	}
 	
 	/**
-	 * Render tile image
+	 * Render tile image. </br>
+	 * Different tiles of a page may be rendered at the same time.
+	 * @return true upon success, false otherwise
 	 */
-	public void render() {
-		getPagePixels().drawPage(
-				 null,
-				 pixRect.getX0() / getPagePixels().getOptions().getZoom(), 
-				 pixRect.getY0() / getPagePixels().getOptions().getZoom(), 
-				 pixRect.getX1() / getPagePixels().getOptions().getZoom(), 
-				 pixRect.getY1() / getPagePixels().getOptions().getZoom() );
+	public boolean render() {
+		BufferedImage img = page.getImage(spec);
+		synchronized (this) {
+			image = img;
+			shared = false;
+		}
+		return img != null;
+	}
+
+	/**
+	 * Render tile image or take it from a cache. </br>
+	 * Cached images are shared and must not be changed. </br>
+	 * Tiles should be created with the bucket zoom of the cache.
+	 * @param cache : Cache to use, or null to always render
+	 * @return true upon success, false otherwise
+	 */
+	public boolean render(TileImageCache cache) {
+		if (cache == null || key == null) {
+			return render();
+		}
+		BufferedImage img = cache.get(key, new Callable<BufferedImage>() {
+			public BufferedImage call() {
+				return page.getImage(spec);
+			}
+		});
+		synchronized (this) {
+			image = img;
+			shared = true;
+		}
+		return img != null;
+	}
+
+	/**
+	 * Get specification that renders the tile. </br>
+	 * The bound box covers the tile only, so the tile can also be </br>
+	 * saved with Page.saveAsImage() or written with Page.writeImage().
+	 * @return
+	 */
+	public RenderSpec getRenderSpec() {
+		return spec;
+	}
+
+	/**
+	 * Get key of tile in a TileImageCache
+	 * @return Key or null for tiles that overlap their neighbors
+	 */
+	public TileKey getKey() {
+		return key;
 	}
 
 	/**
@@ -112,23 +184,27 @@ public class TiledImage {
 	}
 
 	/**
-	 * Dispose of resources
+	 * Dispose of resources. Images taken from a cache are left to the cache.
 	 */
-	public void dispose() {
-		tileRect = null;
-		pixRect = null;
-		pagePixels.getPage().dispose();
-		pagePixels.dispose();
+	public synchronized void dispose() {
+		if (image != null && !shared) {
+			image.flush();
+		}
+		image = null;
 	}
 
 	/**
-	 * Normalize rendering coordinates
+	 * Clip tile to the page image and get the specification </br>
+	 * that renders it
+	 * @param spec
+	 * @return
 	 */
-	private void normalize() {
+	private RenderSpec normalize(RenderSpec spec) {
+		float zoom = spec.getZoom();
 		
 		// Rotate bound box to actual rotation
-		PageRect bb = getPage().getBoundBox().scale(getPagePixels().getOptions().getZoom());
-		PageRect rb = bb.rotate(bb, getPagePixels().getOptions().getRotate());
+		PageRect bb = page.getBoundBox().scale(zoom);
+		PageRect rb = bb.rotate(bb, spec.getRotate());
 
 		// Adjust width of tile
 		int x1 = rb.getWidth();
@@ -138,24 +214,11 @@ public class TiledImage {
 		tileRect.setRect(tileRect.getX(), tileRect.getY(), (Math.min(x1, x2) - getX()), (Math.min(y1, y2) - getY()));
 
 		// Rotate to default page rotation
-		pixRect.setRect(getX(), getY(), getWidth(), getHeight());
-		pixRect = pixRect.rotate(bb, getPagePixels().getOptions().getRotate(), Page.PAGE_ROTATE_NONE);
-	}
+		PageRect pixRect = new PageRect(getX(), getY(), getWidth(), getHeight());
+		pixRect = pixRect.rotate(bb, spec.getRotate(), Page.PAGE_ROTATE_NONE);
 
-	/**
-	 * Get page object
-	 * @return
-	 */
-	private Page getPage() {
-		return getPagePixels().getPage();
-	}
-	
-	/**
-	 * Get page renderer
-	 * @return
-	 */
-	private PagePixels getPagePixels() {
-		return pagePixels;
+		return spec.withBoundBox(pixRect.getX0() / zoom, pixRect.getY0() / zoom,
+								 pixRect.getX1() / zoom, pixRect.getY1() / zoom);
 	}
 	
     /**
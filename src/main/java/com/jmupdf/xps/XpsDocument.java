@@ -5,8 +5,12 @@
  */
 package com.jmupdf.xps;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
 import com.jmupdf.document.DocumentImp;
 import com.jmupdf.enums.DocumentType;
+import com.jmupdf.enums.OpenMode;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 
@@ -40,6 +44,29 @@ public final class XpsDocument extends DocumentImp  {
 		this(document, 0);
 	}
 
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param maxStore
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public XpsDocument(String document, int maxStore, OpenMode mode) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore, mode);
+	}
+	
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public XpsDocument(String document, OpenMode mode) throws DocException, DocSecurityException {
+		this(document, 0, mode);
+	}
+
 	/**
 	 * Create a new document object
 	 * @param document
@@ -61,6 +88,50 @@ public final class XpsDocument extends DocumentImp  {
 		this(document, 0);
 	}
 
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public XpsDocument(ByteBuffer document, int maxStore) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore);
+	}
+	
+	/**
+	 * Create a new document object from memory buffer
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public XpsDocument(ByteBuffer document) throws DocException, DocSecurityException {
+		this(document, 0);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel. </br>
+	 * The channel must stay open until the document is disposed.
+	 * @param document
+	 * @param maxStore
+	 * @param readAhead : Read ahead buffer size in bytes
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public XpsDocument(SeekableByteChannel document, int maxStore, int readAhead) throws DocException, DocSecurityException {
+		open(document, readAhead, null, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from a seekable channel
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public XpsDocument(SeekableByteChannel document) throws DocException, DocSecurityException {
+		this(document, 0, DEFAULT_READ_AHEAD);
+	}
+
 	/**
 	 * Clone current document.
 	 * This will create a new handle to document. </br>
@@ -71,7 +142,13 @@ public final class XpsDocument extends DocumentImp  {
 		XpsDocument doc = null;
 		if (getHandle() > 0) {
 			try {
-				doc = new XpsDocument(getDocumentName());
+				if (getDocumentBuffer() != null) {
+					doc = new XpsDocument(getDocumentBuffer());
+				} else if (getDocumentChannel() != null) {
+					doc = new XpsDocument(getDocumentChannel(), 0, getReadAhead());
+				} else {
+					doc = new XpsDocument(getDocumentName(), 0, getOpenMode());
+				}
 			} catch (DocException e) {
 				doc = null;
 			} catch (DocSecurityException e) {